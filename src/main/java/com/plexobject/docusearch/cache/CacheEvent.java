@@ -0,0 +1,85 @@
+package com.plexobject.docusearch.cache;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+
+/**
+ * This class describes a change that invalidates cached entries of a scope,
+ * e.g. an index or a policy id. Only caches that subscribed to the type of
+ * the event are invalidated.
+ * 
+ * @author Shahzad Bhatti
+ * 
+ */
+public class CacheEvent {
+    public enum Type {
+        /**
+         * documents of the index in scope were added, removed or merged
+         */
+        INDEX_CHANGED,
+        /**
+         * index policy with id in scope was saved
+         */
+        INDEX_POLICY_CHANGED,
+        /**
+         * query policy with id in scope was saved
+         */
+        QUERY_POLICY_CHANGED,
+        /**
+         * lookup policy with id in scope was saved
+         */
+        LOOKUP_POLICY_CHANGED
+    }
+
+    private final Type type;
+    private final String scope;
+
+    public CacheEvent(final Type type, final String scope) {
+        if (type == null) {
+            throw new NullPointerException("type not specified");
+        }
+        if (scope == null) {
+            throw new NullPointerException("scope not specified");
+        }
+        this.type = type;
+        this.scope = scope;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return name of index or id of policy that was changed
+     */
+    public String getScope() {
+        return scope;
+    }
+
+    /**
+     * @see java.lang.Object#equals(Object)
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof CacheEvent)) {
+            return false;
+        }
+        CacheEvent rhs = (CacheEvent) object;
+        return new EqualsBuilder().append(this.type, rhs.type).append(
+                this.scope, rhs.scope).isEquals();
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder(786529047, 1924536713).append(this.type)
+                .append(this.scope).toHashCode();
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + scope;
+    }
+}
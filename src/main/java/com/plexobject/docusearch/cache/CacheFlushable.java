@@ -3,4 +3,14 @@ package com.plexobject.docusearch.cache;
 public interface CacheFlushable {
     void flushCache();
     int cacheSize();
+
+    /**
+     * This method removes entries that are invalidated by the event, caches
+     * that didn't subscribe to the type of the event are not changed
+     * 
+     * @param event
+     *            - change event
+     * @return number of removed entries
+     */
+    int invalidate(CacheEvent event);
 }
@@ -1,13 +1,20 @@
 package com.plexobject.docusearch.cache;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
+import com.plexobject.docusearch.jmx.JMXRegistrar;
+import com.plexobject.docusearch.jmx.impl.CachesJMXBeanImpl;
+
 public class CacheFlusher {
     private List<CacheFlushable> caches = new ArrayList<CacheFlushable>();
     private static final CacheFlusher INSTANCE = new CacheFlusher();
 
     private CacheFlusher() {
+        // statistics of all caches are read by a single bean
+        final CachesJMXBeanImpl mbean = new CachesJMXBeanImpl();
+        JMXRegistrar.getInstance().registerMBean(mbean.getObjectName(), mbean);
     }
 
     public static CacheFlusher getInstance() {
@@ -19,7 +26,31 @@ public class CacheFlusher {
     }
 
     public synchronized void removeCacheFlushable(CacheFlushable cf) {
-        caches.remove(cf);
+        // by identity as caches with same entries are equal
+        for (Iterator<CacheFlushable> it = caches.iterator(); it.hasNext();) {
+            if (it.next() == cf) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * This method invalidates entries of caches that subscribed to the type
+     * of the event, other caches are not changed
+     * 
+     * @param event
+     *            - change event
+     * @return number of removed entries
+     */
+    public synchronized int invalidate(final CacheEvent event) {
+        if (event == null) {
+            throw new NullPointerException("event not specified");
+        }
+        int removed = 0;
+        for (CacheFlushable cf : caches) {
+            removed += cf.invalidate(event);
+        }
+        return removed;
     }
 
     public synchronized void flushCaches() {
@@ -28,6 +59,19 @@ public class CacheFlusher {
         }
     }
 
+    /**
+     * @return statistics of all named caches
+     */
+    public synchronized List<CacheStats> getCacheStats() {
+        final List<CacheStats> stats = new ArrayList<CacheStats>();
+        for (CacheFlushable cf : caches) {
+            if (cf instanceof CachedMap<?, ?>) {
+                stats.add(((CachedMap<?, ?>) cf).getStats());
+            }
+        }
+        return stats;
+    }
+
     public synchronized int[] cacheSizes() {
         int[] sizes = new int[caches.size()];
         int i = 0;
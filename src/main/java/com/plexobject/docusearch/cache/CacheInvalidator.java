@@ -0,0 +1,20 @@
+package com.plexobject.docusearch.cache;
+
+/**
+ * This interface decides which cached entries are invalidated by an event
+ * that a cache subscribed to.
+ * 
+ * @author Shahzad Bhatti
+ * 
+ */
+public interface CacheInvalidator<K> {
+    /**
+     * 
+     * @param event
+     *            - change event
+     * @param key
+     *            - key of cached entry
+     * @return true if entry of the key should be removed
+     */
+    boolean isInvalidated(CacheEvent event, K key);
+}
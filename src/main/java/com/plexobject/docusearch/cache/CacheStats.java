@@ -0,0 +1,240 @@
+package com.plexobject.docusearch.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import com.plexobject.docusearch.jmx.CacheJMXBean;
+
+/**
+ * This class keeps statistics of a CachedMap so that effectiveness of the
+ * cache can be monitored. This is thread safe class.
+ * 
+ * @author Shahzad Bhatti
+ * 
+ */
+public class CacheStats implements CacheJMXBean {
+    // upper bounds of load histogram buckets, the last bucket is unbounded
+    private static final long[] LOAD_MILLIS_BUCKETS = { 1, 10, 100, 1000 };
+
+    private final CachedMap<?, ?> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong totalLoadNanos = new AtomicLong();
+    private final AtomicLongArray loadMillisHistogram = new AtomicLongArray(
+            LOAD_MILLIS_BUCKETS.length + 1);
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong rejectedReloads = new AtomicLong();
+    private final AtomicLong sizeEvictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    CacheStats(final CachedMap<?, ?> cache) {
+        this.cache = cache;
+    }
+
+    void hit() {
+        hits.incrementAndGet();
+    }
+
+    void miss() {
+        misses.incrementAndGet();
+    }
+
+    void loaded(final long elapsedNanos, final boolean failed) {
+        loads.incrementAndGet();
+        if (failed) {
+            loadFailures.incrementAndGet();
+        }
+        totalLoadNanos.addAndGet(elapsedNanos);
+        final long millis = elapsedNanos / 1000000;
+        int bucket = 0;
+        while (bucket < LOAD_MILLIS_BUCKETS.length
+                && millis > LOAD_MILLIS_BUCKETS[bucket]) {
+            bucket++;
+        }
+        loadMillisHistogram.incrementAndGet(bucket);
+    }
+
+    void reloaded(final boolean rejected) {
+        if (rejected) {
+            rejectedReloads.incrementAndGet();
+        } else {
+            reloads.incrementAndGet();
+        }
+    }
+
+    void evicted(final int count) {
+        sizeEvictions.addAndGet(count);
+    }
+
+    void expired() {
+        expirations.incrementAndGet();
+    }
+
+    void flushed(final int count) {
+        flushes.addAndGet(count);
+    }
+
+    void invalidated(final int count) {
+        invalidations.addAndGet(count);
+    }
+
+    @Override
+    public String getCacheName() {
+        return cache.getName();
+    }
+
+    @Override
+    public int getSize() {
+        return cache.size();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return cache.getMaxSize();
+    }
+
+    @Override
+    public long getWeight() {
+        return cache.getWeight();
+    }
+
+    @Override
+    public long getMaxWeight() {
+        return cache.getMaxWeight();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long lookups = hits.get() + misses.get();
+        return lookups == 0 ? 0 : (double) hits.get() / lookups;
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.get();
+    }
+
+    @Override
+    public long getLoadFailures() {
+        return loadFailures.get();
+    }
+
+    @Override
+    public double getAverageLoadMillis() {
+        final long n = loads.get();
+        return n == 0 ? 0 : totalLoadNanos.get() / 1000000.0 / n;
+    }
+
+    @Override
+    public long[] getLoadMillisHistogram() {
+        final long[] histogram = new long[loadMillisHistogram.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = loadMillisHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    /**
+     * @return number of reloads that were queued in the background
+     */
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    /**
+     * @return number of reloads that were dropped because the loader queue
+     *         was full
+     */
+    public long getRejectedReloads() {
+        return rejectedReloads.get();
+    }
+
+    @Override
+    public long getSizeEvictions() {
+        return sizeEvictions.get();
+    }
+
+    @Override
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    @Override
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public long getEstimatedMemoryBytes() {
+        return cache.estimateMemoryBytes();
+    }
+
+    /**
+     * @return statistics as JSON object
+     * @throws JSONException
+     */
+    public JSONObject toJSONObject() throws JSONException {
+        final JSONObject json = new JSONObject();
+        json.put("name", getCacheName());
+        json.put("size", getSize());
+        json.put("maxSize", getMaxSize());
+        json.put("weight", getWeight());
+        json.put("maxWeight", getMaxWeight());
+        json.put("hits", getHits());
+        json.put("misses", getMisses());
+        json.put("hitRatio", getHitRatio());
+        json.put("loads", getLoads());
+        json.put("loadFailures", getLoadFailures());
+        json.put("averageLoadMillis", getAverageLoadMillis());
+        final JSONObject histogram = new JSONObject();
+        final long[] counts = getLoadMillisHistogram();
+        for (int i = 0; i < counts.length; i++) {
+            histogram.put(i < LOAD_MILLIS_BUCKETS.length ? "<="
+                    + LOAD_MILLIS_BUCKETS[i] : ">"
+                    + LOAD_MILLIS_BUCKETS[LOAD_MILLIS_BUCKETS.length - 1],
+                    counts[i]);
+        }
+        json.put("loadMillisHistogram", histogram);
+        json.put("reloads", getReloads());
+        json.put("rejectedReloads", getRejectedReloads());
+        json.put("sizeEvictions", getSizeEvictions());
+        json.put("expirations", getExpirations());
+        json.put("flushes", getFlushes());
+        json.put("invalidations", getInvalidations());
+        json.put("estimatedMemoryBytes", getEstimatedMemoryBytes());
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return getCacheName() + " size " + getSize() + "/" + getMaxSize()
+                + ", weight " + getWeight() + "/" + getMaxWeight()
+                + ", hits " + hits + ", misses " + misses + ", loads "
+                + loads + ", failures " + loadFailures + ", evictions "
+                + sizeEvictions + ", expirations " + expirations
+                + ", flushes " + flushes + ", invalidations "
+                + invalidations;
+    }
+}
@@ -0,0 +1,21 @@
+package com.plexobject.docusearch.cache;
+
+/**
+ * This interface estimates weight of cached entries so that a cache can be
+ * bounded by estimated bytes instead of number of entries.
+ * 
+ * @author Shahzad Bhatti
+ * 
+ */
+public interface CacheWeigher<K, V> {
+    /**
+     * 
+     * @param key
+     *            - key of entry
+     * @param value
+     *            - cached value
+     * @return estimated weight of entry in bytes, it must not change while
+     *         the entry is cached
+     */
+    long weigh(K key, V value);
+}
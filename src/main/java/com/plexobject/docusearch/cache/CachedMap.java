@@ -3,15 +3,23 @@ package com.plexobject.docusearch.cache;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
@@ -19,149 +27,427 @@ import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.log4j.Logger;
 
-import com.plexobject.docusearch.domain.Pair;
+import com.plexobject.docusearch.Configuration;
+import com.plexobject.docusearch.metrics.Metric;
+import com.plexobject.docusearch.metrics.Timer;
+import com.plexobject.docusearch.util.DaemonThreadFactory;
 import com.plexobject.docusearch.util.TimeUtils;
 
 /**
  * CacheMap - provides lightweight caching based on LRU size and timeout and
- * asynchronous reloads.
- * 
+ * asynchronous reloads. Entries are kept in a concurrent map so that readers
+ * don't block each other. Concurrent misses of the same key are collapsed
+ * into a single load, which runs outside of any lock. Entries that are older
+ * than refreshAheadRatio of their expiration are reloaded ahead in the
+ * background, at most once per key, by a bounded loader pool that is shared
+ * by all caches and the old value is served until the new one arrives.
+ * Entries that are older than their expiration plus a grace period are
+ * loaded on the calling thread, so that stale values aren't served
+ * indefinitely when reloads are dropped or fail. When the cache grows
+ * beyond its max size, the least recently accessed entries are evicted along
+ * with a tenth of the cache so that eviction is approximate but amortized.
+ * A cache with a weigher is also bounded by max weight, e.g. estimated bytes,
+ * and evicts the least recently accessed entries until it is under a tenth of
+ * max weight.
+ * Each cache has a unique name and its statistics are available through the
+ * single caches bean of JMX until the cache is closed.
+ * Caches subscribe to types of change events so that a change only removes
+ * entries of its scope from caches that depend on it.
+ *
  */
 public class CachedMap<K, V> implements Map<K, V>, CacheFlushable {
     private static final Logger LOGGER = Logger.getLogger(CachedMap.class);
-    private final static int MAX_THREADS = 2; // for all cache items across VM
     private final static int MAX_ITEMS = 1000; // max size
     private final static int EXPIRES_IN_SECS = 0; // indefinite
+    private static final double REFRESH_AHEAD_RATIO = Configuration
+            .getInstance().getDouble("cache.refresh.ahead.ratio", 0.75);
+    private static final int LOADER_THREADS = Configuration.getInstance()
+            .getInteger("cache.loader.threads", 1);
+    private static final int LOADER_QUEUE_SIZE = Configuration.getInstance()
+            .getInteger("cache.loader.queue.size", 100);
+    private static final double EXPIRY_GRACE_RATIO = Configuration
+            .getInstance().getDouble("cache.expiry.grace.ratio", 0.5);
+    // background reloads of all caches
+    private static final ThreadPoolExecutor LOADER_POOL = new ThreadPoolExecutor(
+            LOADER_THREADS, LOADER_THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(LOADER_QUEUE_SIZE),
+            new DaemonThreadFactory("CachedMap-loader"));
+    static {
+        LOADER_POOL.allowCoreThreadTimeOut(true);
+    }
+    // ConcurrentHashMap doesn't allow null keys
+    private static final Object NULL_KEY = new Object();
+    private static final String DEFAULT_NAME = "CachedMap";
+    private static final int MEMORY_SAMPLES = 32;
+    // invalidates the entry whose key is the scope of the event
+    private static final CacheInvalidator<Object> SCOPE_KEY = new CacheInvalidator<Object>() {
+        @Override
+        public boolean isInvalidated(CacheEvent event, Object key) {
+            return event.getScope().equals(key);
+        }
+    };
+    private static final ConcurrentMap<String, AtomicInteger> NAMES = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private static class CacheEntry<VV> {
+        private final VV value;
+        private final long weight;
+        private final long loadedAt;
+        private volatile long accessedAt;
+
+        private CacheEntry(final VV value, final long weight) {
+            this.value = value;
+            this.weight = weight;
+            this.loadedAt = TimeUtils.getCurrentTimeMillis();
+            this.accessedAt = System.nanoTime();
+        }
+    }
 
-    private final static ExecutorService executorService = Executors
-            .newFixedThreadPool(MAX_THREADS);
-
-    class FixedSizeLruLinkedTreeMap<KK, VV> extends LinkedHashMap<KK, VV> {
-        private static final long serialVersionUID = 1L;
-        private final int maxSize;
-
-        public FixedSizeLruLinkedTreeMap(int initialCapacity, float loadFactor,
-                int maxSize) {
-            super(initialCapacity, loadFactor, true);
-            this.maxSize = maxSize;
+    /**
+     * This class loads value of a key once for all callers that miss it at
+     * the same time
+     */
+    private class Load extends FutureTask<V> {
+        private final Object key;
+        private final boolean async;
+
+        private Load(final Object key, final boolean async,
+                final Callable<V> loader) {
+            super(loader);
+            this.key = key;
+            this.async = async;
         }
 
         @Override
-        protected boolean removeEldestEntry(java.util.Map.Entry<KK, VV> eldest) {
-            return super.size() > maxSize;
+        protected void done() {
+            loads.remove(key, this);
+            if (async && !isCancelled()) {
+                try {
+                    get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    LOGGER.warn(name + " failed to reload " + unmask(key)
+                            + ", serving old value", e.getCause());
+                }
+            }
         }
     }
 
+    private final String name;
     final long expiresInSecs;
+    private final int maxSize;
     private final CacheLoader<K, V> cacheLoader;
+    // disposes values that are removed, evicted, expired or flushed
     private final CacheDisposer<V> disposer;
-
-    private final Map<K, Pair<Long, V>> map;
-    private final Map<Object, ReentrantLock> locks;
+    private final long maxWeight;
+    private final CacheWeigher<K, V> weigher;
+    private final double refreshAheadRatio;
+    private final double expiryGraceRatio;
+
+    private final ConcurrentMap<Object, CacheEntry<V>> map;
+    private final ConcurrentMap<Object, Load> loads = new ConcurrentHashMap<Object, Load>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // changed when the cache is cleared so that loads started before are
+    // not cached
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong weight = new AtomicLong();
+    private final Map<CacheEvent.Type, CacheInvalidator<? super K>> invalidators = new ConcurrentHashMap<CacheEvent.Type, CacheInvalidator<? super K>>();
+    private final CacheStats stats = new CacheStats(this);
 
     public CachedMap() {
-        this(EXPIRES_IN_SECS, MAX_ITEMS, null, null);
+        this(DEFAULT_NAME);
     }
 
     public CachedMap(final long expiresInSecs, final int maxSize) {
-        this(expiresInSecs, maxSize, null, null);
+        this(DEFAULT_NAME, expiresInSecs, maxSize);
     }
 
     public CachedMap(final long expiresInSecs, final int maxSize,
             final CacheLoader<K, V> cacheLoader, final CacheDisposer<V> disposer) {
+        this(DEFAULT_NAME, expiresInSecs, maxSize, cacheLoader, disposer);
+    }
+
+    public CachedMap(final String name) {
+        this(name, EXPIRES_IN_SECS, MAX_ITEMS);
+    }
+
+    public CachedMap(final String name, final long expiresInSecs,
+            final int maxSize) {
+        this(name, expiresInSecs, maxSize, null, null);
+    }
+
+    public CachedMap(final String name, final long expiresInSecs,
+            final int maxSize, final CacheLoader<K, V> cacheLoader,
+            final CacheDisposer<V> disposer) {
+        this(name, expiresInSecs, maxSize, 0, null, cacheLoader, disposer);
+    }
+
+    public CachedMap(final String name, final long expiresInSecs,
+            final int maxSize, final long maxWeight,
+            final CacheWeigher<K, V> weigher,
+            final CacheLoader<K, V> cacheLoader, final CacheDisposer<V> disposer) {
+        this(name, expiresInSecs, maxSize, maxWeight, weigher, cacheLoader,
+                disposer, REFRESH_AHEAD_RATIO, EXPIRY_GRACE_RATIO);
+    }
+
+    /**
+     * @param name
+     *            - name of the cache, which is suffixed with a sequence
+     *            number if another cache has the same name
+     * @param expiresInSecs
+     *            - expiration of entries, 0 for indefinite
+     * @param maxSize
+     *            - max number of entries
+     * @param maxWeight
+     *            - max total weight of entries when weigher is specified,
+     *            entries heavier than max weight are not cached
+     * @param weigher
+     *            - optional weigher of entries
+     * @param cacheLoader
+     *            - optional loader of missing and expiring entries
+     * @param disposer
+     *            - optional disposer of removed, evicted, expired and
+     *            flushed entries
+     * @param refreshAheadRatio
+     *            - fraction of expiration after which entries are reloaded in
+     *            background, 1 for reloading only expired entries
+     * @param expiryGraceRatio
+     *            - fraction of expiration for which expired entries are
+     *            still served while they are reloaded in background, older
+     *            entries are loaded on the calling thread
+     */
+    public CachedMap(final String name, final long expiresInSecs,
+            final int maxSize, final long maxWeight,
+            final CacheWeigher<K, V> weigher,
+            final CacheLoader<K, V> cacheLoader,
+            final CacheDisposer<V> disposer, final double refreshAheadRatio,
+            final double expiryGraceRatio) {
+        if (weigher != null && maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight " + maxWeight
+                    + " must be positive with weigher");
+        }
+        if (refreshAheadRatio <= 0 || refreshAheadRatio > 1) {
+            throw new IllegalArgumentException("refreshAheadRatio "
+                    + refreshAheadRatio + " must be in (0, 1]");
+        }
+        if (expiryGraceRatio < 0) {
+            throw new IllegalArgumentException("expiryGraceRatio "
+                    + expiryGraceRatio + " must not be negative");
+        }
+        this.name = uniqueName(name);
         this.expiresInSecs = expiresInSecs;
-        this.map = Collections
-                .synchronizedMap(new FixedSizeLruLinkedTreeMap<K, Pair<Long, V>>(
-                        maxSize / 10, 0.75f, maxSize));
+        this.maxSize = maxSize;
+        this.map = new ConcurrentHashMap<Object, CacheEntry<V>>(Math.max(16,
+                maxSize / 10), 0.75f, 16);
         this.cacheLoader = cacheLoader;
         this.disposer = disposer;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.refreshAheadRatio = refreshAheadRatio;
+        this.expiryGraceRatio = expiryGraceRatio;
 
-        this.locks = new TreeMap<Object, ReentrantLock>();
         CacheFlusher.getInstance().addCacheFlushable(this);
     }
 
+    /**
+     * This method removes all entries and unregisters the cache from the
+     * cache flusher so that caches of short-lived objects don't pile up. The cache should not be used after it's closed.
+     */
+    public void close() {
+        CacheFlusher.getInstance().removeCacheFlushable(this);
+        removeAll();
+    }
+
     @Override
-    public synchronized int size() {
+    public int size() {
         return map.size();
     }
 
     @Override
-    public synchronized boolean isEmpty() {
+    public boolean isEmpty() {
         return map.isEmpty();
     }
 
     @Override
-    public synchronized boolean containsKey(Object key) {
-        return map.containsKey(key);
+    public boolean containsKey(Object key) {
+        return map.containsKey(mask(key));
     }
 
     @Override
-    public synchronized boolean containsValue(Object value) {
-        return map.containsValue(value);
+    public boolean containsValue(Object value) {
+        for (CacheEntry<V> entry : map.values()) {
+            if (value == null ? entry.value == null : value
+                    .equals(entry.value)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
-    public synchronized V put(K key, V value) {
-        Pair<Long, V> previous = map.put(key, new Pair<Long, V>(TimeUtils
-                .getCurrentTimeMillis(), value));
-        return previous != null ? previous.getSecond() : null;
+    public V put(K key, V value) {
+        final long entryWeight = weigher != null ? weigher.weigh(key, value)
+                : 0;
+        if (weigher != null && entryWeight > maxWeight) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(name + " not caching " + key + " with weight "
+                        + entryWeight);
+            }
+            stats.evicted(1);
+            return remove(key);
+        }
+        final CacheEntry<V> previous = map.put(mask(key), new CacheEntry<V>(
+                value, entryWeight));
+        weight.addAndGet(entryWeight);
+        removed(previous);
+        evictIfNeeded();
+        return previous != null ? previous.value : null;
     }
 
     @Override
-    public synchronized V remove(Object key) {
-        Pair<Long, V> previous = map.remove(key);
-        V obj = previous != null ? previous.getSecond() : null;
-        if (disposer != null && obj != null) {
-            disposer.dispose(obj);
+    public V remove(Object key) {
+        final CacheEntry<V> previous = map.remove(mask(key));
+        removed(previous);
+        dispose(previous);
+        return previous != null ? previous.value : null;
+    }
+
+    private void removed(final CacheEntry<V> entry) {
+        if (entry != null) {
+            weight.addAndGet(-entry.weight);
+        }
+    }
+
+    private void dispose(final CacheEntry<V> entry) {
+        if (disposer != null && entry != null && entry.value != null) {
+            disposer.dispose(entry.value);
         }
-        return obj;
     }
 
     @Override
-    public synchronized void putAll(Map<? extends K, ? extends V> m) {
+    public void putAll(Map<? extends K, ? extends V> m) {
         for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
             put(e.getKey(), e.getValue());
         }
     }
 
     @Override
-    public synchronized void clear() {
-        for (K key : keySet()) {
-            remove(key);
+    public void clear() {
+        removeAll();
+    }
+
+    // removes and disposes all entries and returns number of removed entries
+    private int removeAll() {
+        generation.incrementAndGet();
+        int removed = 0;
+        for (Object key : map.keySet()) {
+            if (removeMasked(key)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private boolean removeMasked(final Object key) {
+        final CacheEntry<V> previous = map.remove(key);
+        removed(previous);
+        dispose(previous);
+        return previous != null;
+    }
+
+    /**
+     * This method subscribes the cache to events of given type that remove
+     * the entry whose key is the scope of the event, e.g. id of a policy
+     * 
+     * @param type
+     *            - type of event
+     */
+    public void invalidateOn(final CacheEvent.Type type) {
+        invalidateOn(type, SCOPE_KEY);
+    }
+
+    /**
+     * This method subscribes the cache to events of given type that remove
+     * entries matched by the invalidator
+     * 
+     * @param type
+     *            - type of event
+     * @param invalidator
+     *            - matches keys of invalidated entries
+     */
+    public void invalidateOn(final CacheEvent.Type type,
+            final CacheInvalidator<? super K> invalidator) {
+        if (type == null) {
+            throw new NullPointerException("type not specified");
+        }
+        if (invalidator == null) {
+            throw new NullPointerException("invalidator not specified");
+        }
+        invalidators.put(type, invalidator);
+    }
+
+    @Override
+    public int invalidate(final CacheEvent event) {
+        final CacheInvalidator<? super K> invalidator = invalidators.get(event
+                .getType());
+        if (invalidator == null) {
+            return 0;
+        }
+        // loads in progress may have read the old state
+        generation.incrementAndGet();
+        int removed = 0;
+        if (invalidator == SCOPE_KEY) {
+            removed = removeMasked(mask(event.getScope())) ? 1 : 0;
+        } else {
+            for (Object key : map.keySet()) {
+                if (invalidator.isInvalidated(event, unmask(key))
+                        && removeMasked(key)) {
+                    removed++;
+                }
+            }
         }
+        stats.invalidated(removed);
+        if (removed > 0 && LOGGER.isDebugEnabled()) {
+            LOGGER.debug(name + " invalidated " + removed + " entries for "
+                    + event);
+        }
+        return removed;
     }
 
     @Override
-    public synchronized Set<K> keySet() {
-        return new HashSet<K>(map.keySet());
+    public Set<K> keySet() {
+        final Set<K> keys = new HashSet<K>();
+        for (Object key : map.keySet()) {
+            keys.add(unmask(key));
+        }
+        return keys;
     }
 
     @Override
-    public synchronized Collection<V> values() {
+    public Collection<V> values() {
         List<V> list = new ArrayList<V>();
-        for (Pair<Long, V> e : map.values()) {
-            list.add(e.getSecond());
+        for (CacheEntry<V> e : map.values()) {
+            list.add(e.value);
         }
         return list;
     }
 
     @Override
-    public synchronized Set<Map.Entry<K, V>> entrySet() {
+    public Set<Map.Entry<K, V>> entrySet() {
         Set<Map.Entry<K, V>> set = new HashSet<Map.Entry<K, V>>();
-        for (final Map.Entry<K, Pair<Long, V>> e : map.entrySet()) {
+        for (final Map.Entry<Object, CacheEntry<V>> e : map.entrySet()) {
             set.add(new Map.Entry<K, V>() {
                 public K getKey() {
-                    return e.getKey();
+                    return unmask(e.getKey());
                 }
 
                 public V getValue() {
-                    return e.getValue().getSecond();
+                    return e.getValue().value;
                 }
 
                 public V setValue(V value) {
-                    Pair<Long, V> pair = e.getValue();
-                    pair.setSecond(value);
-                    return pair.getSecond();
+                    put(getKey(), value);
+                    return value;
                 }
             });
         }
@@ -169,84 +455,268 @@ public class CachedMap<K, V> implements Map<K, V>, CacheFlushable {
     }
 
     /**
-     * This method is simple get without any loading behavior
+     * This method returns cached value, loading it with the cache loader if
+     * it is missing. Values nearing expiration or expired within the grace
+     * period are returned while they are reloaded in the background, older
+     * values are loaded on the calling thread, or are removed on expiration
+     * when there is no cache loader.
      */
     @SuppressWarnings("unchecked")
     @Override
-    public synchronized V get(Object key) {
-        Pair<Long, V> pair = this.map.get(key);
-
-        if (pair == null) {
-            if (cacheLoader != null) {
-                load((K) key, true, true);
-                pair = this.map.get(key);
-            } else {
-                return null;
+    public V get(Object key) {
+        final CacheEntry<V> entry = map.get(mask(key));
+
+        if (entry == null) {
+            stats.miss();
+            return cacheLoader != null ? load((K) key) : null;
+        }
+        if (expiresInSecs > 0) {
+            final long age = TimeUtils.getCurrentTimeMillis() - entry.loadedAt;
+            if (cacheLoader == null) {
+                if (age > expiresInSecs * 1000) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("expiring " + key);
+                    }
+                    if (map.remove(mask(key), entry)) {
+                        removed(entry);
+                        dispose(entry);
+                        stats.expired();
+                    }
+                    stats.miss();
+                    return null;
+                }
+            } else if (age > expiresInSecs * 1000 * (1 + expiryGraceRatio)) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug(name + " loading expired " + key);
+                }
+                stats.expired();
+                stats.miss();
+                return load((K) key);
+            } else if (age > expiresInSecs * 1000 * refreshAheadRatio) {
+                reload((K) key);
             }
         }
-        if (expiresInSecs > 0
-                && TimeUtils.getCurrentTimeMillis() - pair.getFirst() > expiresInSecs * 1000) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("expiring " + key);
+        stats.hit();
+        entry.accessedAt = System.nanoTime();
+        return entry.value;
+    }
+
+    // loads value on the calling thread or waits for the load that is
+    // already in progress
+    private V load(final K key) {
+        final Load load = newLoad(key, false);
+        Load existing = loads.putIfAbsent(mask(key), load);
+        if (existing == null) {
+            existing = load;
+            load.run();
+        }
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while loading "
+                    + key, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
             }
-            map.remove(key);
-            if (cacheLoader != null) {
-                load((K) key, false, true);
+            throw new IllegalStateException("failed to load " + key, e
+                    .getCause());
+        }
+    }
+
+    // loads value in background unless it is already being loaded or the
+    // loader queue is full
+    private void reload(final K key) {
+        final Load load = newLoad(key, true);
+        if (loads.putIfAbsent(mask(key), load) == null) {
+            try {
+                LOADER_POOL.execute(load);
+                stats.reloaded(false);
+            } catch (RejectedExecutionException e) {
+                loads.remove(mask(key), load);
+                stats.reloaded(true);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("dropped reload of " + key + ", "
+                            + LOADER_POOL.getQueue().size() + " pending");
+                }
             }
         }
+    }
 
-        return pair.getSecond();
+    private Load newLoad(final K key, final boolean async) {
+        final long loadGeneration = generation.get();
+        return new Load(mask(key), async, new Callable<V>() {
+            @Override
+            public V call() {
+                final Timer timer = Metric.newTimer("CachedMap.load");
+                final long started = System.nanoTime();
+                boolean failed = true;
+                final V value;
+                try {
+                    value = cacheLoader.get(key);
+                    failed = false;
+                } finally {
+                    stats.loaded(System.nanoTime() - started, failed);
+                    timer.stop(failed ? name + " failed to load " + key : "");
+                }
+                if (generation.get() == loadGeneration) {
+                    put(key, value);
+                }
+                return value;
+            }
+        });
     }
 
-    private synchronized void load(final K key,
-            final boolean synchronizeAccess, final boolean lockAccess) {
-        ReentrantLock lock = null;
+    private boolean isOverCapacity() {
+        return map.size() > maxSize
+                || (weigher != null && weight.get() > maxWeight);
+    }
+
+    private void evictIfNeeded() {
+        if (!isOverCapacity() || !evictionLock.tryLock()) {
+            return;
+        }
         try {
-            synchronized (this) {
-                if (lockAccess) {
-                    lock = lock(key);
-                }
+            if (!isOverCapacity()) {
+                return;
             }
-            if (synchronizeAccess) {
-                put(key, cacheLoader.get(key));
-            } else {
-                executorService.submit(new Callable<Object>() {
-                    public Object call() throws Exception {
-                        load(key, true, true);
-                        return null;
-                    }
-                });
+            final List<Map.Entry<Object, CacheEntry<V>>> entries = new ArrayList<Map.Entry<Object, CacheEntry<V>>>(
+                    map.entrySet());
+            Collections.sort(entries,
+                    new Comparator<Map.Entry<Object, CacheEntry<V>>>() {
+                        @Override
+                        public int compare(
+                                Map.Entry<Object, CacheEntry<V>> first,
+                                Map.Entry<Object, CacheEntry<V>> second) {
+                            final long diff = first.getValue().accessedAt
+                                    - second.getValue().accessedAt;
+                            return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+                        }
+                    });
+            // evicting an extra tenth so that eviction is not needed on
+            // every put
+            final int targetSize = maxSize - maxSize / 10;
+            final long targetWeight = maxWeight - maxWeight / 10;
+            int evicted = 0;
+            for (Map.Entry<Object, CacheEntry<V>> e : entries) {
+                if (map.size() <= targetSize
+                        && (weigher == null || weight.get() <= targetWeight)) {
+                    break;
+                }
+                if (map.remove(e.getKey(), e.getValue())) {
+                    removed(e.getValue());
+                    dispose(e.getValue());
+                    evicted++;
+                }
             }
+            stats.evicted(evicted);
         } finally {
-            if (lock != null) {
-                lock.unlock();
+            evictionLock.unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return statistics of this cache
+     */
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return max total weight of entries or 0 if cache is not weighed
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @return total weight of entries or 0 if cache is not weighed
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    /**
+     * This method returns total weight of a weighed cache or estimates memory
+     * of the cache from a sample of its entries
+     * 
+     * @return rough estimate of memory used by keys and values in bytes
+     */
+    long estimateMemoryBytes() {
+        if (weigher != null) {
+            return weight.get();
+        }
+        int sampled = 0;
+        long bytes = 0;
+        for (Map.Entry<Object, CacheEntry<V>> e : map.entrySet()) {
+            if (sampled == MEMORY_SAMPLES) {
+                break;
             }
+            sampled++;
+            bytes += ObjectSizeWeigher.ENTRY_OVERHEAD_BYTES
+                    + ObjectSizeWeigher.sizeOf(unmask(e.getKey()))
+                    + ObjectSizeWeigher.sizeOf(e.getValue().value);
+        }
+        return sampled == 0 ? 0 : bytes * map.size() / sampled;
+    }
+
+    private static String uniqueName(final String name) {
+        if (name == null || name.trim().length() == 0) {
+            throw new IllegalArgumentException("name not specified");
         }
+        AtomicInteger count = NAMES.get(name);
+        if (count == null) {
+            final AtomicInteger existing = NAMES.putIfAbsent(name,
+                    count = new AtomicInteger());
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        final int n = count.incrementAndGet();
+        return n == 1 ? name : name + "-" + n;
+    }
+
+    private static Object mask(final Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K unmask(final Object key) {
+        return key == NULL_KEY ? null : (K) key;
     }
 
-    private ReentrantLock lock(Object key) {
-        ReentrantLock lock = null;
-        synchronized (locks) {
-            lock = (ReentrantLock) locks.get(key);
-            if (lock == null)
-                lock = new ReentrantLock();
+    private Map<K, V> toMap() {
+        final Map<K, V> copy = new HashMap<K, V>();
+        for (Map.Entry<Object, CacheEntry<V>> e : map.entrySet()) {
+            copy.put(unmask(e.getKey()), e.getValue().value);
         }
-        lock.lock();
-        return lock;
+        return copy;
     }
 
     @Override
-    public synchronized void flushCache() {
+    public void flushCache() {
         if (expiresInSecs >= 0) {
             if (map.size() > 0 && LOGGER.isInfoEnabled()) {
-                LOGGER.info("*** Flushing " + map.size() + " elements");
+                LOGGER.info("*** Flushing " + map.size() + " elements of "
+                        + name);
             }
-            clear();
+            stats.flushed(removeAll());
         }
     }
 
     @Override
-    public synchronized int cacheSize() {
+    public int cacheSize() {
         return map.size();
     }
 
@@ -255,20 +725,21 @@ public class CachedMap<K, V> implements Map<K, V>, CacheFlushable {
      */
     @SuppressWarnings("unchecked")
     @Override
-    public synchronized boolean equals(Object object) {
+    public boolean equals(Object object) {
         if (!(object instanceof CachedMap)) {
             return false;
         }
         CachedMap<K, V> rhs = (CachedMap<K, V>) object;
-        return new EqualsBuilder().append(this.map, rhs.map).isEquals();
+        return new EqualsBuilder().append(this.toMap(), rhs.toMap())
+                .isEquals();
     }
 
     /**
      * @see java.lang.Object#hashCode()
      */
     @Override
-    public synchronized int hashCode() {
-        return new HashCodeBuilder(786529047, 1924536713).append(this.map)
+    public int hashCode() {
+        return new HashCodeBuilder(786529047, 1924536713).append(this.toMap())
                 .toHashCode();
     }
 
@@ -277,6 +748,8 @@ public class CachedMap<K, V> implements Map<K, V>, CacheFlushable {
      */
     @Override
     public String toString() {
-        return new ToStringBuilder(this).append("map", this.map).toString();
+        return new ToStringBuilder(this).append("name", this.name).append(
+                "map", this.toMap())
+                .toString();
     }
 }
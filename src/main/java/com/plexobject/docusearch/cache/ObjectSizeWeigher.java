@@ -0,0 +1,76 @@
+package com.plexobject.docusearch.cache;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * This class estimates size of keys and values by walking strings, boxed
+ * primitives, arrays, collections and maps such as documents. Other objects
+ * are counted by a fixed shallow size, so the estimate is rough but cheap.
+ * 
+ * @author Shahzad Bhatti
+ * 
+ */
+public class ObjectSizeWeigher<K, V> implements CacheWeigher<K, V> {
+    // rough overhead of map node, cache entry and their references
+    static final int ENTRY_OVERHEAD_BYTES = 96;
+    private static final int SHALLOW_BYTES = 64;
+    private static final int MAX_DEPTH = 8;
+
+    @Override
+    public long weigh(final K key, final V value) {
+        return ENTRY_OVERHEAD_BYTES + sizeOf(key) + sizeOf(value);
+    }
+
+    /**
+     * @param obj
+     *            - object to measure
+     * @return rough estimate of memory used by the object in bytes
+     */
+    public static long sizeOf(final Object obj) {
+        return sizeOf(obj, 0);
+    }
+
+    private static long sizeOf(final Object obj, final int depth) {
+        if (obj == null) {
+            return 0;
+        } else if (obj instanceof String) {
+            return 40 + 2 * ((String) obj).length();
+        } else if (obj instanceof Number || obj instanceof Boolean
+                || obj instanceof Character) {
+            return 16;
+        } else if (depth >= MAX_DEPTH) {
+            return SHALLOW_BYTES;
+        } else if (obj.getClass().isArray()) {
+            final Class<?> type = obj.getClass().getComponentType();
+            final int length = Array.getLength(obj);
+            if (!type.isPrimitive()) {
+                long size = 16 + 4L * length;
+                for (int i = 0; i < length; i++) {
+                    size += sizeOf(Array.get(obj, i), depth + 1);
+                }
+                return size;
+            }
+            final int elementSize = type == byte.class
+                    || type == boolean.class ? 1 : type == char.class
+                    || type == short.class ? 2 : type == long.class
+                    || type == double.class ? 8 : 4;
+            return 16 + (long) elementSize * length;
+        } else if (obj instanceof Collection<?>) {
+            long size = 48;
+            for (Object e : (Collection<?>) obj) {
+                size += 16 + sizeOf(e, depth + 1);
+            }
+            return size;
+        } else if (obj instanceof Map<?, ?>) {
+            long size = 64;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) obj).entrySet()) {
+                size += 48 + sizeOf(e.getKey(), depth + 1)
+                        + sizeOf(e.getValue(), depth + 1);
+            }
+            return size;
+        }
+        return SHALLOW_BYTES;
+    }
+}
@@ -35,6 +35,9 @@ public interface Constants {
     public static final String STATE = "province";
     public static final String COUNTRY = "country";
     public static final String ALWAYS_MATCH = "_alwaysMatch";
+    public static final String UID = "_uid";
+    public static final String INDEX_DAY = "_indexDay";
+    public static final String BULK_RUN = "_bulkRun";
     public static final String CODE = "code";
     public static final String TEST_DB = "test_data";
 }
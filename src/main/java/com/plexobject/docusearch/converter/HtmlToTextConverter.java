@@ -1,67 +1,241 @@
 package com.plexobject.docusearch.converter;
 
-import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Text;
-import org.w3c.tidy.Tidy;
+import org.apache.commons.lang.StringEscapeUtils;
 
+import com.plexobject.docusearch.Configuration;
+import com.plexobject.docusearch.cache.CachedMap;
+import com.plexobject.docusearch.cache.ObjectSizeWeigher;
+
+/**
+ * This class extracts text of the body of HTML in a single pass without
+ * building a DOM. Tags and comments are removed, contents of head, title,
+ * script and style are skipped, entities of HTML 4 are decoded, whitespace is
+ * collapsed and the end of each element is marked by a line separator. As the
+ * text only depends on the HTML, text of large HTML is cached by the MD5
+ * digest of the HTML so that unchanged articles are not extracted again when
+ * they are reindexed. The cache is bounded by estimated bytes of the text and
+ * is monitored along with other caches.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
 public class HtmlToTextConverter implements Converter<String, String> {
-    private static final String BODY = "body";
     private final static String LF = System.getProperty("line.separator");
+    private static final long INDEFINITE = 0;
+    private static final int CACHE_SIZE = Configuration.getInstance()
+            .getInteger("html.text.cache.size", 512);
+    private static final long CACHE_MAX_BYTES = Configuration.getInstance()
+            .getLong("html.text.cache.max.bytes", 8 * 1024 * 1024);
+    private static final int CACHE_MIN_LENGTH = Configuration.getInstance()
+            .getInteger("html.text.cache.min.length", 1024);
+    private static final Set<String> VOID_ELEMENTS = new HashSet<String>(
+            Arrays.asList("area", "base", "br", "col", "hr", "img", "input",
+                    "link", "meta", "param", "wbr"));
+    private static final Set<String> SKIPPED_ELEMENTS = new HashSet<String>(
+            Arrays.asList("head", "title", "script", "style"));
+    // entities that are decoded differently from the HTML 4 table
+    private static final Map<String, Character> ENTITIES = new HashMap<String, Character>();
+    static {
+        ENTITIES.put("apos", '\'');
+        // as space so that words around it are tokenized
+        ENTITIES.put("nbsp", ' ');
+    }
+    private static final int MAX_ENTITY_LENGTH = 10;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final Map<String, String> CACHE = new CachedMap<String, String>(
+            "htmlText", INDEFINITE, CACHE_SIZE, CACHE_MAX_BYTES,
+            new ObjectSizeWeigher<String, String>(), null, null);
 
     @Override
     public String convert(final String html) {
-        final StringReader in = new StringReader(html);
-        Tidy tidy = new Tidy();
-        tidy.setQuiet(true);
-        tidy.setShowWarnings(false);
-        org.w3c.dom.Document root = tidy.parseDOM(in, null);
-        Element rawDoc = root.getDocumentElement();
-        return getBody(rawDoc);
-    }
-
-    /**
-     * Gets the body text of the HTML document.
-     * 
-     * @rawDoc the DOM Element to extract body Node from
-     * @return the body text
-     */
-    protected static String getBody(Element rawDoc) {
-        if (rawDoc == null) {
+        if (html == null) {
             return null;
         }
-        String body = "";
-        NodeList children = rawDoc.getElementsByTagName(BODY);
-        if (children.getLength() > 0) {
-            body = getText(children.item(0));
+        if (html.length() < CACHE_MIN_LENGTH || CACHE_SIZE <= 0) {
+            return extract(html);
+        }
+        final String digest = digest(html);
+        String text = CACHE.get(digest);
+        if (text == null) {
+            text = extract(html);
+            CACHE.put(digest, text);
         }
-        return body;
+        return text;
     }
 
-    /**
-     * Extracts text from the DOM node.
-     * 
-     * @param node
-     *            a DOM node
-     * @return the text value of the node
-     */
-    protected static String getText(Node node) {
-        NodeList children = node.getChildNodes();
-        StringBuffer sb = new StringBuffer();
-        for (int i = 0; i < children.getLength(); i++) {
-            Node child = children.item(i);
-            switch (child.getNodeType()) {
-            case Node.ELEMENT_NODE:
-                sb.append(getText(child)).append(LF);
-                break;
-            case Node.TEXT_NODE:
-                sb.append(((Text) child).getData());
-                break;
+    static String extract(final String html) {
+        final int len = html.length();
+        final StringBuilder sb = new StringBuilder(len / 2);
+        boolean space = false;
+        int i = 0;
+        while (i < len) {
+            final char ch = html.charAt(i);
+            if (ch == '<') {
+                if (html.startsWith("<!--", i)) {
+                    i = skipPast(html, "-->", i + 4);
+                    continue;
+                }
+                if (i + 1 < len
+                        && (html.charAt(i + 1) == '!' || html.charAt(i + 1) == '?')) {
+                    i = skipPast(html, ">", i + 2);
+                    continue;
+                }
+                final boolean closing = i + 1 < len && html.charAt(i + 1) == '/';
+                final int start = closing ? i + 2 : i + 1;
+                int end = start;
+                if (start < len && Character.isLetter(html.charAt(start))) {
+                    while (end < len
+                            && Character.isLetterOrDigit(html.charAt(end))) {
+                        end++;
+                    }
+                }
+                if (end == start) {
+                    // not a tag
+                    sb.append(ch);
+                    space = false;
+                    i++;
+                    continue;
+                }
+                final String name = html.substring(start, end).toLowerCase();
+                final int tagEnd = endOfTag(html, end);
+                final boolean selfClosing = tagEnd > 0
+                        && html.charAt(tagEnd - 1) == '/';
+                i = tagEnd + 1;
+                if (closing) {
+                    sb.append(LF);
+                    space = false;
+                } else if (SKIPPED_ELEMENTS.contains(name) && !selfClosing) {
+                    i = skipPast(html, ">", indexOfIgnoreCase(html, "</"
+                            + name, i));
+                    sb.append(LF);
+                    space = false;
+                } else if ("body".equals(name)) {
+                    // only the text of the body is returned
+                    sb.setLength(0);
+                    space = false;
+                } else if (selfClosing || VOID_ELEMENTS.contains(name)) {
+                    sb.append(LF);
+                    space = false;
+                }
+            } else if (Character.isWhitespace(ch)) {
+                if (!space) {
+                    sb.append(' ');
+                    space = true;
+                }
+                i++;
+            } else if (ch == '&') {
+                i = appendEntity(html, i, sb);
+                space = false;
+            } else {
+                sb.append(ch);
+                space = false;
+                i++;
             }
         }
         return sb.toString();
     }
+
+    private static int appendEntity(final String html, final int amp,
+            final StringBuilder sb) {
+        int semi = amp + 1;
+        final int max = Math.min(html.length(), amp + MAX_ENTITY_LENGTH);
+        while (semi < max && html.charAt(semi) != ';') {
+            semi++;
+        }
+        if (semi == max) {
+            sb.append('&');
+            return amp + 1;
+        }
+        final String name = html.substring(amp + 1, semi);
+        if (name.length() > 1 && name.charAt(0) == '#') {
+            try {
+                final int code = name.charAt(1) == 'x'
+                        || name.charAt(1) == 'X' ? Integer.parseInt(name
+                        .substring(2), 16) : Integer.parseInt(name
+                        .substring(1));
+                sb.appendCodePoint(code);
+                return semi + 1;
+            } catch (IllegalArgumentException e) {
+                // not a valid character reference
+            }
+        } else {
+            final Character decoded = ENTITIES.get(name);
+            if (decoded != null) {
+                sb.append(decoded.charValue());
+                return semi + 1;
+            }
+            final String entity = html.substring(amp, semi + 1);
+            final String unescaped = StringEscapeUtils.unescapeHtml(entity);
+            if (!unescaped.equals(entity)) {
+                sb.append(unescaped);
+                return semi + 1;
+            }
+        }
+        sb.append('&');
+        return amp + 1;
+    }
+
+    // returns index of the closing '>' of a tag, ignoring '>' within quotes
+    private static int endOfTag(final String html, final int from) {
+        char quote = 0;
+        for (int i = from; i < html.length(); i++) {
+            final char ch = html.charAt(i);
+            if (quote != 0) {
+                if (ch == quote) {
+                    quote = 0;
+                }
+            } else if (ch == '"' || ch == '\'') {
+                quote = ch;
+            } else if (ch == '>') {
+                return i;
+            }
+        }
+        return html.length() - 1;
+    }
+
+    private static int skipPast(final String html, final String str,
+            final int from) {
+        if (from >= html.length()) {
+            return html.length();
+        }
+        final int ndx = html.indexOf(str, from);
+        return ndx == -1 ? html.length() : ndx + str.length();
+    }
+
+    private static int indexOfIgnoreCase(final String html, final String str,
+            final int from) {
+        for (int i = from; i <= html.length() - str.length(); i++) {
+            if (html.regionMatches(true, i, str, 0, str.length())) {
+                return i;
+            }
+        }
+        return html.length();
+    }
+
+    private static String digest(final String html) {
+        try {
+            final byte[] bytes = MessageDigest.getInstance("MD5").digest(
+                    html.getBytes("UTF-8"));
+            final char[] hex = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new ConversionException("MD5 is not supported", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new ConversionException("UTF-8 is not supported", e);
+        }
+    }
 }
@@ -31,4 +31,5 @@ public interface DocumentsDatabaseIndexer {
             Collection<Pair<String, String>> primaryAndSecondaryIds,
             int olderThanDays);
 
+    void optimize(String index);
 }
\ No newline at end of file
@@ -18,4 +18,9 @@ public interface DocumentsDatabaseSearcher {
             final boolean includeSuggestions, final int startKey,
             final int limit);
 
+    public abstract Collection<Document> query(
+            final Collection<String> databases, final String owner,
+            final String keywords, final boolean includeSuggestions,
+            final int startKey, final int limit);
+
 }
\ No newline at end of file
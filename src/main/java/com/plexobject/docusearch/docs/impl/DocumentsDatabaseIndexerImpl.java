@@ -6,6 +6,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.commons.validator.GenericValidator;
 import org.apache.log4j.Logger;
@@ -14,6 +15,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.plexobject.docusearch.Configuration;
+import com.plexobject.docusearch.SearchException;
 import com.plexobject.docusearch.cache.CacheLoader;
 import com.plexobject.docusearch.cache.CachedMap;
 import com.plexobject.docusearch.docs.DocumentsDatabaseIndexer;
@@ -29,7 +31,6 @@ import com.plexobject.docusearch.metrics.Timer;
 import com.plexobject.docusearch.persistence.ConfigurationRepository;
 import com.plexobject.docusearch.persistence.DocumentRepository;
 import com.plexobject.docusearch.persistence.DocumentsIterator;
-import com.plexobject.docusearch.persistence.SimpleDocumentsIterator;
 import com.sun.jersey.spi.inject.Inject;
 
 @Component("documentsDatabaseIndexer")
@@ -73,6 +74,10 @@ public class DocumentsDatabaseIndexerImpl implements DocumentsDatabaseIndexer,
     }
 
     private static final long INDEFINITE = 0;
+    // number of threads for rebuilding an index from its primary database,
+    // rebuilds run on the calling thread by default
+    private static final int BULK_INDEX_THREADS = Configuration.getInstance()
+            .getInteger("lucene.bulk.index.threads", 1);
 
     @SuppressWarnings("unused")
     private static final Logger LOGGER = Logger
@@ -85,8 +90,12 @@ public class DocumentsDatabaseIndexerImpl implements DocumentsDatabaseIndexer,
     @Inject
     ConfigurationRepository configRepository;
 
+    private static final int MAX_CACHED_INDEXERS = Configuration
+            .getInstance().getInteger("cache.indexers.max.size", 32);
+
     private final Map<File, Indexer> cachedIndexers = new CachedMap<File, Indexer>(
-            INDEFINITE, 32, new CacheLoader<File, Indexer>() {
+            "indexers", INDEFINITE, MAX_CACHED_INDEXERS,
+            new CacheLoader<File, Indexer>() {
 
                 @Override
                 public Indexer get(File dir) {
@@ -124,7 +133,9 @@ public class DocumentsDatabaseIndexerImpl implements DocumentsDatabaseIndexer,
                 documentRepository, db, Configuration.getInstance()
                         .getPageSize());
 
-        final int succeeded = indexDocuments(dir, policy, docsIt, null, true);
+        final int succeeded = BULK_INDEX_THREADS > 1 ? newIndexer(dir)
+                .bulkIndex(policy, docsIt, null, BULK_INDEX_THREADS)
+                : indexDocuments(dir, policy, docsIt, null, true);
 
         timer
                 .stop("succeeded indexing " + index + " from " + db
@@ -230,8 +241,7 @@ public class DocumentsDatabaseIndexerImpl implements DocumentsDatabaseIndexer,
         final IndexPolicy policy = configRepository
                 .getIndexPolicy(policyName == null ? index : policyName);
 
-        final SimpleDocumentsIterator docsIt = new SimpleDocumentsIterator(docs);
-        int succeeded = indexDocuments(dir, policy, docsIt, null, true);
+        int succeeded = updateDocuments(dir, policy, docs, null);
 
         timer.stop(" succeeded indexing " + succeeded + "/" + docs.size()
                 + " records of " + index + " with policy " + policy);
@@ -283,10 +293,8 @@ public class DocumentsDatabaseIndexerImpl implements DocumentsDatabaseIndexer,
         final IndexPolicy policy = configRepository
                 .getIndexPolicy(policyName == null ? (index + "_" + sourceDatabase)
                         : policyName);
-        final SimpleDocumentsIterator docsIt = new SimpleDocumentsIterator(
-                docsToIndex);
-        int succeeded = indexDocuments(dir, policy, docsIt,
-                sourceIdInJoinDatabase, true);
+        int succeeded = updateDocuments(dir, policy, docsToIndex,
+                sourceIdInJoinDatabase);
         timer.stop("succeeded indexing " + succeeded + " documents");
 
         return succeeded;
@@ -304,6 +312,18 @@ public class DocumentsDatabaseIndexerImpl implements DocumentsDatabaseIndexer,
                 primaryAndSecondaryIds, olderThanDays);
     }
 
+    @Override
+    public void optimize(final String index) {
+        if (GenericValidator.isBlankOrNull(index)) {
+            throw new IllegalArgumentException("index not specified");
+        }
+        final Timer timer = Metric
+                .newTimer("DocumentsDatabaseIndexer.optimize");
+        final File dir = new File(LuceneUtils.INDEX_DIR, index);
+        newIndexer(dir).optimize();
+        timer.stop("optimized " + index);
+    }
+
     /**
      * @return the documentRepository
      */
@@ -379,6 +399,29 @@ public class DocumentsDatabaseIndexerImpl implements DocumentsDatabaseIndexer,
         return indexer.index(policy, docsIt, secondaryId, deleteExisting);
     }
 
+    /**
+     * This method indexes small updates through the group committer of the
+     * index so that updates of concurrent callers share a single commit, and
+     * waits until the documents are committed.
+     */
+    private int updateDocuments(final File dir, final IndexPolicy policy,
+            final List<Document> docs, final String secondaryId) {
+        if (docs.size() == 0) {
+            return 0;
+        }
+        try {
+            return newIndexer(dir).submit(policy, docs, secondaryId).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SearchException("interrupted while indexing " + dir, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SearchException("failed to index " + dir, e.getCause());
+        }
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         if (documentRepository == null) {
@@ -3,6 +3,7 @@ package com.plexobject.docusearch.docs.impl;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -21,6 +22,7 @@ import com.plexobject.docusearch.metrics.Timer;
 import com.plexobject.docusearch.persistence.ConfigurationRepository;
 import com.plexobject.docusearch.persistence.DocumentRepository;
 import com.plexobject.docusearch.query.CriteriaBuilder;
+import com.plexobject.docusearch.query.MultiIndexQuery;
 import com.plexobject.docusearch.query.Query;
 import com.plexobject.docusearch.query.QueryCriteria;
 import com.plexobject.docusearch.query.QueryPolicy;
@@ -38,7 +40,8 @@ public class DocumentsDatabaseSearcherImpl implements
     private static final long INDEFINITE = 0;
 
     private final Map<String, Query> cachedQueries = new CachedMap<String, Query>(
-            INDEFINITE, 24, null, new CacheDisposer<Query>() {
+            "documentQueries", INDEFINITE, 24, null,
+            new CacheDisposer<Query>() {
                 @Override
                 public void dispose(Query q) {
                     try {
@@ -105,6 +108,41 @@ public class DocumentsDatabaseSearcherImpl implements
         return docs;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.plexobject.docusearch.docs.DocumentsDatabaseSearcher#query(java.util
+     * .Collection, java.lang.String, java.lang.String, boolean, int, int)
+     */
+    public Collection<Document> query(final Collection<String> databases,
+            final String owner, final String keywords,
+            final boolean includeSuggestions, final int startKey,
+            final int limit) {
+        final Timer timer = Metric
+                .newTimer("DocumentsDatabaseSearcher.queryMultiple");
+        final QueryCriteria criteria = new CriteriaBuilder().setKeywords(
+                keywords).setOwner(owner).build();
+        final List<MultiIndexQuery.Target> targets = new ArrayList<MultiIndexQuery.Target>();
+        for (String database : databases) {
+            final File dir = new File(LuceneUtils.INDEX_DIR, database);
+            targets.add(new MultiIndexQuery.Target(database, newQuery(
+                    LuceneUtils.toFSDirectory(dir), database),
+                    configRepository.getIndexPolicy(database),
+                    configRepository.getQueryPolicy(database)));
+        }
+        SearchDocList results = new MultiIndexQuery(targets).search(criteria,
+                includeSuggestions, startKey, limit);
+        Collection<Document> docs = new ArrayList<Document>();
+        for (SearchDoc result : results) {
+            Document doc = documentRepository.getDocument(result
+                    .getDatabase(), result.getId());
+            docs.add(doc);
+        }
+        timer.stop();
+        return docs;
+    }
+
     /**
      * @return the documentRepository
      */
@@ -3,6 +3,7 @@ package com.plexobject.docusearch.index;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import com.plexobject.docusearch.domain.Document;
 import com.plexobject.docusearch.domain.Pair;
@@ -29,6 +30,41 @@ public interface Indexer {
     public int index(IndexPolicy policy, Iterator<List<Document>> docsIt,
             String secondaryId, boolean deleteExisting);
 
+    /**
+     * This method queues given documents to be indexed with updates of other
+     * callers as a single batch with a single commit
+     * 
+     * @param policy
+     *            - index policy
+     * @param docs
+     *            - documents to add or replace
+     * @param secondaryId
+     *            - optional secondary id
+     * @return future that is completed with number of documents that were
+     *         indexed successfully once they are committed.
+     */
+    public Future<Integer> submit(IndexPolicy policy, List<Document> docs,
+            String secondaryId);
+
+    /**
+     * This method rebuilds index with given documents using multiple threads
+     * that index into temporary indexes, which are merged at the end. All
+     * previously indexed documents of the indexed databases are replaced.
+     * 
+     * @param policy
+     *            - index policy
+     * @param docsIt
+     *            - iterator that returns collection of documents, each of
+     *            which is indexed by a worker thread
+     * @param secondaryId
+     *            - optional secondary id
+     * @param numThreads
+     *            - number of worker threads
+     * @return number of documents that were indexed successfully.
+     */
+    public int bulkIndex(IndexPolicy policy, Iterator<List<Document>> docsIt,
+            String secondaryId, int numThreads);
+
     /**
      * This method removes documents with given id
      * 
@@ -38,4 +74,11 @@ public interface Indexer {
     public int removeIndexedDocuments(String database, String secondaryIdName,
             Collection<Pair<String, String>> primaryAndSecondaryIds,
             int olderThanDays);
+
+    /**
+     * This method merges all segments of the index into one, which is
+     * expensive and should only be called on demand, e.g. after rebuilding
+     * the index.
+     */
+    public void optimize();
 }
@@ -0,0 +1,106 @@
+package com.plexobject.docusearch.index.lucene;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+
+/**
+ * This class keeps track of a bulk index run of a directory, so that
+ * documents that are updated or removed by other indexers while the run
+ * converts documents aren't replaced by older documents of the run when it
+ * is merged. Updates during the run are tagged with the live id of the run
+ * and the updated or removed documents are recorded as queries.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
+final class BulkRun {
+    private static final Map<String, BulkRun> RUNS = new HashMap<String, BulkRun>();
+    private final String lockId;
+    private final String id;
+    private final List<Query> touched = new ArrayList<Query>();
+
+    private BulkRun(final String lockId, final String id) {
+        this.lockId = lockId;
+        this.id = id;
+    }
+
+    /**
+     * @param dir
+     *            - index directory
+     * @param id
+     *            - id of the run
+     * @return new run of the directory
+     * @throws IllegalStateException
+     *             if another run of the directory is in progress
+     */
+    static BulkRun start(final Directory dir, final String id) {
+        synchronized (RUNS) {
+            if (RUNS.containsKey(dir.getLockID())) {
+                throw new IllegalStateException("bulk index of "
+                        + dir.getLockID() + " is already running");
+            }
+            final BulkRun run = new BulkRun(dir.getLockID(), id);
+            RUNS.put(dir.getLockID(), run);
+            return run;
+        }
+    }
+
+    /**
+     * @param dir
+     *            - index directory
+     * @return run of the directory in progress or null
+     */
+    static BulkRun get(final Directory dir) {
+        synchronized (RUNS) {
+            return RUNS.get(dir.getLockID());
+        }
+    }
+
+    /**
+     * This method ends the run, updates after it are not recorded.
+     */
+    void finish() {
+        synchronized (RUNS) {
+            if (RUNS.get(lockId) == this) {
+                RUNS.remove(lockId);
+            }
+        }
+    }
+
+    /**
+     * @return id that tags documents converted by the run
+     */
+    String getId() {
+        return id;
+    }
+
+    /**
+     * @return id that tags documents updated by other indexers during the
+     *         run
+     */
+    String getLiveId() {
+        return id + "-live";
+    }
+
+    /**
+     * @param query
+     *            - query of documents that were updated or removed during
+     *            the run
+     */
+    synchronized void touched(final Query query) {
+        touched.add(query);
+    }
+
+    /**
+     * @return queries of documents that were updated or removed during the
+     *         run
+     */
+    synchronized List<Query> getTouched() {
+        return new ArrayList<Query>(touched);
+    }
+}
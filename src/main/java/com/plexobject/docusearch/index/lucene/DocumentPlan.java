@@ -0,0 +1,378 @@
+package com.plexobject.docusearch.index.lucene;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.DateTools;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.spatial.tier.projections.CartesianTierPlotter;
+import org.apache.lucene.spatial.tier.projections.SinusoidalProjector;
+import org.apache.lucene.util.NumericUtils;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import com.plexobject.docusearch.Configuration;
+import com.plexobject.docusearch.cache.CacheEvent;
+import com.plexobject.docusearch.cache.CacheInvalidator;
+import com.plexobject.docusearch.cache.CachedMap;
+import com.plexobject.docusearch.converter.Constants;
+import com.plexobject.docusearch.converter.Converters;
+import com.plexobject.docusearch.converter.HtmlToTextConverter;
+import com.plexobject.docusearch.converter.JavaToJsonConverter;
+import com.plexobject.docusearch.domain.Document;
+import com.plexobject.docusearch.index.IndexPolicy;
+import com.plexobject.docusearch.lucene.LuceneUtils;
+import com.plexobject.docusearch.lucene.analyzer.SimilarityHelper;
+import com.plexobject.docusearch.util.TimeUtils;
+
+/**
+ * This class compiles an index policy once into a plan of the fields to index
+ * so that Lucene documents are built straight from the attributes of
+ * documents. Settings of each field are computed when the plan is compiled
+ * and Lucene fields are reused by each thread, so a built document must be
+ * added to the writer before the same thread builds the next one.
+ * Compiled plans are cached by index policy and index until the policy of
+ * the index is changed.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
+class DocumentPlan {
+    private static final Logger LOGGER = Logger.getLogger(DocumentPlan.class);
+    private static final HtmlToTextConverter HTML_TO_TEXT_CONVERTER = new HtmlToTextConverter();
+    private static final JavaToJsonConverter JAVA_TO_JSON_CONVERTER = new JavaToJsonConverter();
+    private static final long INDEFINITE = 0;
+    private static final int MAX_CACHED_PLANS = Configuration.getInstance()
+            .getInteger("lucene.document.plan.cache.size", 64);
+    private static final CachedMap<PlanKey, DocumentPlan> PLANS = new CachedMap<PlanKey, DocumentPlan>(
+            "documentPlans", INDEFINITE, MAX_CACHED_PLANS);
+    static {
+        PLANS.invalidateOn(CacheEvent.Type.INDEX_POLICY_CHANGED,
+                new CacheInvalidator<PlanKey>() {
+                    @Override
+                    public boolean isInvalidated(CacheEvent event,
+                            PlanKey key) {
+                        return event.getScope().equals(key.indexName);
+                    }
+                });
+    }
+    // 9 = 100 miles
+    private static final int START_TIER = 4; // 5; // About 1000 mile bestFit
+    private static final int END_TIER = 25; // 15; // about 1 mile bestFit
+    private static final CartesianTierPlotter[] TIER_PLOTTERS = new CartesianTierPlotter[END_TIER
+            - START_TIER + 1];
+    static {
+        final SinusoidalProjector projector = new SinusoidalProjector();
+        for (int i = 0; i < TIER_PLOTTERS.length; i++) {
+            TIER_PLOTTERS[i] = new CartesianTierPlotter(START_TIER + i,
+                    projector, Constants.TIER_PREFIX);
+        }
+    }
+
+    /**
+     * This class keys plans by identity of the policy, as policies with
+     * different settings of the same fields are equal
+     */
+    private static class PlanKey {
+        private final IndexPolicy policy;
+        private final String indexName;
+
+        private PlanKey(final IndexPolicy policy, final String indexName) {
+            this.policy = policy;
+            this.indexName = indexName;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof PlanKey)) {
+                return false;
+            }
+            final PlanKey rhs = (PlanKey) object;
+            return policy == rhs.policy
+                    && (indexName == null ? rhs.indexName == null : indexName
+                            .equals(rhs.indexName));
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder(786529047, 1924536713).append(
+                    System.identityHashCode(policy)).append(indexName)
+                    .toHashCode();
+        }
+    }
+
+    /**
+     * This class keeps settings of a field in the policy
+     */
+    private static class FieldPlan {
+        private final IndexPolicy.Field field;
+        private final boolean nested;
+        private final boolean spatial;
+        private final Field.Store store;
+        private final Field.Index index;
+        private final Field.TermVector termVector;
+        // null when the name depends on the database of the document
+        private final String storeAs;
+
+        @SuppressWarnings("deprecation")
+        private FieldPlan(final IndexPolicy.Field field) {
+            this.field = field;
+            this.nested = field.name.indexOf('[') != -1
+                    || field.name.indexOf('{') != -1;
+            this.spatial = field.spatialLatitude || field.spatialLongitude;
+            this.store = field.storeInIndex || spatial ? Field.Store.YES
+                    : Field.Store.NO;
+            this.index = spatial ? Field.Index.NOT_ANALYZED
+                    : field.tokenize ? Field.Index.TOKENIZED
+                            : field.analyze ? Field.Index.ANALYZED
+                                    : Field.Index.NOT_ANALYZED;
+            this.termVector = !spatial && field.tokenize ? Field.TermVector.YES
+                    : Field.TermVector.NO;
+            this.storeAs = field.storeAs != null && field.storeAs.length() > 0 ? field.storeAs
+                    : null;
+        }
+
+        private String getName(final String database) {
+            return storeAs != null ? storeAs : database + "." + field.name;
+        }
+    }
+
+    /**
+     * This class keeps Lucene fields that are reused by a thread
+     */
+    private class ReusableFields {
+        private final Field alwaysMatch = new Field(Constants.ALWAYS_MATCH,
+                String.valueOf(Boolean.TRUE), Field.Store.NO,
+                Field.Index.NOT_ANALYZED);
+        private final Field database = new Field(Document.DATABASE, "",
+                Field.Store.YES, Field.Index.NOT_ANALYZED);
+        private final Field id = new Field(Document.ID, "", Field.Store.YES,
+                Field.Index.NOT_ANALYZED);
+        private final Field uid = new Field(Constants.UID, "", Field.Store.NO,
+                Field.Index.NOT_ANALYZED_NO_NORMS);
+        private final Field secondaryId = new Field(Document.SECONDARY_ID, "",
+                Field.Store.YES, Field.Index.NOT_ANALYZED);
+        private final Field owner = policy.hasOwner() ? new Field(
+                Constants.OWNER, policy.getOwner(), Field.Store.YES,
+                Field.Index.NOT_ANALYZED) : null;
+        private final Field indexDate = new Field("indexDate", "",
+                Field.Store.YES, Field.Index.NOT_ANALYZED);
+        private final NumericField indexDay = new NumericField(
+                Constants.INDEX_DAY, Field.Store.NO, true);
+        private final Field score = policy.getScore() > 0 ? new Field("score",
+                Integer.toString(policy.getScore()), Field.Store.NO,
+                Field.Index.NOT_ANALYZED_NO_NORMS) : null;
+        private final Field[] fields = new Field[plans.length];
+        private final String[] databases = new String[plans.length];
+
+        private Field getField(final int i, final String db) {
+            final FieldPlan plan = plans[i];
+            if (fields[i] == null
+                    || (plan.storeAs == null && !db.equals(databases[i]))) {
+                fields[i] = new Field(plan.getName(db), "", plan.store,
+                        plan.index, plan.termVector);
+                fields[i].setBoost(plan.field.boost);
+                databases[i] = db;
+            }
+            return fields[i];
+        }
+    }
+
+    private final IndexPolicy policy;
+    private final String indexName;
+    private final FieldPlan[] plans;
+    private final ThreadLocal<ReusableFields> reusableFields = new ThreadLocal<ReusableFields>() {
+        @Override
+        protected ReusableFields initialValue() {
+            return new ReusableFields();
+        }
+    };
+
+    /**
+     * @param policy
+     *            - index policy
+     * @param indexName
+     *            - name of the index
+     * @return cached plan of the policy or a newly compiled plan
+     */
+    static DocumentPlan getPlan(final IndexPolicy policy,
+            final String indexName) {
+        if (policy == null) {
+            throw new NullPointerException("index policy not specified");
+        }
+        final PlanKey key = new PlanKey(policy, indexName);
+        DocumentPlan plan = PLANS.get(key);
+        if (plan == null) {
+            plan = new DocumentPlan(policy, indexName);
+            PLANS.put(key, plan);
+        }
+        return plan;
+    }
+
+    DocumentPlan(final IndexPolicy policy, final String indexName) {
+        if (policy == null) {
+            throw new NullPointerException("index policy not specified");
+        }
+        this.policy = policy;
+        this.indexName = indexName;
+        final Collection<IndexPolicy.Field> fields = policy.getFields();
+        this.plans = new FieldPlan[fields.size()];
+        int i = 0;
+        for (IndexPolicy.Field field : fields) {
+            plans[i++] = new FieldPlan(field);
+        }
+    }
+
+    /**
+     * @param doc
+     *            - document to index
+     * @param uidTerm
+     *            - unique id of the document
+     * @return Lucene document, which shares fields with other documents built
+     *         by the same thread
+     */
+    org.apache.lucene.document.Document build(final Document doc,
+            final Term uidTerm) {
+        final ReusableFields reused = reusableFields.get();
+        final org.apache.lucene.document.Document ldoc = new org.apache.lucene.document.Document();
+        // for always matching
+        ldoc.add(reused.alwaysMatch);
+        reused.database.setValue(doc.getDatabase());
+        ldoc.add(reused.database);
+        reused.id.setValue(doc.getId());
+        ldoc.add(reused.id);
+        reused.uid.setValue(uidTerm.text());
+        ldoc.add(reused.uid);
+        if (doc.hasSecondaryId()) {
+            reused.secondaryId.setValue(doc.getSecondaryId());
+            ldoc.add(reused.secondaryId);
+        }
+        if (reused.owner != null) {
+            ldoc.add(reused.owner);
+        }
+        final Date now = TimeUtils.getCurrentTime();
+        reused.indexDate.setValue(DateTools.dateToString(now,
+                DateTools.Resolution.DAY));
+        ldoc.add(reused.indexDate);
+        reused.indexDay.setIntValue(LuceneUtils.indexDay(now));
+        ldoc.add(reused.indexDay);
+
+        if (policy.getBoost() > 0) {
+            ldoc.setBoost(policy.getBoost());
+        }
+        if (reused.score != null) {
+            ldoc.add(reused.score);
+        }
+        final Float scoreMultiplier = (Float) doc
+                .get(Constants.SCORE_MULTIPLIER);
+        if (scoreMultiplier != null) {
+            ldoc.setBoost(scoreMultiplier);
+        }
+
+        final Map<String, Object> attributes = doc.getAttributes();
+        JSONObject json = null;
+        double spatialLatitude = 0;
+        double spatialLongitude = 0;
+        for (int i = 0; i < plans.length; i++) {
+            final FieldPlan plan = plans[i];
+            final String name = plan.field.name;
+            final Object attribute = attributes.get(name);
+            if (attribute == null) {
+                continue;
+            }
+            String value = null;
+            if (plan.nested) {
+                if (json == null) {
+                    json = Converters.getInstance().getConverter(Object.class,
+                            JSONObject.class).convert(attributes);
+                }
+                try {
+                    value = IndexUtils.getValue(json, name);
+                } catch (JSONException e) {
+                    LOGGER.error("Failed to index value for " + name
+                            + " from " + json + " due to ", e);
+                    throw new RuntimeException(e.toString());
+                }
+            } else {
+                value = IndexUtils.normalize(toString(attribute));
+            }
+            if (value == null) {
+                continue;
+            }
+            if (value.length() > 0 && plan.spatial) {
+                double d = Double.valueOf(value);
+                if (plan.field.spatialLatitude) {
+                    spatialLatitude = d;
+                } else {
+                    spatialLongitude = d;
+                }
+                value = NumericUtils.doubleToPrefixCoded(d);
+            } else if (value.length() > 0 && plan.field.htmlToText) {
+                value = HTML_TO_TEXT_CONVERTER.convert(value);
+            }
+            value = value.toLowerCase();
+            final Field field = reused.getField(i, doc.getDatabase());
+            field.setValue(value);
+            ldoc.add(field);
+            if (policy.isAddToDictionary()) {
+                SimilarityHelper.getInstance().trainSpellChecker(indexName,
+                        value);
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Indexing " + name + " using " + field
+                        + ", doc " + doc + ", policy " + policy);
+            }
+        }
+
+        if (spatialLatitude != 0 && spatialLongitude != 0) {
+            for (CartesianTierPlotter ctp : TIER_PLOTTERS) {
+                final double boxId = ctp.getTierBoxId(spatialLatitude,
+                        spatialLongitude);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("*********Adding field "
+                            + ctp.getTierFieldName() + ":" + boxId
+                            + ", spatialLatitude " + spatialLatitude
+                            + ", spatialLongitude " + spatialLongitude);
+                }
+                ldoc.add(new Field(ctp.getTierFieldName(), NumericUtils
+                        .doubleToPrefixCoded(boxId), Field.Store.YES,
+                        Field.Index.NOT_ANALYZED_NO_NORMS));
+            }
+        }
+        return ldoc;
+    }
+
+    /**
+     * @return the same text as the value of the attribute in the JSON form of
+     *         the document
+     */
+    private static String toString(final Object attribute) {
+        if (attribute instanceof String) {
+            return (String) attribute;
+        } else if (attribute instanceof Map<?, ?>
+                || attribute instanceof Collection<?>) {
+            return JAVA_TO_JSON_CONVERTER.convert(attribute).toString();
+        }
+        return attribute.toString();
+    }
+
+    /**
+     * @return names of fields in the plan
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (FieldPlan plan : plans) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(plan.field.name);
+        }
+        return "[" + sb + "]";
+    }
+}
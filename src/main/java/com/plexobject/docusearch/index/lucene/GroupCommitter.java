@@ -0,0 +1,217 @@
+package com.plexobject.docusearch.index.lucene;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.store.Directory;
+
+import com.plexobject.docusearch.Configuration;
+import com.plexobject.docusearch.SearchException;
+import com.plexobject.docusearch.domain.Document;
+import com.plexobject.docusearch.index.IndexPolicy;
+import com.plexobject.docusearch.lucene.IndexWriterManager;
+import com.plexobject.docusearch.lucene.analyzer.SimilarityHelper;
+import com.plexobject.docusearch.metrics.Metric;
+import com.plexobject.docusearch.metrics.Timer;
+import com.plexobject.docusearch.util.DaemonThreadFactory;
+
+/**
+ * This class collects small updates of an index from all callers and applies
+ * them with the shared writer as a single batch with a single commit. A batch
+ * is closed when WINDOW_MILLIS have passed since its first update or when it
+ * has MAX_DOCS documents, and the future of each update is completed when the
+ * batch is committed.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
+class GroupCommitter implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(GroupCommitter.class);
+    private static final long WINDOW_MILLIS = Configuration.getInstance()
+            .getLong("lucene.group.commit.window.millis", 50);
+    private static final int MAX_DOCS = Configuration.getInstance()
+            .getInteger("lucene.group.commit.max.docs", 1000);
+    private static final Map<String, GroupCommitter> COMMITTERS = new HashMap<String, GroupCommitter>();
+
+    /**
+     * This class keeps documents of a caller and is completed with the number
+     * of documents that were indexed once they are committed
+     */
+    private static class Update extends FutureTask<Integer> {
+        private final IndexPolicy policy;
+        private final List<Document> docs;
+        private final String secondaryId;
+
+        private Update(final IndexPolicy policy, final List<Document> docs,
+                final String secondaryId) {
+            super(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    throw new IllegalStateException(
+                            "updates are completed by group commit");
+                }
+            });
+            this.policy = policy;
+            this.docs = docs;
+            this.secondaryId = secondaryId;
+        }
+
+        private void committed(final int succeeded) {
+            set(succeeded);
+        }
+
+        private void failed(final Throwable e) {
+            setException(e);
+        }
+    }
+
+    private final Directory dir;
+    private final IndexerImpl indexer;
+    private final BlockingQueue<Update> updates = new LinkedBlockingQueue<Update>();
+
+    private GroupCommitter(final Directory dir, final String indexName) {
+        this.dir = dir;
+        this.indexer = new IndexerImpl(dir, indexName);
+        new DaemonThreadFactory("GroupCommitter-" + indexName).newThread(this)
+                .start();
+    }
+
+    /**
+     * @param dir
+     *            - index directory
+     * @param indexName
+     *            - name of index
+     * @return group committer for the directory
+     */
+    static GroupCommitter getInstance(final Directory dir,
+            final String indexName) {
+        if (dir == null) {
+            throw new NullPointerException("dir is null");
+        }
+        synchronized (COMMITTERS) {
+            GroupCommitter committer = COMMITTERS.get(dir.getLockID());
+            if (committer == null) {
+                committer = new GroupCommitter(dir, indexName);
+                COMMITTERS.put(dir.getLockID(), committer);
+            }
+            return committer;
+        }
+    }
+
+    /**
+     * @param policy
+     *            - index policy
+     * @param docs
+     *            - documents to add or replace
+     * @param secondaryId
+     *            - optional secondary id
+     * @return future that is completed with number of documents that were
+     *         indexed once they are committed
+     */
+    Future<Integer> submit(final IndexPolicy policy,
+            final List<Document> docs, final String secondaryId) {
+        if (policy == null) {
+            throw new NullPointerException("index policy not specified");
+        }
+        if (docs == null) {
+            throw new NullPointerException("docs not specified");
+        }
+        final Update update = new Update(policy, docs, secondaryId);
+        updates.add(update);
+        return update;
+    }
+
+    @Override
+    public void run() {
+        final List<Update> batch = new ArrayList<Update>();
+        while (true) {
+            try {
+                batch.add(updates.take());
+                int numDocs = batch.get(0).docs.size();
+                final long deadline = System.currentTimeMillis()
+                        + WINDOW_MILLIS;
+                while (numDocs < MAX_DOCS) {
+                    final Update update = updates.poll(deadline
+                            - System.currentTimeMillis(),
+                            TimeUnit.MILLISECONDS);
+                    if (update == null) {
+                        break;
+                    }
+                    batch.add(update);
+                    numDocs += update.docs.size();
+                }
+                commit(batch, numDocs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Update update : batch) {
+                    update.failed(e);
+                }
+                return;
+            } catch (Throwable e) {
+                LOGGER.error("failed to commit " + batch.size() + " updates of "
+                        + dir, e);
+                // completed updates ignore the failure
+                for (Update update : batch) {
+                    update.failed(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(final List<Update> batch, final int numDocs) {
+        final Timer timer = Metric.newTimer("GroupCommitter.commit");
+        final int[] succeeded = new int[batch.size()];
+        boolean addToDictionary = false;
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                final Update update = batch.get(i);
+                if (!update.isCancelled()) {
+                    succeeded[i] = indexer.add(update.policy, update.docs,
+                            update.secondaryId);
+                    addToDictionary = addToDictionary
+                            || update.policy.isAddToDictionary();
+                }
+            }
+            IndexWriterManager.getInstance(dir).commit();
+        } catch (Exception e) {
+            final SearchException error = new SearchException(
+                    "failed to commit " + numDocs + " documents to " + dir, e);
+            for (Update update : batch) {
+                update.failed(error);
+            }
+            timer.stop("failed to commit " + batch.size() + " updates");
+            return;
+        }
+        if (addToDictionary) {
+            try {
+                SimilarityHelper.getInstance().saveTrainingSpellChecker(
+                        indexer.getIndexName());
+            } catch (Exception e) {
+                LOGGER.error("failed to add spellings", e);
+            }
+        }
+        // invalidating cached state of this index after update
+        indexer.indexChanged();
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).committed(succeeded[i]);
+        }
+        timer.stop("committed " + batch.size() + " updates with " + numDocs
+                + " documents to " + dir);
+    }
+
+    @Override
+    public String toString() {
+        return "GroupCommitter " + dir + ", pending " + updates.size();
+    }
+}
@@ -1,8 +1,5 @@
 package com.plexobject.docusearch.index.lucene;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import org.apache.log4j.Logger;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
@@ -10,8 +7,6 @@ import org.codehaus.jettison.json.JSONObject;
 
 public class IndexUtils {
     private static final Logger LOGGER = Logger.getLogger(IndexUtils.class);
-    private static final Pattern JSON_PATTERN = Pattern
-            .compile("[,;:\\[\\]{}()\\s]+");
 
     static String getValue(final JSONObject json, final String name)
             throws JSONException {
@@ -24,11 +19,66 @@ public class IndexUtils {
         } else {
             value = json.optString(name, null);
         }
-        if (value != null) {
-            Matcher matcher = JSON_PATTERN.matcher(value);
-            value = matcher.replaceAll(" ");
+        return normalize(value);
+    }
+
+    /**
+     * This method replaces each run of JSON punctuation and whitespace with a
+     * single space. It returns the same string if there is nothing to
+     * replace.
+     */
+    static String normalize(final String value) {
+        if (value == null) {
+            return null;
+        }
+        final int len = value.length();
+        int i = 0;
+        while (i < len && !isSeparator(value.charAt(i))) {
+            i++;
+        }
+        if (i == len) {
+            return value;
+        }
+        final StringBuilder sb = new StringBuilder(len);
+        sb.append(value, 0, i);
+        boolean separator = false;
+        for (; i < len; i++) {
+            final char ch = value.charAt(i);
+            if (isSeparator(ch)) {
+                if (!separator) {
+                    sb.append(' ');
+                    separator = true;
+                }
+            } else {
+                sb.append(ch);
+                separator = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    // JSON punctuation and the whitespace characters matched by \s
+    private static boolean isSeparator(final char ch) {
+        switch (ch) {
+        case ',':
+        case ';':
+        case ':':
+        case '[':
+        case ']':
+        case '{':
+        case '}':
+        case '(':
+        case ')':
+        case ' ':
+        case '\t':
+        case '\n':
+        case '\u000B':
+        case '\f':
+        case '\r':
+            return true;
+        default:
+            return false;
         }
-        return value;
     }
 
     static String getHashValue(final JSONObject json, final String name, int ndx)
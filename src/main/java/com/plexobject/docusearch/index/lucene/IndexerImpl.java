@@ -2,13 +2,22 @@ package com.plexobject.docusearch.index.lucene;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.validator.GenericValidator;
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
@@ -18,38 +27,36 @@ import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.Collector;
-import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.FilteredQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.QueryWrapperFilter;
 import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.TermRangeFilter;
+import org.apache.lucene.search.TermRangeQuery;
 import org.apache.lucene.search.BooleanClause.Occur;
-import org.apache.lucene.spatial.tier.projections.CartesianTierPlotter;
-import org.apache.lucene.spatial.tier.projections.IProjector;
-import org.apache.lucene.spatial.tier.projections.SinusoidalProjector;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.util.NumericUtils;
-import org.codehaus.jettison.json.JSONException;
-import org.codehaus.jettison.json.JSONObject;
+import org.apache.lucene.store.FSDirectory;
 
 import com.ibm.icu.util.Calendar;
+import com.plexobject.docusearch.Configuration;
+import com.plexobject.docusearch.cache.CacheEvent;
 import com.plexobject.docusearch.cache.CacheFlusher;
 import com.plexobject.docusearch.converter.Constants;
-import com.plexobject.docusearch.converter.Converters;
-import com.plexobject.docusearch.converter.HtmlToTextConverter;
 import com.plexobject.docusearch.domain.Document;
 import com.plexobject.docusearch.domain.Pair;
-import com.plexobject.docusearch.domain.Tuple;
 import com.plexobject.docusearch.index.IndexPolicy;
 import com.plexobject.docusearch.index.Indexer;
+import com.plexobject.docusearch.lucene.IndexWriterManager;
 import com.plexobject.docusearch.lucene.LuceneUtils;
+import com.plexobject.docusearch.lucene.SearcherManager;
 import com.plexobject.docusearch.lucene.analyzer.SimilarityHelper;
 import com.plexobject.docusearch.metrics.Metric;
 import com.plexobject.docusearch.metrics.Timer;
+import com.plexobject.docusearch.util.DaemonThreadFactory;
 import com.plexobject.docusearch.util.TimeUtils;
 
 /**
@@ -60,10 +67,12 @@ import com.plexobject.docusearch.util.TimeUtils;
 // http://www.opensubscriber.com/message/java-user@lucene.apache.org/3646117.html
 public class IndexerImpl implements Indexer {
     private static final Logger LOGGER = Logger.getLogger(IndexerImpl.class);
-    private static final boolean OPTIMIZE = true;
-    private int numIndexed;
-    private final Map<String, Boolean> INDEXED_FIELDS = new TreeMap<String, Boolean>();
-    private final HtmlToTextConverter htmlToTextConverter = new HtmlToTextConverter();
+    // number of ids that are removed with a single delete
+    private static final int DELETE_BATCH_SIZE = Math.min(Configuration
+            .getInstance().getInteger("lucene.delete.batch.size", 1000),
+            BooleanQuery.getMaxClauseCount() - 1);
+    private final AtomicInteger numIndexed = new AtomicInteger();
+    private volatile Boolean uniqueIds;
 
     //
     private final String indexName;
@@ -80,33 +89,32 @@ public class IndexerImpl implements Indexer {
     }
 
     @Override
-    public synchronized int index(final IndexPolicy policy,
+    public int index(final IndexPolicy policy,
             final Iterator<List<Document>> docsIt, final String secondaryId,
             final boolean deleteExisting) {
         if (policy == null) {
             throw new NullPointerException("index policy not specified");
         }
-        IndexWriter writer = null;
-        IndexReader reader = null;
-        IndexSearcher searcher = null;
-        Analyzer analyzer = null;
+        final IndexWriterManager writerManager = IndexWriterManager
+                .getInstance(dir);
+        final Analyzer analyzer = policy.getAnalyzer() != null ? LuceneUtils
+                .getAnalyzer(policy.getAnalyzer()) : LuceneUtils
+                .getDefaultAnalyzer();
+        final DocumentPlan plan = DocumentPlan.getPlan(policy, indexName);
         final Timer timer = Metric.newTimer("IndexerImpl.index");
         int succeeded = 0;
         int count = 0;
         try {
-            Tuple tuple = open(policy);
-
-            writer = tuple.first();
-            reader = tuple.second();
-            searcher = tuple.third();
-            analyzer = writer.getAnalyzer();
+            final IndexWriter writer = writerManager.getWriter();
+            final boolean legacy = !hasUniqueIds();
             while (docsIt.hasNext()) {
                 List<Document> docs = docsIt.next();
                 for (Document doc : docs) {
                     try {
-                        index(count++, writer, policy, doc, secondaryId,
-                                searcher, deleteExisting);
+                        index(count++, writer, analyzer, plan, doc,
+                                secondaryId, legacy);
                         succeeded++;
+                        writerManager.changed(1);
 
                         if (succeeded % 1000 == 0) {
                             timer.lapse("--succeeded indexing " + succeeded
@@ -122,7 +130,11 @@ public class IndexerImpl implements Indexer {
         } finally {
             timer.stop("succeeded indexing " + succeeded + "/" + count
                     + " documents with analyzer " + analyzer);
-            close(writer, reader, searcher);
+            commit(writerManager);
+            if (deleteExisting) {
+                // rebuilds may have replaced documents without unique ids
+                uniqueIds = null;
+            }
             try {
                 if (policy.isAddToDictionary()) {
                     SimilarityHelper.getInstance().saveTrainingSpellChecker(
@@ -131,8 +143,8 @@ public class IndexerImpl implements Indexer {
             } catch (Exception e) {
                 LOGGER.error("failed to add spellings", e);
             }
-            // flushing cache after reindex
-            CacheFlusher.getInstance().flushCaches();
+            // invalidating cached state of this index after reindex
+            indexChanged();
         }
 
         if (LOGGER.isInfoEnabled()) {
@@ -143,378 +155,585 @@ public class IndexerImpl implements Indexer {
     }
 
     /**
-     * This method removes documents with given id
+     * This method queues documents to the group committer of the index, which
+     * indexes updates of all callers with a single commit.
+     */
+    @Override
+    public Future<Integer> submit(final IndexPolicy policy,
+            final List<Document> docs, final String secondaryId) {
+        return GroupCommitter.getInstance(dir, indexName).submit(policy, docs,
+                secondaryId);
+    }
+
+    /**
+     * This method rebuilds documents using worker threads. Each worker
+     * converts and analyzes pages of documents into its own temporary index
+     * and the temporary indexes are merged into this index at the end, which
+     * replaces all documents of the databases that were indexed. The new
+     * documents are tagged with the id of this run and merged before the old
+     * documents are deleted, so a commit never publishes an empty database,
+     * and nothing is committed when the merge fails. Documents that are
+     * updated or removed by other indexers during the run, e.g. by the group
+     * committer, are kept or stay removed.
      * 
      * @return number of documents that were indexed successfully.
      */
     @Override
-    public synchronized int removeIndexedDocuments(final String database,
+    public int bulkIndex(final IndexPolicy policy,
+            final Iterator<List<Document>> docsIt, final String secondaryId,
+            final int numThreads) {
+        if (policy == null) {
+            throw new NullPointerException("index policy not specified");
+        }
+        if (numThreads <= 1) {
+            return index(policy, docsIt, secondaryId, true);
+        }
+        final IndexWriterManager writerManager = IndexWriterManager
+                .getInstance(dir);
+        final DocumentPlan plan = DocumentPlan.getPlan(policy, indexName);
+        final Timer timer = Metric.newTimer("IndexerImpl.bulkIndex");
+        final BulkRun run = BulkRun.start(dir, indexName + "-"
+                + System.currentTimeMillis());
+        final String runId = run.getId();
+        final File tmpdir = new File(System.getProperty("java.io.tmpdir"),
+                "bulk-" + runId);
+        final Directory[] partitions = new Directory[numThreads];
+        final BlockingQueue<IndexWriter> writers = new ArrayBlockingQueue<IndexWriter>(
+                numThreads);
+        final Set<String> databases = Collections
+                .synchronizedSet(new HashSet<String>());
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger succeeded = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads,
+                numThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(numThreads * 2),
+                new DaemonThreadFactory("BulkIndexer-" + indexName),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        boolean merged = false;
+        try {
+            for (int i = 0; i < numThreads; i++) {
+                partitions[i] = FSDirectory.open(new File(tmpdir, "partition"
+                        + i));
+                writers.add(LuceneUtils.newWriter(partitions[i], policy
+                        .getAnalyzer()));
+            }
+            while (docsIt.hasNext()) {
+                final List<Document> docs = docsIt.next();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final IndexWriter writer;
+                        try {
+                            writer = writers.take();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        try {
+                            for (Document doc : docs) {
+                                try {
+                                    count.incrementAndGet();
+                                    final org.apache.lucene.document.Document ldoc = plan
+                                            .build(doc, uidTerm(doc,
+                                                    secondaryId));
+                                    ldoc.add(new Field(Constants.BULK_RUN,
+                                            runId, Field.Store.NO,
+                                            Field.Index.NOT_ANALYZED_NO_NORMS));
+                                    writer.addDocument(ldoc);
+                                    databases.add(doc.getDatabase());
+                                    if (succeeded.incrementAndGet() % 10000 == 0
+                                            && LOGGER.isInfoEnabled()) {
+                                        LOGGER.info("--succeeded converting "
+                                                + succeeded + " documents");
+                                    }
+                                } catch (final Exception e) {
+                                    LOGGER.error("Error indexing " + doc, e);
+                                }
+                            }
+                        } finally {
+                            writers.add(writer);
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            while (!writers.isEmpty()) {
+                writers.poll().close();
+            }
+            final IndexWriter writer = writerManager.getWriter();
+            // adding before deleting so that a concurrent commit sees old
+            // and/or new documents but never an empty database
+            writer.addIndexesNoOptimize(partitions);
+            for (String database : databases) {
+                final BooleanQuery stale = new BooleanQuery();
+                stale.add(new TermQuery(new Term(Document.DATABASE, database)),
+                        Occur.MUST);
+                stale.add(new TermQuery(new Term(Constants.BULK_RUN, runId)),
+                        Occur.MUST_NOT);
+                stale.add(new TermQuery(new Term(Constants.BULK_RUN, run
+                        .getLiveId())), Occur.MUST_NOT);
+                writer.deleteDocuments(stale);
+            }
+            // documents updated or removed during the run are newer than
+            // their converted copies, later updates replace the copies by
+            // their unique ids
+            for (Query query : run.getTouched()) {
+                final BooleanQuery older = new BooleanQuery();
+                older.add(query, Occur.MUST);
+                older.add(new TermQuery(new Term(Constants.BULK_RUN, runId)),
+                        Occur.MUST);
+                writer.deleteDocuments(older);
+            }
+            merged = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted while bulk indexing", e);
+        } catch (final Exception e) {
+            LOGGER.error("Error bulk indexing documents", e);
+        } finally {
+            run.finish();
+            executor.shutdownNow();
+            for (IndexWriter writer : writers) {
+                try {
+                    writer.close();
+                } catch (Exception e) {
+                    LOGGER.error("failed to close partition writer", e);
+                }
+            }
+            timer.stop("succeeded indexing " + succeeded + "/" + count
+                    + " documents using " + numThreads + " threads, merged "
+                    + merged);
+            if (merged) {
+                commit(writerManager);
+            } else {
+                LOGGER.error("bulk index of " + indexName
+                        + " failed, old documents were not deleted");
+            }
+            uniqueIds = null;
+            try {
+                FileUtils.deleteDirectory(tmpdir);
+            } catch (IOException e) {
+                LOGGER.error("failed to delete " + tmpdir, e);
+            }
+            try {
+                if (policy.isAddToDictionary()) {
+                    SimilarityHelper.getInstance().saveTrainingSpellChecker(
+                            indexName);
+                }
+            } catch (Exception e) {
+                LOGGER.error("failed to add spellings", e);
+            }
+            // invalidating cached state of this index after reindex
+            indexChanged();
+        }
+        return merged ? succeeded.get() : 0;
+    }
+
+    /**
+     * This method removes documents with given ids and/or documents that were
+     * indexed more than olderThanDays ago. Ids are deleted in chunks of
+     * DELETE_BATCH_SIZE by their unique id terms, or by database and id when
+     * no secondary id is given so that documents indexed with any secondary
+     * id are removed too, and age is matched against the numeric index day,
+     * so that large removals don't build a single giant query. Indexes that still have documents without unique ids are removed
+     * by query in chunks.
+     * 
+     * @return number of documents that were removed.
+     */
+    @Override
+    public int removeIndexedDocuments(final String database,
             String secondaryIdName,
             final Collection<Pair<String, String>> primaryAndSecondaryIds,
             int olderThanDays) {
-        IndexWriter writer = null;
-        IndexReader reader = null;
-        IndexSearcher searcher = null;
-        final BooleanQuery topQuery = new BooleanQuery();
-
-        int before = 0;
-        int after = 0;
-        int failed = 0;
-        final Timer timer = Metric.newTimer("IndexerImpl.index");
+        final IndexWriterManager writerManager = IndexWriterManager
+                .getInstance(dir);
+        final int numIds = primaryAndSecondaryIds != null ? primaryAndSecondaryIds
+                .size()
+                : 0;
+        int removed = 0;
+        boolean legacy = false;
+        final Timer timer = Metric
+                .newTimer("IndexerImpl.removeIndexedDocuments");
         try {
-            Tuple tuple = open(null);
-
-            writer = tuple.first();
-            reader = tuple.second();
-            searcher = tuple.third();
-
-            Date startDate = new Date(0L);
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTime(TimeUtils.getCurrentTime());
-            calendar.add(Calendar.DATE, -olderThanDays);
-            Date endDate = calendar.getTime();
-
-            if (primaryAndSecondaryIds != null
-                    && primaryAndSecondaryIds.size() > 0) {
+            legacy = !hasUniqueIds();
+            if (numIds > 0) {
+                final List<Pair<String, String>> chunk = new ArrayList<Pair<String, String>>(
+                        Math.min(numIds, DELETE_BATCH_SIZE));
                 for (Pair<String, String> primaryAndSecondaryId : primaryAndSecondaryIds) {
-                    try {
-                        final BooleanQuery booleanQuery = new BooleanQuery();
-                        Filter filter = null;
-
-                        booleanQuery.add(new TermQuery(new Term(Document.ID,
-                                primaryAndSecondaryId.getFirst())), Occur.MUST);
-                        if (!GenericValidator
-                                .isBlankOrNull(primaryAndSecondaryId
-                                        .getSecond())) {
-                            booleanQuery.add(new TermQuery(new Term(
-                                    Document.DATABASE, database)), Occur.MUST);
-                            booleanQuery.add(new TermQuery(new Term(
-                                    secondaryIdName, primaryAndSecondaryId
-                                            .getSecond())), Occur.MUST);
-                        }
-                        if (olderThanDays > 0) {
-                            final String indexStartDateRange = DateTools
-                                    .dateToString(startDate,
-                                            DateTools.Resolution.DAY);
-                            final String indexEndDateRange = DateTools
-                                    .dateToString(endDate,
-                                            DateTools.Resolution.DAY);
-                            filter = new TermRangeFilter("indexDate",
-                                    indexStartDateRange, indexEndDateRange,
-                                    true, true);
-                        }
-                        Query q = filter == null ? booleanQuery
-                                : new FilteredQuery(booleanQuery, filter);
-                        topQuery.add(q, Occur.SHOULD);
-                    } catch (Exception e) {
-                        LOGGER.error("Failed to remove index for "
-                                + primaryAndSecondaryId, e);
-                        failed++;
+                    chunk.add(primaryAndSecondaryId);
+                    if (chunk.size() == DELETE_BATCH_SIZE) {
+                        removed += removeChunk(writerManager, legacy,
+                                database, secondaryIdName, chunk,
+                                olderThanDays);
+                        chunk.clear();
                     }
                 }
+                if (chunk.size() > 0) {
+                    removed += removeChunk(writerManager, legacy, database,
+                            secondaryIdName, chunk, olderThanDays);
+                }
             } else if (olderThanDays > 0) {
-                final BooleanQuery booleanQuery = new BooleanQuery();
-                Filter filter = null;
-
-                booleanQuery.add(new TermQuery(new Term(Document.DATABASE,
-                        database)), Occur.MUST);
-                final String indexStartDateRange = DateTools.dateToString(
-                        startDate, DateTools.Resolution.DAY);
-                final String indexEndDateRange = DateTools.dateToString(
-                        endDate, DateTools.Resolution.DAY);
-                filter = new TermRangeFilter("indexDate", indexStartDateRange,
-                        indexEndDateRange, true, true);
-                Query q = new FilteredQuery(booleanQuery, filter);
-                topQuery.add(q, Occur.SHOULD);
+                final BooleanQuery query = new BooleanQuery();
+                query.add(new TermQuery(new Term(Document.DATABASE, database)),
+                        Occur.MUST);
+                query.add(olderThanQuery(legacy, olderThanDays), Occur.MUST);
+                removed = getCount(query);
+                writerManager.getWriter().deleteDocuments(query);
             }
-
-            before = searcher.search(topQuery, 1).totalHits;
-            writer.deleteDocuments(topQuery);
-
         } catch (final Exception e) {
             LOGGER.error("Faield to remove index", e);
         } finally {
-            timer.stop("succeeded removing index "
-                    + (primaryAndSecondaryIds != null ? primaryAndSecondaryIds
-                            .size() : 0) + ", before " + before + ", after "
-                    + after);
-            close(writer, reader, searcher);
-            after = getCount(topQuery);
-            // flushing cache after reindex
-            CacheFlusher.getInstance().flushCaches();
+            timer.stop("succeeded removing " + removed + " documents for "
+                    + numIds + " ids older than " + olderThanDays
+                    + " days, legacy " + legacy);
+            commit(writerManager);
+            // invalidating cached state of this index after reindex
+            indexChanged();
         }
 
         if (LOGGER.isInfoEnabled()) {
-            LOGGER.info("#### Removed index documents "
-                    + (primaryAndSecondaryIds != null ? primaryAndSecondaryIds
-                            .size() : 0) + ", before " + before + ", after "
-                    + after + ", failed " + failed);
+            LOGGER.info("#### Removed index documents " + removed + " for "
+                    + numIds + " ids older than " + olderThanDays
+                    + " days, legacy " + legacy);
         }
-        return before - after;
+        return removed;
     }
 
-    IndexWriter createWriter(final IndexPolicy policy) throws IOException {
-        return LuceneUtils.newWriter(dir, policy != null ? policy.getAnalyzer()
-                : null);
-        // return LuceneUtils.newThreadedWriter(dir);
+    private int removeChunk(final IndexWriterManager writerManager,
+            final boolean legacy, final String database,
+            final String secondaryIdName,
+            final List<Pair<String, String>> primaryAndSecondaryIds,
+            final int olderThanDays) throws IOException {
+        final IndexWriter writer = writerManager.getWriter();
+        int removed = 0;
+        if (legacy || GenericValidator.isBlankOrNull(database)) {
+            // documents without unique ids can only be found by query
+            final BooleanQuery query = new BooleanQuery();
+            for (Pair<String, String> primaryAndSecondaryId : primaryAndSecondaryIds) {
+                final BooleanQuery booleanQuery = new BooleanQuery();
+                booleanQuery.add(new TermQuery(new Term(Document.ID,
+                        primaryAndSecondaryId.getFirst())), Occur.MUST);
+                if (!GenericValidator.isBlankOrNull(primaryAndSecondaryId
+                        .getSecond())) {
+                    booleanQuery.add(new TermQuery(new Term(Document.DATABASE,
+                            database)), Occur.MUST);
+                    booleanQuery.add(new TermQuery(new Term(secondaryIdName,
+                            primaryAndSecondaryId.getSecond())), Occur.MUST);
+                }
+                query.add(booleanQuery, Occur.SHOULD);
+            }
+            final Query q = olderThanDays > 0 ? new FilteredQuery(query,
+                    new QueryWrapperFilter(olderThanQuery(true,
+                            olderThanDays))) : query;
+            removed = getCount(q);
+            touched(q);
+            writer.deleteDocuments(q);
+        } else {
+            final List<Term> terms = new ArrayList<Term>();
+            // documents that were indexed without secondary id only have it
+            // as a field
+            final BooleanQuery bySecondary = new BooleanQuery();
+            // documents that were indexed with secondary id have it in their
+            // unique ids, so they are removed by primary id alone
+            final BooleanQuery byPrimary = new BooleanQuery();
+            for (Pair<String, String> primaryAndSecondaryId : primaryAndSecondaryIds) {
+                final String secondary = GenericValidator
+                        .isBlankOrNull(primaryAndSecondaryId.getSecond()) ? null
+                        : primaryAndSecondaryId.getSecond();
+                if (secondary == null) {
+                    final BooleanQuery booleanQuery = new BooleanQuery();
+                    booleanQuery.add(new TermQuery(new Term(Document.DATABASE,
+                            database)), Occur.MUST);
+                    booleanQuery.add(new TermQuery(new Term(Document.ID,
+                            primaryAndSecondaryId.getFirst())), Occur.MUST);
+                    byPrimary.add(booleanQuery, Occur.SHOULD);
+                    continue;
+                }
+                terms.add(LuceneUtils.uidTerm(database, primaryAndSecondaryId
+                        .getFirst(), secondary));
+                if (!GenericValidator.isBlankOrNull(secondaryIdName)) {
+                    final BooleanQuery booleanQuery = new BooleanQuery();
+                    booleanQuery.add(new TermQuery(LuceneUtils.uidTerm(
+                            database, primaryAndSecondaryId.getFirst(), null)),
+                            Occur.MUST);
+                    booleanQuery.add(new TermQuery(new Term(secondaryIdName,
+                            secondary)), Occur.MUST);
+                    bySecondary.add(booleanQuery, Occur.SHOULD);
+                }
+            }
+            final boolean hasSecondary = bySecondary.clauses().size() > 0;
+            final boolean hasPrimary = byPrimary.clauses().size() > 0;
+            if (olderThanDays > 0) {
+                final BooleanQuery ids = new BooleanQuery();
+                for (Term term : terms) {
+                    ids.add(new TermQuery(term), Occur.SHOULD);
+                }
+                if (hasSecondary) {
+                    ids.add(bySecondary, Occur.SHOULD);
+                }
+                if (hasPrimary) {
+                    ids.add(byPrimary, Occur.SHOULD);
+                }
+                final BooleanQuery query = new BooleanQuery();
+                query.add(ids, Occur.MUST);
+                query.add(olderThanQuery(false, olderThanDays), Occur.MUST);
+                removed = getCount(query);
+                touched(query);
+                writer.deleteDocuments(query);
+            } else {
+                if (terms.size() > 0) {
+                    final Term[] uids = terms.toArray(new Term[terms.size()]);
+                    removed = getCount(uids);
+                    for (Term term : uids) {
+                        touched(new TermQuery(term));
+                    }
+                    writer.deleteDocuments(uids);
+                }
+                if (hasSecondary) {
+                    removed += getCount(bySecondary);
+                    touched(bySecondary);
+                    writer.deleteDocuments(bySecondary);
+                }
+                if (hasPrimary) {
+                    removed += getCount(byPrimary);
+                    touched(byPrimary);
+                    writer.deleteDocuments(byPrimary);
+                }
+            }
+        }
+        // large removals are committed periodically
+        writerManager.changed(removed);
+        return removed;
     }
 
-    @SuppressWarnings("deprecation")
-    private synchronized void index(final int count, final IndexWriter writer,
-            final IndexPolicy policy, final Document doc,
-            final String secondaryId, final IndexSearcher searcher,
-            final boolean deleteExisting) throws CorruptIndexException,
-            IOException {
-        final Map<String, Object> map = doc.getAttributes();
-        final JSONObject json = Converters.getInstance().getConverter(
-                Object.class, JSONObject.class).convert(map);
-        final org.apache.lucene.document.Document ldoc = new org.apache.lucene.document.Document();
-        // for always matching
-        ldoc.add(new Field(Constants.ALWAYS_MATCH,
-                String.valueOf(Boolean.TRUE), Field.Store.NO,
-                Field.Index.NOT_ANALYZED));
-
-        ldoc.add(new Field(Document.DATABASE, doc.getDatabase(),
-                Field.Store.YES, Field.Index.NOT_ANALYZED));
-        ldoc.add(new Field(Document.ID, doc.getId(), Field.Store.YES,
-                Field.Index.NOT_ANALYZED));
-        //
-        if (doc.hasSecondaryId()) {
-            ldoc.add(new Field(Document.SECONDARY_ID, doc.getSecondaryId(),
-                    Field.Store.YES, Field.Index.NOT_ANALYZED));
+    // documents removed during a bulk run must not come back with the run
+    private void touched(final Query query) {
+        final BulkRun run = BulkRun.get(dir);
+        if (run != null) {
+            run.touched(query);
         }
+    }
 
-        if (policy.hasOwner()) {
-            ldoc.add(new Field(Constants.OWNER, policy.getOwner(),
-                    Field.Store.YES, Field.Index.NOT_ANALYZED));
+    /**
+     * @return query that matches documents indexed more than olderThanDays
+     *         ago using the numeric index day, or the index date for indexes
+     *         that have documents without unique ids, which were indexed
+     *         without the index day.
+     */
+    private static Query olderThanQuery(final boolean legacy,
+            final int olderThanDays) {
+        final Date now = TimeUtils.getCurrentTime();
+        if (legacy) {
+            final Calendar calendar = Calendar.getInstance();
+            calendar.setTime(now);
+            calendar.add(Calendar.DATE, -olderThanDays);
+            return new TermRangeQuery("indexDate", null, DateTools
+                    .dateToString(calendar.getTime(),
+                            DateTools.Resolution.DAY), true, true);
         }
+        return NumericRangeQuery.newIntRange(Constants.INDEX_DAY, null,
+                Integer.valueOf(LuceneUtils.indexDay(now) - olderThanDays),
+                true, true);
+    }
 
-        ldoc.add(new Field("indexDate", DateTools.dateToString(TimeUtils
-                .getCurrentTime(), DateTools.Resolution.DAY), Field.Store.YES,
-                Field.Index.NOT_ANALYZED));
+    /**
+     * This method merges the index into a single segment, which is expensive
+     * and is only done on demand.
+     */
+    @Override
+    public void optimize() {
+        IndexWriterManager.getInstance(dir).optimize();
+        uniqueIds = null;
+        // invalidating cached state of this index after optimize
+        indexChanged();
+    }
 
-        if (policy.getBoost() > 0) {
-            ldoc.setBoost(policy.getBoost());
-        }
-        if (policy.getScore() > 0) {
-            ldoc.add(new Field("score", Integer.toString(policy.getScore()),
-                    Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
-        }
-        final Float scoreMultiplier = (Float) doc
-                .get(Constants.SCORE_MULTIPLIER);
-        if (scoreMultiplier != null) {
-            ldoc.setBoost(scoreMultiplier);
-        }
-        double spatialLatitude = 0;
-        double spatialLongitude = 0;
-        for (String name : doc.getAttributeNames()) {
+    /**
+     * This method adds or replaces given documents with the shared writer
+     * without committing them, which is left to the caller.
+     * 
+     * @return number of documents that were indexed successfully.
+     */
+    int add(final IndexPolicy policy, final List<Document> docs,
+            final String secondaryId) throws IOException {
+        final IndexWriter writer = IndexWriterManager.getInstance(dir)
+                .getWriter();
+        final Analyzer analyzer = policy.getAnalyzer() != null ? LuceneUtils
+                .getAnalyzer(policy.getAnalyzer()) : LuceneUtils
+                .getDefaultAnalyzer();
+        final DocumentPlan plan = DocumentPlan.getPlan(policy, indexName);
+        final boolean legacy = !hasUniqueIds();
+        int succeeded = 0;
+        for (int i = 0; i < docs.size(); i++) {
             try {
-                IndexPolicy.Field field = policy.getField(name);
-                if (field == null) {
-                    if (!INDEXED_FIELDS.containsKey(name)) {
-                        INDEXED_FIELDS.put(name, Boolean.TRUE);
-                    }
-                    continue; // skip field that are not specified in the policy
-                } else {
-                    if (!INDEXED_FIELDS.containsKey(name)) {
-                        INDEXED_FIELDS.put(name, Boolean.TRUE);
-                    }
-                }
-                String value = IndexUtils.getValue(json, name);
-                if (value != null) {
-                    if (value.length() > 0
-                            && (field.spatialLatitude || field.spatialLongitude)) {
-                        double d = Double.valueOf(value);
-                        if (field.spatialLatitude) {
-                            spatialLatitude = d;
-                        } else if (field.spatialLongitude) {
-                            spatialLongitude = d;
-                        }
-                        value = NumericUtils.doubleToPrefixCoded(d);
-                    } else if (value.length() > 0 && field.htmlToText) {
-                        value = htmlToTextConverter.convert(value);
-                    }
-                    value = value.toLowerCase();
-                    final String storeAs = field.storeAs != null
-                            && field.storeAs.length() > 0 ? field.storeAs : doc
-                            .getDatabase()
-                            + "." + name;
-
-                    final Field.Store store = field.storeInIndex
-                            || field.spatialLatitude || field.spatialLongitude ? Field.Store.YES
-                            : Field.Store.NO;
-                    final Field.Index index = field.tokenize ? Field.Index.TOKENIZED
-                            : field.analyze ? Field.Index.ANALYZED
-                                    : Field.Index.NOT_ANALYZED;
-                    final Field.TermVector termVector = field.tokenize ? Field.TermVector.YES
-                            : Field.TermVector.NO;
-                    final Field locField = field.spatialLatitude
-                            || field.spatialLongitude ? new Field(storeAs,
-                            value, Field.Store.YES, Field.Index.NOT_ANALYZED)
-                            : new Field(storeAs, value, store, index,
-                                    termVector);
-                    locField.setBoost(field.boost);
-                    ldoc.add(locField);
-                    if (policy.isAddToDictionary()) {
-                        SimilarityHelper.getInstance().trainSpellChecker(
-                                indexName, value);
-                    }
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Indexing " + name + " using " + locField
-                                + ", doc " + doc + ", policy " + policy);
-                    }
-                }
-            } catch (JSONException e) {
-                LOGGER.error("Failed to index value for " + name + " from "
-                        + json + " due to ", e);
-                throw new RuntimeException(e.toString());
+                index(i, writer, analyzer, plan, docs.get(i), secondaryId,
+                        legacy);
+                succeeded++;
+            } catch (final Exception e) {
+                LOGGER.error("Error indexing " + docs.get(i), e);
             }
         }
+        return succeeded;
+    }
+
+    String getIndexName() {
+        return indexName;
+    }
+
+    /**
+     * This method invalidates cached entries that depend on documents of
+     * this index, other caches are not changed.
+     */
+    void indexChanged() {
+        CacheFlusher.getInstance().invalidate(
+                new CacheEvent(CacheEvent.Type.INDEX_CHANGED, indexName));
+    }
 
-        if (count == 0 && LOGGER.isInfoEnabled() && INDEXED_FIELDS.size() > 2) {
-            LOGGER.info("Will index " + INDEXED_FIELDS.keySet() + " field for "
-                    + indexName + " from " + doc.getDatabase());
+    private void index(final int count, final IndexWriter writer,
+            final Analyzer analyzer, final DocumentPlan plan,
+            final Document doc, final String secondaryId, final boolean legacy)
+            throws CorruptIndexException, IOException {
+        if (count == 0 && LOGGER.isInfoEnabled()) {
+            LOGGER.info("Will index " + plan + " fields of "
+                    + doc.getAttributeNames() + " for " + indexName + " from "
+                    + doc.getDatabase());
         }
-        //
-        if (spatialLatitude != 0 && spatialLongitude != 0) {
-            final IProjector projector = new SinusoidalProjector();
-            // 9 = 100 miles
-            int startTier = 4; // 5; // About 1000 mile bestFit
-            final int endTier = 25; // 15; // about 1 mile bestFit
-            for (; startTier <= endTier; startTier++) {
-                CartesianTierPlotter ctp = new CartesianTierPlotter(startTier,
-                        projector, Constants.TIER_PREFIX);
-                final double boxId = ctp.getTierBoxId(spatialLatitude,
-                        spatialLongitude);
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("*********Adding field "
-                            + ctp.getTierFieldName() + ":" + boxId
-                            + ", spatialLatitude " + spatialLatitude
-                            + ", spatialLongitude " + spatialLongitude);
-                }
-                ldoc.add(new Field(ctp.getTierFieldName(), NumericUtils
-                        .doubleToPrefixCoded(boxId), Field.Store.YES,
-                        Field.Index.NOT_ANALYZED_NO_NORMS));
-            }
+        final Term uid = uidTerm(doc, secondaryId);
+        final org.apache.lucene.document.Document ldoc = plan.build(doc, uid);
+        final BulkRun run = BulkRun.get(dir);
+        if (run != null) {
+            // keeps this update when the bulk run is merged
+            run.touched(new TermQuery(uid));
+            ldoc.add(new Field(Constants.BULK_RUN, run.getLiveId(),
+                    Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
         }
 
-        boolean newDocument = true;
-        boolean deletedOldDocs = false;
-
-        if (deleteExisting || !GenericValidator.isBlankOrNull(secondaryId)) {
+        if (legacy) {
+            // documents indexed before unique ids can only be found by query
             writer.deleteDocuments(LuceneUtils.docQuery(doc.getDatabase(), doc
-                    .getId(), secondaryId, secondaryId != null ? (String) doc
-                    .get(secondaryId) : null));
-            deletedOldDocs = true;
-        } else {
-            final int[] counts = new int[1];
-            searcher.search(LuceneUtils
-                    .docQuery(doc.getDatabase(), doc.getId()), null,
-                    new Collector() {
-                        @Override
-                        public boolean acceptsDocsOutOfOrder() {
-                            return false;
-                        }
-
-                        @Override
-                        public void collect(int hits) throws IOException {
-                            counts[0] += hits;
-                        }
-
-                        @Override
-                        public void setNextReader(IndexReader arg0, int arg1)
-                                throws IOException {
-                        }
-
-                        @Override
-                        public void setScorer(Scorer arg0) throws IOException {
-                        }
-                    });
-            newDocument = counts[0] == 0;
+                    .getId(), secondaryId,
+                    getSecondaryValue(doc, secondaryId)));
         }
+        writer.updateDocument(uid, ldoc, analyzer);
 
-        if (newDocument) {
-            writer.addDocument(ldoc);
-        } else {
-            Term idTerm = new Term(Document.ID, doc.getId());
-            writer.updateDocument(idTerm, ldoc);
+        final int indexed = numIndexed.incrementAndGet();
+        if (indexed % 1000 == 0 && LOGGER.isInfoEnabled()) {
+            LOGGER.info(indexed + ": Indexing " + doc.getId()
+                    + " secondaryId " + secondaryId + ", legacy " + legacy
+                    + " with plan " + plan);
         }
+    }
 
-        if (++numIndexed % 1000 == 0 && LOGGER.isInfoEnabled()) {
-            LOGGER.info(numIndexed + ": Indexing " + doc.getId()
-                    + " secondaryId " + secondaryId + ", newDocument "
-                    + newDocument + ", deletedOldDocs " + deletedOldDocs
-                    + " with policy " + policy);
-        }
+    private static Term uidTerm(final Document doc, final String secondaryId) {
+        return LuceneUtils.uidTerm(doc.getDatabase(), doc.getId(),
+                getSecondaryValue(doc, secondaryId));
     }
 
-    private Tuple open(final IndexPolicy policy) throws IOException {
-        final IndexWriter writer = createWriter(policy);
-        final IndexReader reader = IndexReader.open(dir, false);
-        final IndexSearcher searcher = new IndexSearcher(reader);
+    private static String getSecondaryValue(final Document doc,
+            final String secondaryId) {
+        return GenericValidator.isBlankOrNull(secondaryId) ? null
+                : (String) doc.get(secondaryId);
+    }
 
-        return new Tuple(writer, reader, searcher);
+    /**
+     * This method checks whether all documents in the index have the unique id
+     * field so that they can be replaced by the unique id term alone. The
+     * result is remembered until the next rebuild or optimize as checking it
+     * scans all unique ids.
+     */
+    private boolean hasUniqueIds() throws IOException {
+        final Boolean cached = uniqueIds;
+        if (cached != null) {
+            return cached.booleanValue();
+        }
+        final SearcherManager manager = SearcherManager.getInstance(dir);
+        final IndexSearcher searcher = manager.acquire();
+        try {
+            final IndexReader reader = searcher.getIndexReader();
+            // unique ids are in every document including deleted ones, so
+            // their frequencies add up to maxDoc when no document is missing
+            int withUid = 0;
+            final TermEnum terms = reader.terms(new Term(Constants.UID, ""));
+            try {
+                do {
+                    final Term term = terms.term();
+                    if (term == null || !Constants.UID.equals(term.field())) {
+                        break;
+                    }
+                    withUid += terms.docFreq();
+                } while (terms.next());
+            } finally {
+                terms.close();
+            }
+            final boolean complete = withUid >= reader.maxDoc();
+            if (!complete && LOGGER.isInfoEnabled()) {
+                LOGGER.info(indexName + " has " + (reader.maxDoc() - withUid)
+                        + " documents without unique id");
+            }
+            uniqueIds = Boolean.valueOf(complete);
+            return complete;
+        } finally {
+            manager.release(searcher);
+        }
     }
 
-    private int getCount(Query q) {
-        IndexReader reader = null;
+    private int getCount(final Query q) {
+        SearcherManager manager = null;
         IndexSearcher searcher = null;
 
         try {
-            reader = IndexReader.open(dir, false);
-            searcher = new IndexSearcher(reader);
+            manager = SearcherManager.getInstance(dir);
+            searcher = manager.acquire();
             return searcher.search(q, 1).totalHits;
-        } catch (CorruptIndexException e) {
-            LOGGER.error("failed to get count", e);
-            return 0;
         } catch (IOException e) {
             LOGGER.error("failed to get count", e);
             return 0;
         } finally {
-            try {
-                reader.close();
-            } catch (Exception e) {
-                LOGGER.error("failed to close reader", e);
-            }
-            try {
-                searcher.close();
-            } catch (Exception e) {
-                LOGGER.error("failed to close searcher", e);
+            if (manager != null) {
+                manager.release(searcher);
             }
         }
     }
 
-    private void close(final IndexWriter writer, final IndexReader reader,
-            final IndexSearcher searcher) {
-        if (writer != null) {
-            try {
-                if (OPTIMIZE) {
-                    writer.optimize();
-                }
-            } catch (Exception e) {
-                LOGGER.error("failed to optimize", e);
-            } finally {
+    /**
+     * @return number of live documents with any of given terms
+     */
+    private int getCount(final Term[] terms) {
+        SearcherManager manager = null;
+        IndexSearcher searcher = null;
+
+        try {
+            manager = SearcherManager.getInstance(dir);
+            searcher = manager.acquire();
+            final IndexReader reader = searcher.getIndexReader();
+            int count = 0;
+            for (Term term : terms) {
+                final TermDocs termDocs = reader.termDocs(term);
                 try {
-                    writer.close();
-                } catch (Exception e) {
-                    LOGGER.error("failed to close", e);
+                    while (termDocs.next()) {
+                        count++;
+                    }
+                } finally {
+                    termDocs.close();
                 }
             }
-        }
-        if (reader != null) {
-            try {
-                reader.close();
-            } catch (Exception e) {
-                LOGGER.error("failed to close reader", e);
-            }
-        }
-        if (searcher != null) {
-            try {
-                searcher.close();
-            } catch (Exception e) {
-                LOGGER.error("failed to close searcher", e);
+            return count;
+        } catch (IOException e) {
+            LOGGER.error("failed to get count", e);
+            return 0;
+        } finally {
+            if (manager != null) {
+                manager.release(searcher);
             }
         }
+    }
 
+    private void commit(final IndexWriterManager writerManager) {
+        try {
+            writerManager.commit();
+        } catch (Exception e) {
+            LOGGER.error("failed to commit", e);
+        }
     }
 }
@@ -1,11 +1,18 @@
 package com.plexobject.docusearch.index.lucene;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
@@ -16,10 +23,16 @@ import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
 
 import com.plexobject.docusearch.Configuration;
+import com.plexobject.docusearch.util.DaemonThreadFactory;
 
 /**
  * Drop-in replacement for IndexWriter that uses multiple threads, under the
- * hood, to index added documents.
+ * hood, to index added documents. Producers block when too many documents are
+ * in flight, failures of worker threads are collected and returned by
+ * flushPending, which also waits for all in-flight documents. As commit is
+ * final in IndexWriter, flushPending must be called before commit so that
+ * queued documents are not missed. Failures that were not returned by
+ * flushPending are thrown by close and rollback.
  * 
  * @author Shahzad Bhatti
  */
@@ -32,17 +45,67 @@ public class ThreadedIndexWriter extends IndexWriter {
 			.getInteger("lucene.max.threads", 2);
 	private static final int MAX_PENDING_TASKS = Configuration.getInstance()
 			.getInteger("lucene.max.pending.tasks", 128);
+	// 0 waits until there is room for a document
+	private static final long MAX_WAIT_FOR_PENDING_MILLIS = Configuration
+			.getInstance().getLong("lucene.pending.tasks.wait.millis", 0);
 	private static final int MAX_WAIT_BEFORE_SHUTDOWN = Configuration
 			.getInstance().getInteger("lucene.wait.before.shutdown.secs", 60);
 
-	private volatile ThreadPoolExecutor executor;
-	private BlockingQueue<Runnable> pendingTasksQueue = new ArrayBlockingQueue<Runnable>(
-			MAX_PENDING_TASKS, false);
+	/**
+	 * This class keeps number of documents and time spent by a worker thread
+	 */
+	private static class WorkerStats {
+		private final AtomicLong documents = new AtomicLong();
+		private final AtomicLong nanos = new AtomicLong();
+
+		private double getThroughput() {
+			final long elapsed = nanos.get();
+			return elapsed > 0 ? documents.get() * 1000000000.0D / elapsed : 0;
+		}
+	}
+
+	/**
+	 * This exception is thrown when documents failed to be indexed by the
+	 * worker threads
+	 */
+	public static class FailedDocumentsException extends IOException {
+		private static final long serialVersionUID = 1L;
+		private final List<Throwable> failures;
+
+		FailedDocumentsException(final List<Throwable> failures) {
+			super(failures.size() + " documents failed to be indexed, first "
+					+ failures.get(0), failures.get(0));
+			this.failures = failures;
+		}
+
+		/**
+		 * @return failures of worker threads
+		 */
+		public List<Throwable> getFailures() {
+			return failures;
+		}
+	}
+
+	/**
+	 * This interface defines an index operation that is run by the workers
+	 */
+	private interface Operation {
+		void run() throws IOException;
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final Semaphore permits;
+	private final Object pendingLock = new Object();
+	private int pending;
+	private final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+	private final Map<String, WorkerStats> workerStats = new ConcurrentHashMap<String, WorkerStats>();
+	private volatile boolean closing;
 
 	public ThreadedIndexWriter(final Directory dir, Analyzer a, boolean create,
 			final IndexWriter.MaxFieldLength mfl) throws CorruptIndexException,
 			IOException {
-		this(dir, a, create, mfl, MAX_THREAD_COUNT / 2, MAX_THREAD_COUNT);
+		this(dir, a, create, mfl, Math.max(1, MAX_THREAD_COUNT / 2),
+				MAX_THREAD_COUNT);
 	}
 
 	public ThreadedIndexWriter(final Directory dir, Analyzer a, boolean create,
@@ -50,196 +113,264 @@ public class ThreadedIndexWriter extends IndexWriter {
 			final int maxThreadCount) throws CorruptIndexException, IOException {
 		super(dir, a, create, mfl);
 		executor = new ThreadPoolExecutor(defaultThreadCount, maxThreadCount,
-				Long.MAX_VALUE, TimeUnit.NANOSECONDS, pendingTasksQueue,
-				new ThreadPoolExecutor.CallerRunsPolicy());
-		executor.setRejectedExecutionHandler(new RejectedExecutionHandler() {
-			public void rejectedExecution(final Runnable r,
-					final ThreadPoolExecutor e) {
-				LOGGER.error("Re-executing rejected Execution:- " + r + " /"
-						+ e + ", tasks remaining : " + e.getTaskCount()
-						+ ", tasks executed: " + e.getCompletedTaskCount());
-				r.run();
-			}
-		});
+				60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+						MAX_PENDING_TASKS), new DaemonThreadFactory(
+						"ThreadedIndexWriter"));
+		// the queue is never full for the executor as producers must first
+		// get a permit for each document
+		permits = new Semaphore(MAX_PENDING_TASKS + maxThreadCount, true);
 	}
 
 	public void addDocument(final Document doc) throws CorruptIndexException,
 			IOException {
-		if (executor != null) {
-			executor.execute(new Runnable() {
-				public void run() {
-					try {
-						ThreadedIndexWriter.super.addDocument(doc);
-						if (LOGGER.isDebugEnabled()) {
-							LOGGER.debug("addDocument " + doc);
-						}
-					} catch (CorruptIndexException e) {
-						LOGGER.error("Error updating index.", e);
-					} catch (IOException e) {
-						LOGGER.error("Error updating index.", e);
-					}
-				}
-			});
-		} else {
-			super.addDocument(doc);
-		}
+		submit(new Operation() {
+			public void run() throws IOException {
+				ThreadedIndexWriter.super.addDocument(doc);
+			}
+
+			public String toString() {
+				return "addDocument " + doc;
+			}
+		});
 	}
 
 	public void addDocument(final Document doc, final Analyzer a)
 			throws CorruptIndexException, IOException {
-		if (executor != null) {
-			executor.execute(new Runnable() {
-				public void run() {
-					try {
-						ThreadedIndexWriter.super.addDocument(doc, a);
-						if (LOGGER.isDebugEnabled()) {
-							LOGGER.debug("addDocument " + doc);
-						}
-					} catch (CorruptIndexException e) {
-						LOGGER.error("Error updating index.", e);
-					} catch (IOException e) {
-						LOGGER.error("Error updating index.", e);
-					}
-				}
-			});
-		} else {
-			super.addDocument(doc, a);
-		}
+		submit(new Operation() {
+			public void run() throws IOException {
+				ThreadedIndexWriter.super.addDocument(doc, a);
+			}
 
+			public String toString() {
+				return "addDocument " + doc;
+			}
+		});
 	}
 
 	public void updateDocument(final Term term, final Document doc)
 			throws CorruptIndexException, IOException {
-		if (executor != null) {
-			executor.execute(new Runnable() {
-				public void run() {
-					try {
-						ThreadedIndexWriter.super.updateDocument(term, doc);
-						if (LOGGER.isDebugEnabled()) {
-							LOGGER.debug("updateDocument " + doc);
-						}
-					} catch (CorruptIndexException e) {
-						LOGGER.error("Error updating index.", e);
-					} catch (IOException e) {
-						LOGGER.error("Error updating index.", e);
-					}
-				}
-			});
-		} else {
-			super.updateDocument(term, doc);
-		}
+		submit(new Operation() {
+			public void run() throws IOException {
+				ThreadedIndexWriter.super.updateDocument(term, doc);
+			}
+
+			public String toString() {
+				return "updateDocument " + doc;
+			}
+		});
 	}
 
 	public void updateDocument(final Term term, final Document doc,
 			final Analyzer a) throws CorruptIndexException, IOException {
-		if (executor != null) {
-			executor.execute(new Runnable() {
-				public void run() {
-					try {
-						ThreadedIndexWriter.super.updateDocument(term, doc, a);
-						if (LOGGER.isDebugEnabled()) {
-							LOGGER.debug("updateDocument " + doc);
-						}
-					} catch (CorruptIndexException e) {
-						LOGGER.error("Error updating index.", e);
-					} catch (IOException e) {
-						LOGGER.error("Error updating index.", e);
-					}
+		submit(new Operation() {
+			public void run() throws IOException {
+				ThreadedIndexWriter.super.updateDocument(term, doc, a);
+			}
+
+			public String toString() {
+				return "updateDocument " + doc;
+			}
+		});
+	}
+
+	/**
+	 * This method waits until all documents that were added before are
+	 * indexed and returns failures of workers since the last call. It must be
+	 * called before commit so that the commit includes all added documents.
+	 * 
+	 * @return failures of worker threads, which is empty if all documents
+	 *         were indexed
+	 */
+	public List<Throwable> flushPending() throws IOException {
+		synchronized (pendingLock) {
+			while (pending > 0) {
+				try {
+					pendingLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(
+							"interrupted while waiting for pending documents");
 				}
-			});
-		} else {
-			super.updateDocument(term, doc, a);
+			}
 		}
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		Throwable error = null;
+		while ((error = failures.poll()) != null) {
+			errors.add(error);
+		}
+		return errors;
 	}
 
-	public void close() throws CorruptIndexException, IOException {
-		if (executor != null) {
-			executor.execute(new Runnable() {
-				public void run() {
-
-					try {
-						finish();
-						ThreadedIndexWriter.super.close();
-					} catch (CorruptIndexException e) {
-						LOGGER.error("Error updating index.", e);
-					} catch (IOException e) {
-						LOGGER.error("Error updating index.", e);
-					}
-				}
-			});
-		} else {
-			finish();
-			super.close();
+	/**
+	 * @return number of documents waiting for a worker
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return number of documents that are queued or being indexed
+	 */
+	public int getPendingCount() {
+		synchronized (pendingLock) {
+			return pending;
+		}
+	}
+
+	/**
+	 * @return documents indexed per second by each worker thread
+	 */
+	public Map<String, Double> getWorkerThroughput() {
+		final Map<String, Double> throughput = new TreeMap<String, Double>();
+		for (Map.Entry<String, WorkerStats> e : workerStats.entrySet()) {
+			throughput.put(e.getKey(), e.getValue().getThroughput());
 		}
+		return throughput;
+	}
 
+	/**
+	 * @throws FailedDocumentsException
+	 *             if documents failed since the last flushPending, the
+	 *             writer is closed regardless
+	 */
+	public void close() throws CorruptIndexException, IOException {
+		final List<Throwable> errors = finish();
+		super.close();
+		throwIfFailed(errors);
 	}
 
+	/**
+	 * @throws FailedDocumentsException
+	 *             if documents failed since the last flushPending, the
+	 *             writer is closed regardless
+	 */
 	public void close(final boolean doWait) throws CorruptIndexException,
 			IOException {
+		final List<Throwable> errors = finish();
+		super.close(doWait);
+		throwIfFailed(errors);
+	}
 
-		if (executor != null) {
-			executor.execute(new Runnable() {
-				public void run() {
-
-					try {
-						finish();
-						ThreadedIndexWriter.super.close(doWait);
-					} catch (CorruptIndexException e) {
-						LOGGER.error("Error updating index.", e);
-					} catch (IOException e) {
-						LOGGER.error("Error updating index.", e);
+	/**
+	 * @throws FailedDocumentsException
+	 *             if documents failed since the last flushPending, the
+	 *             changes are rolled back regardless
+	 */
+	public void rollback() throws CorruptIndexException, IOException {
+		final List<Throwable> errors = finish();
+		super.rollback();
+		throwIfFailed(errors);
+	}
+
+	private void submit(final Operation operation) throws IOException {
+		if (closing) {
+			throw new IOException("writer is closed");
+		}
+		acquire();
+		synchronized (pendingLock) {
+			pending++;
+		}
+		final Runnable task = new Runnable() {
+			public void run() {
+				final long started = System.nanoTime();
+				try {
+					operation.run();
+					if (LOGGER.isDebugEnabled()) {
+						LOGGER.debug(operation);
 					}
+				} catch (Throwable e) {
+					LOGGER.error("Error updating index " + operation, e);
+					failures.add(e);
+				} finally {
+					record(System.nanoTime() - started);
+					done();
 				}
-			});
-		} else {
-			finish();
-			super.close(doWait);
+			}
+		};
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			if (closing) {
+				done();
+				throw new IOException("writer is closed");
+			}
+			// workers are still finishing documents whose permits were released
+			task.run();
 		}
-
 	}
 
-	public void rollback() throws CorruptIndexException, IOException {
-		if (executor != null) {
-			executor.execute(new Runnable() {
-				public void run() {
-
-					try {
-						finish();
-						ThreadedIndexWriter.super.rollback();
-					} catch (CorruptIndexException e) {
-						LOGGER.error("Error updating index.", e);
-					} catch (IOException e) {
-						LOGGER.error("Error updating index.", e);
-					}
-				}
-			});
-		} else {
-			finish();
-			super.rollback();
+	private void acquire() throws IOException {
+		try {
+			if (MAX_WAIT_FOR_PENDING_MILLIS <= 0) {
+				permits.acquire();
+			} else if (!permits.tryAcquire(MAX_WAIT_FOR_PENDING_MILLIS,
+					TimeUnit.MILLISECONDS)) {
+				throw new IOException("timed out waiting for "
+						+ getPendingCount() + " pending documents after "
+						+ MAX_WAIT_FOR_PENDING_MILLIS + " millis");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for "
+					+ getPendingCount() + " pending documents");
 		}
+	}
 
+	private void record(final long elapsed) {
+		final String name = Thread.currentThread().getName();
+		WorkerStats stats = workerStats.get(name);
+		if (stats == null) {
+			// each worker only updates its own stats
+			stats = new WorkerStats();
+			workerStats.put(name, stats);
+		}
+		stats.documents.incrementAndGet();
+		stats.nanos.addAndGet(elapsed);
 	}
 
-	private void finish() {
-		if (executor != null) {
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("Shutting down threadpool for index writer "
-						+ MAX_WAIT_BEFORE_SHUTDOWN + ", tasks remaining : "
-						+ executor.getTaskCount() + ", tasks executed: "
-						+ executor.getCompletedTaskCount());
-			}
-			executor.shutdown();
-			try {
-				executor.awaitTermination(MAX_WAIT_BEFORE_SHUTDOWN,
-						TimeUnit.SECONDS);
-			} catch (InterruptedException e) {
-				Thread.interrupted();
+	private void done() {
+		permits.release();
+		synchronized (pendingLock) {
+			if (--pending == 0) {
+				pendingLock.notifyAll();
 			}
+		}
+	}
 
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("Completed shutdown threadpool for index writer");
-			}
-			executor = null;
+	private static void throwIfFailed(final List<Throwable> errors)
+			throws FailedDocumentsException {
+		if (errors.size() > 0) {
+			throw new FailedDocumentsException(errors);
+		}
+	}
+
+	// returns failures that were not returned by flushPending
+	private List<Throwable> finish() throws IOException {
+		if (closing) {
+			return new ArrayList<Throwable>();
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Shutting down threadpool for index writer "
+					+ MAX_WAIT_BEFORE_SHUTDOWN + ", tasks remaining : "
+					+ executor.getTaskCount() + ", tasks executed: "
+					+ executor.getCompletedTaskCount());
+		}
+		final List<Throwable> errors = flushPending();
+		closing = true;
+		executor.shutdown();
+		try {
+			executor.awaitTermination(MAX_WAIT_BEFORE_SHUTDOWN,
+					TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (errors.size() > 0) {
+			LOGGER.error("Closing index writer after " + errors.size()
+					+ " failed documents, throughput " + getWorkerThroughput());
+		} else if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Completed shutdown threadpool for index writer, "
+					+ "throughput " + getWorkerThroughput());
 		}
+		return errors;
 	}
 }
@@ -54,7 +54,7 @@ public class DeadLetterReprocessor implements InitializingBean {
     private static final long INDEFINITE = 0;
 
     private CachedMap<String, Boolean> seenIds = new CachedMap<String, Boolean>(
-            INDEFINITE, 1000);
+            "deadLetterIds", INDEFINITE, 1000);
     @Autowired
     @Inject
     private JmsTemplate jmsTemplate;
@@ -0,0 +1,113 @@
+package com.plexobject.docusearch.jmx;
+
+/**
+ * This interface is used to monitor effectiveness of a cache, statistics of
+ * all caches are available through CachesJMXBean.
+ * 
+ * @author Shahzad Bhatti
+ * 
+ */
+public interface CacheJMXBean {
+    /**
+     * 
+     * @return unique name of the cache
+     */
+    String getCacheName();
+
+    /**
+     * 
+     * @return number of cached entries
+     */
+    int getSize();
+
+    /**
+     * 
+     * @return max number of cached entries
+     */
+    int getMaxSize();
+
+    /**
+     * 
+     * @return total weight of entries, 0 if cache is not weighed
+     */
+    long getWeight();
+
+    /**
+     * 
+     * @return max total weight of entries, 0 if cache is not weighed
+     */
+    long getMaxWeight();
+
+    /**
+     * 
+     * @return number of lookups that found an entry
+     */
+    long getHits();
+
+    /**
+     * 
+     * @return number of lookups that didn't find an entry
+     */
+    long getMisses();
+
+    /**
+     * 
+     * @return hits divided by all lookups
+     */
+    double getHitRatio();
+
+    /**
+     * 
+     * @return number of loads including failed loads
+     */
+    long getLoads();
+
+    /**
+     * 
+     * @return number of loads where cache loader threw an exception
+     */
+    long getLoadFailures();
+
+    /**
+     * 
+     * @return average time of loads in millis
+     */
+    double getAverageLoadMillis();
+
+    /**
+     * 
+     * @return number of loads that took up to 1, 10, 100, 1000 millis and
+     *         longer
+     */
+    long[] getLoadMillisHistogram();
+
+    /**
+     * 
+     * @return number of entries evicted because cache exceeded its max size
+     */
+    long getSizeEvictions();
+
+    /**
+     * 
+     * @return number of entries removed because they expired
+     */
+    long getExpirations();
+
+    /**
+     * 
+     * @return number of entries removed when cache was flushed
+     */
+    long getFlushes();
+
+    /**
+     * 
+     * @return number of entries removed by change events
+     */
+    long getInvalidations();
+
+    /**
+     * 
+     * @return rough estimate of memory used by keys and values in bytes
+     */
+    long getEstimatedMemoryBytes();
+}
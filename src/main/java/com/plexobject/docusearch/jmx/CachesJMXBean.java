@@ -0,0 +1,33 @@
+package com.plexobject.docusearch.jmx;
+
+import javax.management.MXBean;
+
+/**
+ * This interface is used to monitor all caches using a single JMX bean, so
+ * that caches of short-lived objects don't register beans of their own.
+ * 
+ * @author Shahzad Bhatti
+ * 
+ */
+@MXBean
+public interface CachesJMXBean {
+    /**
+     * 
+     * @return unique names of caches
+     */
+    String[] getCacheNames();
+
+    /**
+     * 
+     * @return rough estimate of memory used by all caches in bytes
+     */
+    long getEstimatedMemoryBytes();
+
+    /**
+     * 
+     * @param cacheName
+     *            - unique name of the cache
+     * @return statistics of the cache as JSON or null if cache doesn't exist
+     */
+    String getCacheStats(String cacheName);
+}
@@ -88,6 +88,54 @@ public class JMXRegistrar {
         }
     }
 
+    /**
+     * This method registers an mbean that is created by its own component,
+     * failures are only logged so that monitoring doesn't break the
+     * component.
+     * 
+     * @param objectName
+     *            -- object name of mbean
+     * @param mbean
+     *            -- mbean or mxbean
+     */
+    public void registerMBean(final String objectName, final Object mbean) {
+        if (GenericValidator.isBlankOrNull(objectName)) {
+            throw new IllegalArgumentException("objectName not specified");
+        }
+        if (mbean == null) {
+            throw new NullPointerException("mbean not specified");
+        }
+        try {
+            mbeanServer.registerMBean(mbean, new ObjectName(objectName));
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("regstered MXBean " + objectName);
+            }
+        } catch (InstanceAlreadyExistsException e) {
+            LOGGER.warn(objectName + " is already registered");
+        } catch (Exception e) {
+            LOGGER.error("Failed to register " + objectName, e);
+        }
+    }
+
+    /**
+     * 
+     * @param objectName
+     *            -- object name of mbean that was registered
+     */
+    public void unregisterMBean(final String objectName) {
+        if (GenericValidator.isBlankOrNull(objectName)) {
+            throw new IllegalArgumentException("objectName not specified");
+        }
+        try {
+            final ObjectName name = new ObjectName(objectName);
+            if (mbeanServer.isRegistered(name)) {
+                mbeanServer.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Failed to unregister " + objectName, e);
+        }
+    }
+
     /**
      * @see java.lang.Object#equals(Object)
      */
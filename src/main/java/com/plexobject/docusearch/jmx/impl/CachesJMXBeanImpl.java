@@ -0,0 +1,67 @@
+package com.plexobject.docusearch.jmx.impl;
+
+import java.util.List;
+
+import org.codehaus.jettison.json.JSONException;
+
+import com.plexobject.docusearch.cache.CacheFlusher;
+import com.plexobject.docusearch.cache.CacheStats;
+import com.plexobject.docusearch.jmx.CachesJMXBean;
+
+/**
+ * This class reads statistics of caches that are registered with the cache
+ * flusher when JMX asks for them.
+ * 
+ * @author Shahzad Bhatti
+ * 
+ */
+public class CachesJMXBeanImpl implements CachesJMXBean {
+    private final String objectName;
+
+    public CachesJMXBeanImpl() {
+        objectName = CacheFlusher.class.getPackage().getName()
+                + ":type=Caches";
+    }
+
+    @Override
+    public String[] getCacheNames() {
+        final List<CacheStats> stats = CacheFlusher.getInstance()
+                .getCacheStats();
+        final String[] names = new String[stats.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = stats.get(i).getCacheName();
+        }
+        return names;
+    }
+
+    @Override
+    public long getEstimatedMemoryBytes() {
+        long bytes = 0;
+        for (CacheStats stats : CacheFlusher.getInstance().getCacheStats()) {
+            bytes += stats.getEstimatedMemoryBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String getCacheStats(final String cacheName) {
+        for (CacheStats stats : CacheFlusher.getInstance().getCacheStats()) {
+            if (stats.getCacheName().equals(cacheName)) {
+                try {
+                    return stats.toJSONObject().toString();
+                } catch (JSONException e) {
+                    throw new IllegalStateException(
+                            "failed to convert stats of " + cacheName, e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the objectName
+     */
+    public String getObjectName() {
+        return objectName;
+    }
+}
@@ -0,0 +1,525 @@
+package com.plexobject.docusearch.lucene;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+
+import com.plexobject.docusearch.Configuration;
+import com.plexobject.docusearch.SearchException;
+import com.plexobject.docusearch.metrics.Metric;
+import com.plexobject.docusearch.metrics.Timer;
+import com.plexobject.docusearch.util.DaemonThreadFactory;
+
+/**
+ * This class keeps a single long-lived writer per index directory and shares
+ * it among all indexers. The writer is thread-safe, so callers add and delete
+ * documents concurrently while segments are merged in the background by the
+ * writer's merge scheduler. Changes are committed when callers finish a batch
+ * or after COMMIT_MIN changes, and the index is only optimized on demand. The
+ * writer keeps snapshots of commits so that the index can be backed up while
+ * it is being written. When lucene.optimize.hour is set, all indexes are
+ * merged down to lucene.optimize.max.segments segments daily at that hour,
+ * which should be off-peak. All writers are closed when the JVM shuts down.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
+public class IndexWriterManager {
+    private static final Logger LOGGER = Logger
+            .getLogger(IndexWriterManager.class);
+    private static final Map<String, IndexWriterManager> MANAGERS = new HashMap<String, IndexWriterManager>();
+    static {
+        Runtime.getRuntime().addShutdownHook(
+                new Thread("IndexWriterManager-shutdown") {
+                    @Override
+                    public void run() {
+                        closeAll();
+                    }
+                });
+    }
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int OPTIMIZE_HOUR = Configuration.getInstance()
+            .getInteger("lucene.optimize.hour", -1);
+    private static final int OPTIMIZE_MAX_SEGMENTS = Configuration
+            .getInstance().getInteger("lucene.optimize.max.segments", 1);
+    static {
+        if (OPTIMIZE_HOUR >= 0) {
+            Executors.newSingleThreadScheduledExecutor(
+                    new DaemonThreadFactory("IndexWriterManager-optimize"))
+                    .scheduleAtFixedRate(new Runnable() {
+                        @Override
+                        public void run() {
+                            optimizeAll(OPTIMIZE_MAX_SEGMENTS);
+                        }
+                    }, millisUntil(OPTIMIZE_HOUR), DAY_MILLIS,
+                            TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * This class describes a backup of a commit
+     */
+    public static class Backup {
+        private final long generation;
+        private final int numFiles;
+        private final int numCopied;
+        private final long bytesCopied;
+
+        Backup(final long generation, final int numFiles, final int numCopied,
+                final long bytesCopied) {
+            this.generation = generation;
+            this.numFiles = numFiles;
+            this.numCopied = numCopied;
+            this.bytesCopied = bytesCopied;
+        }
+
+        /**
+         * @return generation of the commit that was backed up
+         */
+        public long getGeneration() {
+            return generation;
+        }
+
+        /**
+         * @return number of files in the commit
+         */
+        public int getNumFiles() {
+            return numFiles;
+        }
+
+        /**
+         * @return number of files that were not in the previous backup
+         */
+        public int getNumCopied() {
+            return numCopied;
+        }
+
+        public long getBytesCopied() {
+            return bytesCopied;
+        }
+
+        @Override
+        public String toString() {
+            return "generation " + generation + ", copied " + numCopied + "/"
+                    + numFiles + " files, " + bytesCopied + " bytes";
+        }
+    }
+
+    private final Directory dir;
+    private final IndexWriter writer;
+    private final Object commitLock = new Object();
+    private final Object backupLock = new Object();
+    private final SnapshotDeletionPolicy snapshotPolicy = new SnapshotDeletionPolicy(
+            new KeepOnlyLastCommitDeletionPolicy());
+    private final AtomicInteger uncommitted = new AtomicInteger();
+    private volatile boolean closed;
+
+    IndexWriterManager(final Directory dir) {
+        if (dir == null) {
+            throw new NullPointerException("dir is null");
+        }
+        this.dir = dir;
+        try {
+            this.writer = LuceneUtils.newWriter(dir, null, snapshotPolicy);
+        } catch (IOException e) {
+            throw new SearchException("failed to open writer for " + dir, e);
+        }
+    }
+
+    /**
+     * @param dir
+     *            - index directory
+     * @return shared writer manager for the directory
+     */
+    public static IndexWriterManager getInstance(final Directory dir) {
+        if (dir == null) {
+            throw new NullPointerException("dir is null");
+        }
+        synchronized (MANAGERS) {
+            IndexWriterManager manager = MANAGERS.get(dir.getLockID());
+            if (manager == null) {
+                manager = new IndexWriterManager(dir);
+                MANAGERS.put(dir.getLockID(), manager);
+            }
+            return manager;
+        }
+    }
+
+    /**
+     * @param dir
+     *            - index directory
+     * @return shared writer manager for the directory or null if no writer is
+     *         open for it. Unlike getInstance, it never opens a writer, which
+     *         would take the write lock of the directory.
+     */
+    public static IndexWriterManager getOpenInstance(final Directory dir) {
+        if (dir == null) {
+            throw new NullPointerException("dir is null");
+        }
+        synchronized (MANAGERS) {
+            return MANAGERS.get(dir.getLockID());
+        }
+    }
+
+    /**
+     * @param dir
+     *            - index directory
+     * @return number of segments in the last commit of the directory
+     */
+    public static int getSegmentCount(final Directory dir) {
+        final SegmentInfos infos = new SegmentInfos();
+        try {
+            infos.read(dir);
+        } catch (IOException e) {
+            throw new SearchException("failed to read segments of " + dir, e);
+        }
+        return infos.size();
+    }
+
+    /**
+     * This method backs up the index with its open writer manager if there
+     * is one. Otherwise the index isn't written by this process, so the last
+     * commit is copied without opening a writer.
+     * 
+     * @param dir
+     *            - index directory
+     * @param target
+     *            - backup directory
+     * @return description of the backup
+     */
+    public static Backup backup(final Directory dir, final File target) {
+        final IndexWriterManager manager = getOpenInstance(dir);
+        if (manager != null) {
+            return manager.backup(target);
+        }
+        final Timer timer = Metric.newTimer("IndexWriterManager.backup");
+        try {
+            IndexCommit last = null;
+            for (Object commit : IndexReader.listCommits(dir)) {
+                if (last == null
+                        || ((IndexCommit) commit).getGeneration() > last
+                                .getGeneration()) {
+                    last = (IndexCommit) commit;
+                }
+            }
+            if (last == null) {
+                throw new SearchException("no commit found in " + dir);
+            }
+            final Backup backup = copyCommit(dir, last, target);
+            timer.stop("backed up " + dir + " to " + target + ", " + backup);
+            return backup;
+        } catch (IOException e) {
+            throw new SearchException("failed to backup " + dir + " to "
+                    + target, e);
+        }
+    }
+
+    /**
+     * This method commits pending changes and closes the writer of given
+     * directory
+     *
+     * @param dir
+     *            - index directory
+     */
+    public static void close(final Directory dir) {
+        IndexWriterManager manager = null;
+        synchronized (MANAGERS) {
+            manager = MANAGERS.remove(dir.getLockID());
+        }
+        if (manager != null) {
+            manager.close();
+        }
+    }
+
+    /**
+     * This method commits pending changes and closes all writers
+     */
+    public static void closeAll() {
+        final List<IndexWriterManager> managers = new ArrayList<IndexWriterManager>();
+        synchronized (MANAGERS) {
+            managers.addAll(MANAGERS.values());
+            MANAGERS.clear();
+        }
+        for (IndexWriterManager manager : managers) {
+            manager.close();
+        }
+    }
+
+    /**
+     * This method merges segments of all open indexes
+     *
+     * @param maxNumSegments
+     *            - max number of segments left in each index
+     */
+    public static void optimizeAll(final int maxNumSegments) {
+        final List<IndexWriterManager> managers = new ArrayList<IndexWriterManager>();
+        synchronized (MANAGERS) {
+            managers.addAll(MANAGERS.values());
+        }
+        for (IndexWriterManager manager : managers) {
+            try {
+                manager.optimize(maxNumSegments);
+            } catch (Exception e) {
+                LOGGER.error("failed to optimize " + manager, e);
+            }
+        }
+    }
+
+    /**
+     * @return shared writer, which must not be closed by the caller
+     */
+    public IndexWriter getWriter() {
+        if (closed) {
+            throw new IllegalStateException("writer manager for " + dir
+                    + " is closed");
+        }
+        return writer;
+    }
+
+    /**
+     * This method records changes made with the shared writer and commits
+     * them once COMMIT_MIN changes are pending, so that long running batches
+     * become visible to searchers periodically.
+     *
+     * @param count
+     *            - number of added, updated or deleted documents
+     */
+    public void changed(final int count) {
+        if (uncommitted.addAndGet(count) >= LuceneUtils.COMMIT_MIN) {
+            commit();
+        }
+    }
+
+    /**
+     * This method commits all pending changes of all callers and refreshes
+     * searchers of the directory.
+     */
+    public void commit() {
+        final Timer timer = Metric.newTimer("IndexWriterManager.commit");
+        int pending = 0;
+        synchronized (commitLock) {
+            pending = uncommitted.getAndSet(0);
+            try {
+                getWriter().commit();
+            } catch (IOException e) {
+                throw new SearchException("failed to commit " + dir, e);
+            }
+        }
+        try {
+            // let searchers pick up committed changes
+            SearcherManager.refresh(dir);
+        } catch (Exception e) {
+            LOGGER.error("failed to refresh searcher", e);
+        }
+        timer.stop("committed " + pending + " changes to " + dir);
+    }
+
+    /**
+     * This method merges all segments into one and commits, which is
+     * expensive and should only be called on demand, e.g. after rebuilding
+     * the index.
+     */
+    public void optimize() {
+        optimize(1);
+    }
+
+    /**
+     * This method merges segments until at most maxNumSegments are left and
+     * commits.
+     *
+     * @param maxNumSegments
+     *            - max number of segments left
+     */
+    public void optimize(final int maxNumSegments) {
+        final Timer timer = Metric.newTimer("IndexWriterManager.optimize");
+        try {
+            getWriter().optimize(maxNumSegments);
+        } catch (IOException e) {
+            throw new SearchException("failed to optimize " + dir, e);
+        }
+        commit();
+        timer.stop("optimized " + dir + " to " + maxNumSegments
+                + " segments");
+    }
+
+    /**
+     * @return number of segments in the last commit
+     */
+    public int getSegmentCount() {
+        return getSegmentCount(dir);
+    }
+
+    /**
+     * @return scheduler that merges segments in background and keeps
+     *         statistics of merges
+     */
+    public MergeStatsScheduler getMergeScheduler() {
+        return (MergeStatsScheduler) getWriter().getMergeScheduler();
+    }
+
+    /**
+     * This method commits pending changes and copies files of the commit to
+     * the target directory while the index is being written. The commit is
+     * pinned by a snapshot so that its files are not deleted by the writer
+     * while they are copied. Segment files never change once written, so
+     * files that already exist in the target directory from a previous backup
+     * are skipped and files that are no longer part of the index are removed
+     * from it. The segments file is copied last so that the target directory
+     * only refers to complete segments.
+     * 
+     * @param target
+     *            - backup directory
+     * @return description of the backup
+     */
+    public Backup backup(final File target) {
+        final Timer timer = Metric.newTimer("IndexWriterManager.backup");
+        synchronized (backupLock) {
+            commit();
+            // snapshots are returned as deprecated IndexCommitPoint
+            final IndexCommit commit = (IndexCommit) snapshotPolicy.snapshot();
+            try {
+                final Backup backup = copyCommit(dir, commit, target);
+                timer.stop("backed up " + dir + " to " + target + ", "
+                        + backup);
+                return backup;
+            } catch (IOException e) {
+                throw new SearchException("failed to backup " + dir + " to "
+                        + target, e);
+            } finally {
+                snapshotPolicy.release();
+            }
+        }
+    }
+
+    // copies files of the commit that are not in the target directory yet
+    private static Backup copyCommit(final Directory dir,
+            final IndexCommit commit, final File target) throws IOException {
+        if (!target.mkdirs() && !target.isDirectory()) {
+            throw new SearchException("failed to create " + target);
+        }
+        final Collection<?> fileNames = commit.getFileNames();
+        final Set<String> names = new HashSet<String>();
+        int numCopied = 0;
+        long bytesCopied = 0;
+        for (Object fileName : fileNames) {
+            final String name = (String) fileName;
+            names.add(name);
+            if (!name.equals(commit.getSegmentsFileName())) {
+                final long copied = copy(dir, name, target);
+                numCopied += copied >= 0 ? 1 : 0;
+                bytesCopied += Math.max(0, copied);
+            }
+        }
+        final long copied = copy(dir, commit.getSegmentsFileName(), target);
+        numCopied += copied >= 0 ? 1 : 0;
+        bytesCopied += Math.max(0, copied);
+        final File[] files = target.listFiles();
+        for (File file : files) {
+            if (!names.contains(file.getName()) && !file.delete()) {
+                LOGGER.warn("failed to delete " + file);
+            }
+        }
+        return new Backup(commit.getGeneration(), names.size(), numCopied,
+                bytesCopied);
+    }
+
+    /**
+     * @return number of bytes copied or -1 if the file already exists in the
+     *         target directory
+     */
+    private static long copy(final Directory dir, final String name,
+            final File target) throws IOException {
+        final long length = dir.fileLength(name);
+        final File file = new File(target, name);
+        if (file.exists() && file.length() == length) {
+            return -1;
+        }
+        final File tmp = new File(target, name + ".tmp");
+        final IndexInput in = dir.openInput(name);
+        try {
+            final OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(tmp));
+            try {
+                final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                long remaining = length;
+                while (remaining > 0) {
+                    final int len = (int) Math.min(buffer.length, remaining);
+                    in.readBytes(buffer, 0, len);
+                    out.write(buffer, 0, len);
+                    remaining -= len;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if ((file.exists() && !file.delete()) || !tmp.renameTo(file)) {
+            throw new IOException("failed to rename " + tmp + " to " + file);
+        }
+        return length;
+    }
+
+    /**
+     * This method commits pending changes and closes the writer
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            commit();
+        } catch (Exception e) {
+            LOGGER.error("failed to commit " + dir, e);
+        }
+        closed = true;
+        try {
+            writer.close();
+        } catch (Exception e) {
+            LOGGER.error("failed to close writer for " + dir, e);
+        }
+    }
+
+    // returns millis until the next time of day at given hour
+    private static long millisUntil(final int hour) {
+        final Calendar calendar = Calendar.getInstance();
+        final long now = calendar.getTimeInMillis();
+        calendar.set(Calendar.HOUR_OF_DAY, hour);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (calendar.getTimeInMillis() <= now) {
+            calendar.add(Calendar.DATE, 1);
+        }
+        return calendar.getTimeInMillis() - now;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexWriterManager " + dir;
+    }
+}
@@ -6,6 +6,7 @@ import java.io.StringReader;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -19,8 +20,10 @@ import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.DateTools;
 import org.apache.lucene.index.CheckIndex;
+import org.apache.lucene.index.IndexDeletionPolicy;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
 import org.apache.lucene.index.LogByteSizeMergePolicy;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.IndexWriter.MaxFieldLength;
@@ -35,6 +38,7 @@ import org.apache.lucene.util.Version;
 import com.plexobject.docusearch.Configuration;
 import com.plexobject.docusearch.cache.CacheLoader;
 import com.plexobject.docusearch.cache.CachedMap;
+import com.plexobject.docusearch.converter.Constants;
 import com.plexobject.docusearch.domain.Document;
 import com.plexobject.docusearch.index.lucene.ThreadedIndexWriter;
 import com.plexobject.docusearch.lucene.analyzer.SynonymAnalyzer;
@@ -64,6 +68,9 @@ public final class LuceneUtils {
     // .getProperty("lucene.dir", DEFAULT_INDEX_DIR.getAbsolutePath()));
     public static final File INDEX_DIR = new File(Configuration.getInstance()
             .getProperty("lucene.dir"));
+    public static final File BACKUP_DIR = new File(Configuration
+            .getInstance().getProperty("lucene.backup.dir",
+                    INDEX_DIR.getAbsolutePath() + "-backup"));
     public static final int RAM_BUF = Integer.getInteger("lucene.ram", 16);
 
     public static final int BATCH_SIZE = Integer
@@ -71,10 +78,21 @@ public final class LuceneUtils {
 
     public static final int COMMIT_MIN = Integer.getInteger(
             "lucene.commit.min", 5000);
+    private static final int MERGE_FACTOR = Configuration.getInstance()
+            .getInteger("lucene.merge.factor", 10);
+    private static final double MIN_MERGE_MB = Configuration.getInstance()
+            .getDouble("lucene.merge.min.mb", 2);
+    private static final double MAX_MERGE_MB = Configuration.getInstance()
+            .getDouble("lucene.merge.max.mb", 512);
+    private static final int MERGE_THREADS = Configuration.getInstance()
+            .getInteger("lucene.merge.threads", 2);
     private static final long INDEFINITE = -1;
+    private static final char UID_SEPARATOR = '\u001f';
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
 
     private static final Map<File, Directory> cachedFSDirs = new CachedMap<File, Directory>(
-            INDEFINITE, 24, new CacheLoader<File, Directory>() {
+            "fsDirectories", INDEFINITE, 24,
+            new CacheLoader<File, Directory>() {
 
                 @Override
                 public Directory get(File dir) {
@@ -151,8 +169,36 @@ public final class LuceneUtils {
         return q;
     }
 
+    /**
+     * @return term that uniquely identifies an indexed document by database,
+     *         id and optional secondary id value
+     */
+    public static Term uidTerm(final String database, final String id,
+            final String secondaryValue) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(database).append(UID_SEPARATOR).append(id);
+        if (secondaryValue != null) {
+            sb.append(UID_SEPARATOR).append(secondaryValue);
+        }
+        return new Term(Constants.UID, sb.toString());
+    }
+
+    /**
+     * @return number of days since epoch in GMT, which is indexed as numeric
+     *         field so that documents can be purged by age with a range query
+     */
+    public static int indexDay(final Date date) {
+        return (int) (date.getTime() / DAY_MILLIS);
+    }
+
     public static IndexWriter newWriter(final Directory dir,
             final String analyzer) throws IOException {
+        return newWriter(dir, analyzer, new KeepOnlyLastCommitDeletionPolicy());
+    }
+
+    public static IndexWriter newWriter(final Directory dir,
+            final String analyzer, final IndexDeletionPolicy deletionPolicy)
+            throws IOException {
         if (IndexWriter.isLocked(dir)) {
             LOGGER.warn("***Unlocking " + dir + " directory for indexing");
             IndexWriter.unlock(dir);
@@ -160,7 +206,7 @@ public final class LuceneUtils {
         final IndexWriter writer = new IndexWriter(
                 dir,
                 analyzer == null ? getDefaultAnalyzer() : getAnalyzer(analyzer),
-                MaxFieldLength.UNLIMITED);
+                deletionPolicy, MaxFieldLength.UNLIMITED);
 
         return configWriter(writer);
     }
@@ -178,14 +224,24 @@ public final class LuceneUtils {
     }
 
     private static IndexWriter configWriter(final IndexWriter writer) {
-        // Customize merge policy.
+        // Customize merge policy, segments are merged in tiers of
+        // MERGE_FACTOR segments of similar size as they are flushed so that
+        // the number of segments stays logarithmic in the size of the index.
+        // Segments larger than MAX_MERGE_MB are only merged by optimize.
         final LogByteSizeMergePolicy mp = new LogByteSizeMergePolicy(writer);
-        mp.setMergeFactor(10000);
-        mp.setMaxMergeMB(1000);
+        mp.setMergeFactor(MERGE_FACTOR);
+        mp.setMinMergeMB(MIN_MERGE_MB);
+        mp.setMaxMergeMB(MAX_MERGE_MB);
         mp.setUseCompoundFile(false);
         writer.setMergePolicy(mp);
+        // merges run in background threads with lower priority than
+        // indexing and searching
+        final MergeStatsScheduler ms = new MergeStatsScheduler();
+        ms.setMaxThreadCount(MERGE_THREADS);
+        ms.setMergeThreadPriority(Math.max(Thread.MIN_PRIORITY,
+                Thread.NORM_PRIORITY - 1));
+        writer.setMergeScheduler(ms);
         writer.setMaxBufferedDocs(10000);
-        writer.setMaxMergeDocs(10000);
         writer.setMaxFieldLength(10000);
         writer.setRAMBufferSizeMB(RAM_BUF);
 
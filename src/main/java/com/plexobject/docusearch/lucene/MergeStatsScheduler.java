@@ -0,0 +1,101 @@
+package com.plexobject.docusearch.lucene;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.MergePolicy;
+
+/**
+ * This class merges segments in background threads like its parent and keeps
+ * statistics of merges so that they can be monitored per index.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
+public class MergeStatsScheduler extends ConcurrentMergeScheduler {
+    private static final Logger LOGGER = Logger
+            .getLogger(MergeStatsScheduler.class);
+    private final AtomicInteger numMerges = new AtomicInteger();
+    private final AtomicInteger numFailed = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong totalMergeMillis = new AtomicLong();
+    private final AtomicLong maxMergeMillis = new AtomicLong();
+    private volatile String lastMerge;
+
+    @Override
+    protected void doMerge(final MergePolicy.OneMerge merge)
+            throws IOException {
+        final long started = System.currentTimeMillis();
+        running.incrementAndGet();
+        boolean succeeded = false;
+        try {
+            super.doMerge(merge);
+            succeeded = true;
+        } finally {
+            running.decrementAndGet();
+            final long elapsed = System.currentTimeMillis() - started;
+            if (succeeded) {
+                numMerges.incrementAndGet();
+                totalMergeMillis.addAndGet(elapsed);
+                long max = maxMergeMillis.get();
+                while (elapsed > max
+                        && !maxMergeMillis.compareAndSet(max, elapsed)) {
+                    max = maxMergeMillis.get();
+                }
+            } else {
+                numFailed.incrementAndGet();
+            }
+            lastMerge = merge.segString(dir) + " in " + elapsed + " millis";
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("merged " + lastMerge + ", succeeded "
+                        + succeeded);
+            }
+        }
+    }
+
+    /**
+     * @return number of completed merges
+     */
+    public int getNumMerges() {
+        return numMerges.get();
+    }
+
+    /**
+     * @return number of merges that failed or were aborted
+     */
+    public int getNumFailed() {
+        return numFailed.get();
+    }
+
+    /**
+     * @return number of merges that are running
+     */
+    public int getRunning() {
+        return running.get();
+    }
+
+    public long getTotalMergeMillis() {
+        return totalMergeMillis.get();
+    }
+
+    public long getMaxMergeMillis() {
+        return maxMergeMillis.get();
+    }
+
+    /**
+     * @return segments and duration of the last merge
+     */
+    public String getLastMerge() {
+        return lastMerge;
+    }
+
+    @Override
+    public String toString() {
+        return "merges " + numMerges + ", failed " + numFailed + ", running "
+                + running + ", total " + totalMergeMillis + " millis, max "
+                + maxMergeMillis + " millis";
+    }
+}
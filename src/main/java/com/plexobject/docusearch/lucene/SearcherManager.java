@@ -0,0 +1,241 @@
+package com.plexobject.docusearch.lucene;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+
+import com.plexobject.docusearch.Configuration;
+import com.plexobject.docusearch.SearchException;
+import com.plexobject.docusearch.cache.CachedMap;
+import com.plexobject.docusearch.lucene.analyzer.BoostingSimilarity;
+import com.plexobject.docusearch.metrics.Metric;
+import com.plexobject.docusearch.metrics.Timer;
+
+/**
+ * This class keeps a single reference counted searcher per index directory
+ * and shares it among all queries. When the index is committed, the reader is
+ * reopened incrementally so that only new segments are loaded and the new
+ * searcher is swapped in without blocking in-flight searches. Searchers must
+ * be released after use.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
+public class SearcherManager {
+    private static final Logger LOGGER = Logger
+            .getLogger(SearcherManager.class);
+    private static final Map<String, SearcherManager> MANAGERS = new HashMap<String, SearcherManager>();
+    private static final long INDEFINITE = -1;
+    private static final int MAX_CACHED_FILTERS = Configuration.getInstance()
+            .getInteger("lucene.max.cached.filters", 1024);
+
+    private final Directory dir;
+    private final Object reopenLock = new Object();
+    private final CachedMap<String, Filter> cachedFilters = new CachedMap<String, Filter>(
+            "filters", INDEFINITE, MAX_CACHED_FILTERS);
+    private IndexSearcher currentSearcher;
+
+    SearcherManager(final Directory dir) {
+        if (dir == null) {
+            throw new NullPointerException("dir is null");
+        }
+        this.dir = dir;
+        try {
+            currentSearcher = newSearcher(IndexReader.open(dir, true));
+        } catch (CorruptIndexException e) {
+            LOGGER.fatal("Index file is corrupted " + dir, e);
+            throw new SearchException(e);
+        } catch (IOException e) {
+            throw new SearchException(e);
+        }
+    }
+
+    /**
+     * @param dir
+     *            - index directory
+     * @return shared searcher manager for the directory
+     */
+    public static SearcherManager getInstance(final Directory dir) {
+        if (dir == null) {
+            throw new NullPointerException("dir is null");
+        }
+        synchronized (MANAGERS) {
+            SearcherManager manager = MANAGERS.get(dir.getLockID());
+            if (manager == null) {
+                manager = new SearcherManager(dir);
+                MANAGERS.put(dir.getLockID(), manager);
+            }
+            return manager;
+        }
+    }
+
+    /**
+     * This method is called by the indexer after changes are committed so
+     * that searchers opened on the directory see the new documents. It does
+     * nothing if no searcher was opened for the directory.
+     *
+     * @param dir
+     *            - index directory
+     */
+    public static void refresh(final Directory dir) {
+        SearcherManager manager = null;
+        synchronized (MANAGERS) {
+            manager = MANAGERS.get(dir.getLockID());
+        }
+        if (manager != null) {
+            manager.maybeReopen();
+        }
+    }
+
+    /**
+     * This method closes and removes searcher manager of given directory
+     *
+     * @param dir
+     *            - index directory
+     */
+    public static void close(final Directory dir) {
+        SearcherManager manager = null;
+        synchronized (MANAGERS) {
+            manager = MANAGERS.remove(dir.getLockID());
+        }
+        if (manager != null) {
+            manager.close();
+        }
+    }
+
+    /**
+     * @return current searcher after incrementing its reference count, which
+     *         must be given back using release
+     */
+    public synchronized IndexSearcher acquire() {
+        if (currentSearcher == null) {
+            throw new IllegalStateException("searcher manager for " + dir
+                    + " is closed");
+        }
+        currentSearcher.getIndexReader().incRef();
+        return currentSearcher;
+    }
+
+    /**
+     * This method adds another reference to a searcher that is already
+     * acquired so that it can be handed to another thread, which must give it
+     * back using release.
+     *
+     * @param searcher
+     *            - searcher that was returned by acquire
+     * @return the same searcher
+     */
+    public IndexSearcher retain(final IndexSearcher searcher) {
+        searcher.getIndexReader().incRef();
+        return searcher;
+    }
+
+    /**
+     * @param searcher
+     *            - searcher that was returned by acquire
+     */
+    public void release(final IndexSearcher searcher) {
+        if (searcher == null) {
+            return;
+        }
+        try {
+            searcher.getIndexReader().decRef();
+        } catch (IOException e) {
+            LOGGER.error("Failed to release searcher for " + dir, e);
+        }
+    }
+
+    /**
+     * This method reopens the reader if the index was changed and swaps the
+     * new searcher in. Unchanged segments are shared with the old reader.
+     *
+     * @return true if a new searcher was swapped in
+     */
+    public boolean maybeReopen() {
+        synchronized (reopenLock) {
+            final IndexSearcher searcher = acquire();
+            final Timer timer = Metric.newTimer("SearcherManager.maybeReopen");
+            try {
+                final IndexReader oldReader = searcher.getIndexReader();
+                final IndexReader newReader = oldReader.reopen();
+                if (newReader == oldReader) {
+                    return false;
+                }
+                swapSearcher(newSearcher(newReader));
+                if (LOGGER.isInfoEnabled()) {
+                    LOGGER.info("Reopened " + dir + ", version "
+                            + newReader.getVersion() + ", documents "
+                            + newReader.numDocs());
+                }
+                return true;
+            } catch (IOException e) {
+                throw new SearchException("failed to reopen " + dir, e);
+            } finally {
+                release(searcher);
+                timer.stop();
+            }
+        }
+    }
+
+    /**
+     * This method returns filter that is cached by segment for the life of
+     * this manager so that it can be reused by subsequent searches and
+     * reopened searchers.
+     *
+     * @param key
+     *            - unique key of the filter, e.g. owner:name
+     * @param filter
+     *            - filter to cache if it's not already cached
+     * @return cached filter
+     */
+    public Filter getCachedFilter(final String key, final Filter filter) {
+        synchronized (cachedFilters) {
+            Filter cached = cachedFilters.get(key);
+            if (cached == null) {
+                cached = new SegmentCachingFilter(filter);
+                cachedFilters.put(key, cached);
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * @return version of the current reader, which changes on every commit
+     */
+    public synchronized long getVersion() {
+        return currentSearcher != null ? currentSearcher.getIndexReader()
+                .getVersion() : -1;
+    }
+
+    /**
+     * This method releases current searcher, which is closed when all
+     * in-flight searches release it.
+     */
+    public void close() {
+        swapSearcher(null);
+        cachedFilters.close();
+    }
+
+    @Override
+    public String toString() {
+        return "SearcherManager " + dir;
+    }
+
+    private synchronized void swapSearcher(final IndexSearcher newSearcher) {
+        release(currentSearcher);
+        currentSearcher = newSearcher;
+    }
+
+    private static IndexSearcher newSearcher(final IndexReader reader) {
+        final IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(new BoostingSimilarity());
+        return searcher;
+    }
+}
@@ -0,0 +1,95 @@
+package com.plexobject.docusearch.lucene;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.OpenBitSetDISI;
+import org.apache.lucene.util.SortedVIntList;
+
+/**
+ * This filter caches matching documents of the underlying filter for each
+ * segment reader. As searches are done segment by segment, the cached sets of
+ * unchanged segments are reused after the searcher is reopened and only new
+ * segments are computed. Sparse sets are stored as sorted vint lists and
+ * dense sets as bitsets.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
+public class SegmentCachingFilter extends Filter {
+    private static final long serialVersionUID = 1L;
+    private static final int SPARSE_RATIO = 16;
+
+    private final Filter filter;
+    private transient Map<IndexReader, DocIdSet> cache;
+
+    public SegmentCachingFilter(final Filter filter) {
+        if (filter == null) {
+            throw new NullPointerException("filter is null");
+        }
+        this.filter = filter;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(final IndexReader reader) throws IOException {
+        synchronized (this) {
+            if (cache == null) {
+                cache = new WeakHashMap<IndexReader, DocIdSet>();
+            }
+            final DocIdSet cached = cache.get(reader);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final DocIdSet docIdSet = toCompactSet(filter.getDocIdSet(reader),
+                reader.maxDoc());
+        synchronized (this) {
+            cache.put(reader, docIdSet);
+        }
+        return docIdSet;
+    }
+
+    /**
+     * @return number of segments that are cached
+     */
+    public synchronized int size() {
+        return cache != null ? cache.size() : 0;
+    }
+
+    private static DocIdSet toCompactSet(final DocIdSet docIdSet,
+            final int maxDoc) throws IOException {
+        final DocIdSetIterator it = docIdSet != null ? docIdSet.iterator()
+                : null;
+        if (it == null) {
+            return DocIdSet.EMPTY_DOCIDSET;
+        }
+        final OpenBitSetDISI bits = new OpenBitSetDISI(it, maxDoc);
+        if (bits.cardinality() * SPARSE_RATIO < maxDoc) {
+            return new SortedVIntList(bits.iterator());
+        }
+        return bits;
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        if (!(object instanceof SegmentCachingFilter)) {
+            return false;
+        }
+        return filter.equals(((SegmentCachingFilter) object).filter);
+    }
+
+    @Override
+    public int hashCode() {
+        return filter.hashCode() ^ 0x1117BF25;
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentCachingFilter(" + filter + ")";
+    }
+}
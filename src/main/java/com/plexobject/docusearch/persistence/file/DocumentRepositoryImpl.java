@@ -20,6 +20,7 @@ import org.codehaus.jettison.json.JSONObject; //import org.springframework.stere
 
 import com.plexobject.docusearch.Configuration;
 import com.plexobject.docusearch.cache.CachedMap;
+import com.plexobject.docusearch.cache.ObjectSizeWeigher;
 import com.plexobject.docusearch.converter.ConversionException;
 import com.plexobject.docusearch.converter.Converters;
 import com.plexobject.docusearch.domain.Document;
@@ -41,8 +42,13 @@ public class DocumentRepositoryImpl implements DocumentRepository {
     public static final String DB_DIR = Configuration.getInstance()
             .getProperty("docrepo.dir", "docdep");
 
+    private static final long MAX_CACHED_DOCS_BYTES = Configuration
+            .getInstance().getLong("cache.documents.max.bytes",
+                    64 * 1024 * 1024);
+
     final Map<String, Document> cachedDocs = new CachedMap<String, Document>(
-            INDEFINITE, 1024, null, null);
+            "documents", INDEFINITE, 1024, MAX_CACHED_DOCS_BYTES,
+            new ObjectSizeWeigher<String, Document>(), null, null);
 
     private final File dir;
 
@@ -125,6 +131,7 @@ public class DocumentRepositoryImpl implements DocumentRepository {
             File base = new File(dir, database);
             if (base.exists()) {
                 FileUtils.deleteDirectory(base);
+                evict(database);
                 return true;
             } else {
                 return false;
@@ -356,6 +363,7 @@ public class DocumentRepositoryImpl implements DocumentRepository {
             File base = new File(dir, database);
             if (base.exists()) {
                 File file = new File(base, id);
+                cachedDocs.remove(toKey(file));
                 return file.delete();
             }
             return false;
@@ -441,10 +449,20 @@ public class DocumentRepositoryImpl implements DocumentRepository {
 
     private synchronized void write(final File file, final Document doc)
             throws IOException {
-        // cachedDocs.put(toKey(file), doc);
         final String body = Converters.getInstance().getConverter(
                 Document.class, JSONObject.class).convert(doc).toString();
         FileUtils.writeStringToFile(file, body);
+        // next fetch reads the saved document back
+        cachedDocs.remove(toKey(file));
+    }
+
+    private void evict(final String database) {
+        final String prefix = database + ":";
+        for (String key : cachedDocs.keySet()) {
+            if (key.startsWith(prefix)) {
+                cachedDocs.remove(key);
+            }
+        }
     }
 
     private synchronized Document fetch(final File file) throws IOException,
@@ -7,6 +7,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.plexobject.docusearch.Configuration;
+import com.plexobject.docusearch.cache.CacheEvent;
+import com.plexobject.docusearch.cache.CacheFlusher;
 import com.plexobject.docusearch.cache.CacheLoader;
 import com.plexobject.docusearch.cache.CachedMap;
 import com.plexobject.docusearch.converter.Converters;
@@ -29,24 +31,27 @@ public class ConfigurationRepositoryImpl implements ConfigurationRepository,
     private static final long INDEFINITE = 0;
 
     private final String database;
-    private Map<String, QueryPolicy> cachedQueryPolicies = new CachedMap<String, QueryPolicy>(
-            INDEFINITE, 24, new CacheLoader<String, QueryPolicy>() {
+    private CachedMap<String, QueryPolicy> cachedQueryPolicies = new CachedMap<String, QueryPolicy>(
+            "queryPolicies", INDEFINITE, 24,
+            new CacheLoader<String, QueryPolicy>() {
                 @Override
                 public QueryPolicy get(String id) {
                     return fetchQueryPolicy(id);
 
                 }
             }, null);
-    private Map<String, IndexPolicy> cachedIndexPolicies = new CachedMap<String, IndexPolicy>(
-            INDEFINITE, 24, new CacheLoader<String, IndexPolicy>() {
+    private CachedMap<String, IndexPolicy> cachedIndexPolicies = new CachedMap<String, IndexPolicy>(
+            "indexPolicies", INDEFINITE, 24,
+            new CacheLoader<String, IndexPolicy>() {
                 @Override
                 public IndexPolicy get(String id) {
                     return fetchIndexPolicy(id);
 
                 }
             }, null);
-    private Map<String, LookupPolicy> cachedLookupPolicies = new CachedMap<String, LookupPolicy>(
-            INDEFINITE, 24, new CacheLoader<String, LookupPolicy>() {
+    private CachedMap<String, LookupPolicy> cachedLookupPolicies = new CachedMap<String, LookupPolicy>(
+            "lookupPolicies", INDEFINITE, 24,
+            new CacheLoader<String, LookupPolicy>() {
                 @Override
                 public LookupPolicy get(String id) {
                     return fetchLookupPolicy(id);
@@ -64,6 +69,11 @@ public class ConfigurationRepositoryImpl implements ConfigurationRepository,
 
     public ConfigurationRepositoryImpl(final String database) {
         this.database = database;
+        // policies saved by other repositories replace cached ones
+        cachedIndexPolicies.invalidateOn(CacheEvent.Type.INDEX_POLICY_CHANGED);
+        cachedQueryPolicies.invalidateOn(CacheEvent.Type.QUERY_POLICY_CHANGED);
+        cachedLookupPolicies
+                .invalidateOn(CacheEvent.Type.LOOKUP_POLICY_CHANGED);
     }
 
     @Override
@@ -138,6 +148,8 @@ public class ConfigurationRepositoryImpl implements ConfigurationRepository,
     public IndexPolicy saveIndexPolicy(String id, IndexPolicy policy)
             throws PersistenceException {
         synchronized (cachedIndexPolicies) {
+            CacheFlusher.getInstance().invalidate(
+                    new CacheEvent(CacheEvent.Type.INDEX_POLICY_CHANGED, id));
             cachedIndexPolicies.put(id, policy);
         }
         Map map = Converters.getInstance().getConverter(IndexPolicy.class,
@@ -162,6 +174,8 @@ public class ConfigurationRepositoryImpl implements ConfigurationRepository,
     public QueryPolicy saveQueryPolicy(String id, QueryPolicy policy)
             throws PersistenceException {
         synchronized (cachedQueryPolicies) {
+            CacheFlusher.getInstance().invalidate(
+                    new CacheEvent(CacheEvent.Type.QUERY_POLICY_CHANGED, id));
             cachedQueryPolicies.put(id, policy);
         }
         Map map = Converters.getInstance().getConverter(QueryPolicy.class,
@@ -188,6 +202,8 @@ public class ConfigurationRepositoryImpl implements ConfigurationRepository,
     public LookupPolicy saveLookupPolicy(String id, LookupPolicy policy)
             throws PersistenceException {
         synchronized (cachedLookupPolicies) {
+            CacheFlusher.getInstance().invalidate(
+                    new CacheEvent(CacheEvent.Type.LOOKUP_POLICY_CHANGED, id));
             cachedLookupPolicies.put(id, policy);
         }
 
@@ -155,6 +155,29 @@ public class CriteriaBuilder implements Builder<QueryCriteria> {
         return this;
     }
 
+    public CriteriaBuilder setTimeoutMillis(final long timeoutMillis) {
+        if (timeoutMillis > 0) {
+            options.put(QueryCriteria.TIMEOUT_MILLIS, String
+                    .valueOf(timeoutMillis));
+        }
+        return this;
+    }
+
+    public CriteriaBuilder setCursor(final String cursor) {
+        if (cursor != null && cursor.length() > 0) {
+            options.put(QueryCriteria.CURSOR, cursor);
+        }
+        return this;
+    }
+
+    public CriteriaBuilder setDetailedResults(final boolean detailedResults) {
+        if (detailedResults) {
+            options.put(QueryCriteria.DETAILED_RESULTS, String
+                    .valueOf(Boolean.TRUE));
+        }
+        return this;
+    }
+
     public CriteriaBuilder setAlways() {
         options.put(QueryCriteria.ALWAYS, String.valueOf(Boolean.TRUE));
         return this;
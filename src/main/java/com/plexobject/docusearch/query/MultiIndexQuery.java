@@ -0,0 +1,273 @@
+package com.plexobject.docusearch.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.log4j.Logger;
+
+import com.plexobject.docusearch.Configuration;
+import com.plexobject.docusearch.SearchException;
+import com.plexobject.docusearch.index.IndexPolicy;
+import com.plexobject.docusearch.metrics.Metric;
+import com.plexobject.docusearch.metrics.Timer;
+import com.plexobject.docusearch.util.DaemonThreadFactory;
+
+/**
+ * This class searches multiple indexes concurrently for the same criteria.
+ * Each index returns its top start+limit hits, which are merged by score, or
+ * by the values of the sort fields when the criteria is sorted, and sliced
+ * into a single page. Total hits are summed across indexes and
+ * suggestions are combined. Indexes that time out or fail are skipped and
+ * the results are marked as partial, unless all indexes fail.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
+public class MultiIndexQuery {
+    private static final Logger LOGGER = Logger
+            .getLogger(MultiIndexQuery.class);
+    private static final int MAX_THREADS = Configuration.getInstance()
+            .getInteger("lucene.multi.search.max.threads", 8);
+    private static final int MAX_PENDING_TASKS = Configuration.getInstance()
+            .getInteger("lucene.multi.search.max.pending.tasks", 128);
+    private static final long TIMEOUT_MILLIS = Configuration.getInstance()
+            .getLong("lucene.multi.search.timeout.millis", 30000);
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_PENDING_TASKS),
+            new DaemonThreadFactory("MultiIndexQuery"),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Comparator<SearchDoc> SCORE_COMPARATOR = new Comparator<SearchDoc>() {
+        @Override
+        public int compare(SearchDoc first, SearchDoc second) {
+            return Double.compare(second.getScore(), first.getScore());
+        }
+    };
+
+    /**
+     * This class merges results by the sort values that each index returned
+     * for the sortBy option of the criteria, in the same direction as the
+     * sort fields of the query policy.
+     */
+    static class SortValuesComparator implements Comparator<SearchDoc> {
+        private final boolean[] reverse;
+
+        SortValuesComparator(final List<QueryPolicy.Field> sortFields) {
+            this.reverse = new boolean[sortFields.size()];
+            for (int i = 0; i < reverse.length; i++) {
+                // same as the sort field that each index was sorted by
+                reverse[i] = sortFields.get(i).ascendingSort;
+            }
+        }
+
+        @Override
+        public int compare(SearchDoc first, SearchDoc second) {
+            final List<Object> firstValues = first.getSortValues();
+            final List<Object> secondValues = second.getSortValues();
+            if (firstValues == null || secondValues == null) {
+                return SCORE_COMPARATOR.compare(first, second);
+            }
+            for (int i = 0; i < reverse.length && i < firstValues.size()
+                    && i < secondValues.size(); i++) {
+                final int cmp = compareValues(firstValues.get(i), secondValues
+                        .get(i));
+                if (cmp != 0) {
+                    return reverse[i] ? -cmp : cmp;
+                }
+            }
+            return SCORE_COMPARATOR.compare(first, second);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static int compareValues(final Object first, final Object second) {
+            if (first == null) {
+                return second == null ? 0 : -1;
+            } else if (second == null) {
+                return 1;
+            }
+            return ((Comparable<Object>) first).compareTo(second);
+        }
+    }
+
+    /**
+     * This class defines an index that is searched along with its policies
+     */
+    public static class Target {
+        private final String index;
+        private final Query query;
+        private final IndexPolicy indexPolicy;
+        private final QueryPolicy queryPolicy;
+
+        public Target(final String index, final Query query,
+                final IndexPolicy indexPolicy, final QueryPolicy queryPolicy) {
+            if (query == null) {
+                throw new NullPointerException("query is null");
+            }
+            this.index = index;
+            this.query = query;
+            this.indexPolicy = indexPolicy;
+            this.queryPolicy = queryPolicy;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this).append("index", index).append(
+                    "query", query).toString();
+        }
+    }
+
+    private final List<Target> targets;
+    private final long timeoutMillis;
+
+    public MultiIndexQuery(final List<Target> targets) {
+        this(targets, TIMEOUT_MILLIS);
+    }
+
+    public MultiIndexQuery(final List<Target> targets, final long timeoutMillis) {
+        if (targets == null || targets.size() == 0) {
+            throw new IllegalArgumentException("targets not specified");
+        }
+        this.targets = new ArrayList<Target>(targets);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     *
+     * @param criteria
+     *            - search criteria to search
+     * @param includeSuggestions
+     *            - whether to include suggestions
+     * @param start
+     *            - start index for pagination
+     * @param limit
+     *            - max # of results
+     * @return merged results of all indexes
+     */
+    public SearchDocList search(final QueryCriteria criteria,
+            final boolean includeSuggestions, final int start, final int limit) {
+        if (criteria.hasCursor()) {
+            throw new IllegalArgumentException(
+                    "cursor paging is not supported across indexes");
+        }
+        final Timer timer = Metric.newTimer("MultiIndexQuery.search");
+        final List<Future<SearchDocList>> futures = new ArrayList<Future<SearchDocList>>();
+        try {
+            for (final Target target : targets) {
+                futures.add(executor.submit(new Callable<SearchDocList>() {
+                    @Override
+                    public SearchDocList call() throws Exception {
+                        return target.query.search(criteria,
+                                target.indexPolicy, target.queryPolicy,
+                                includeSuggestions, 0, start + limit);
+                    }
+                }));
+            }
+            final long deadline = System.currentTimeMillis() + timeoutMillis;
+            final List<SearchDoc> merged = new ArrayList<SearchDoc>();
+            final Collection<String> similarWords = new LinkedHashSet<String>();
+            int totalHits = 0;
+            boolean partial = false;
+            int searched = 0;
+            RuntimeException failure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                final SearchDocList results;
+                try {
+                    results = get(targets.get(i), futures.get(i), deadline);
+                } catch (RuntimeException e) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw e;
+                    }
+                    LOGGER.warn("skipping " + targets.get(i) + " due to " + e);
+                    failure = e;
+                    partial = true;
+                    continue;
+                }
+                totalHits += results.getTotalHits();
+                partial = partial || results.isPartial();
+                merged.addAll(results);
+                if (results.getSimilarWords() != null) {
+                    similarWords.addAll(results.getSimilarWords());
+                }
+                searched++;
+            }
+            if (searched == 0) {
+                throw failure;
+            }
+            Collections.sort(merged, getComparator(criteria));
+            final List<SearchDoc> page = start < merged.size() ? merged
+                    .subList(start, Math.min(merged.size(), start + limit))
+                    : new ArrayList<SearchDoc>();
+            return new SearchDocList(start, limit, totalHits,
+                    new ArrayList<SearchDoc>(page), similarWords, partial);
+        } finally {
+            for (Future<SearchDocList> future : futures) {
+                future.cancel(false);
+            }
+            timer.stop("Searched " + targets.size() + " indexes for "
+                    + criteria);
+        }
+    }
+
+    private Comparator<SearchDoc> getComparator(final QueryCriteria criteria) {
+        final QueryPolicy queryPolicy = targets.get(0).queryPolicy;
+        if (criteria.hasSortBy() && !criteria.isSpatialQuery()
+                && queryPolicy != null) {
+            return new SortValuesComparator(queryPolicy.getSortFields(criteria
+                    .getSortBy()));
+        }
+        return SCORE_COMPARATOR;
+    }
+
+    private static SearchDocList get(final Target target,
+            final Future<SearchDocList> future, final long deadline) {
+        try {
+            return future.get(Math.max(0, deadline
+                    - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SearchException("interrupted while searching " + target,
+                    e);
+        } catch (TimeoutException e) {
+            LOGGER.warn("timed out while searching " + target);
+            throw new SearchException("timed out while searching " + target, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SearchException("failed to search " + target, e
+                    .getCause());
+        }
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("targets", targets).toString();
+    }
+}
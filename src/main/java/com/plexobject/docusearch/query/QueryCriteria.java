@@ -31,6 +31,10 @@ public class QueryCriteria {
     public static final String ASCENDING_SORT = "ascendingSort";
 
     public static final String FUZZY_SEARCH_FOR_NO_RESULTS = "fuzzySearchForNoResults";
+    public static final String TIMEOUT_MILLIS = "timeoutMillis";
+    public static final String CURSOR = "cursor";
+    public static final String FIRST_CURSOR = "*";
+    public static final String DETAILED_RESULTS = "detailedResults";
 
     final Map<String, String> options = new TreeMap<String, String>();
 
@@ -182,6 +186,40 @@ public class QueryCriteria {
                 options.get(FUZZY_SEARCH_FOR_NO_RESULTS));
     }
 
+    /**
+     * @return max time in milliseconds to collect hits, after which the hits
+     *         collected so far are returned as partial results
+     */
+    public long getTimeoutMillis() {
+        final String value = options.get(TIMEOUT_MILLIS);
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    public boolean hasTimeout() {
+        return getTimeoutMillis() > 0;
+    }
+
+    /**
+     * @return cursor returned with the previous page or FIRST_CURSOR to start
+     *         cursor based paging, which returns hits in the order of the
+     *         search
+     */
+    public String getCursor() {
+        return options.get(CURSOR);
+    }
+
+    public boolean hasCursor() {
+        return has(CURSOR);
+    }
+
+    /**
+     * @return true if results are returned with all stored fields instead of
+     *         the fields of the query policy
+     */
+    public boolean isDetailedResults() {
+        return getBoolean(DETAILED_RESULTS);
+    }
+
     private double getDouble(final String key) {
         final String value = options.get(key);
         return value == null ? 0 : Double.valueOf(value).doubleValue();
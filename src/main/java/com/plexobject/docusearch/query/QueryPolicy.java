@@ -1,6 +1,8 @@
 package com.plexobject.docusearch.query;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -142,6 +144,22 @@ public class QueryPolicy {
 
     }
 
+    /**
+     * @param sortBy
+     *            - sortBy option of the query criteria
+     * @return fields whose names contain sortBy in the order of their sort
+     *         order, which are used to sort the results
+     */
+    public List<Field> getSortFields(final String sortBy) {
+        final List<Field> sortFields = new ArrayList<Field>();
+        for (Field field : getFields()) {
+            if (field.name.toLowerCase().contains(sortBy)) {
+                sortFields.add(field.sortOrder, field);
+            }
+        }
+        return sortFields;
+    }
+
     /**
      * @return the sortingMultiplier
      */
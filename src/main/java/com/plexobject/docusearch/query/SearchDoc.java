@@ -1,5 +1,6 @@
 package com.plexobject.docusearch.query;
 
+import java.util.List;
 import java.util.Map;
 
 import com.plexobject.docusearch.domain.Document;
@@ -12,6 +13,7 @@ import com.plexobject.docusearch.domain.Document;
 public class SearchDoc extends Document {
     public static final String SCORE = "score";
     public static final String DOC = "doc";
+    public static final String SORT = "sort";
 
     public SearchDoc(final Map<String, Object> properties) {
         super(properties);
@@ -31,6 +33,15 @@ public class SearchDoc extends Document {
         return getInteger(DOC, 0);
     }
 
+    /**
+     * @return - values of the sort fields when the results were sorted by
+     *         criteria or null
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object> getSortValues() {
+        return (List<Object>) get(SORT);
+    }
+
     /**
      * @see java.lang.Object#equals(Object)
      */
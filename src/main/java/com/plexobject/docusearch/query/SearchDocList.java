@@ -24,12 +24,29 @@ public class SearchDocList implements List<SearchDoc> {
     private final int pageSize;
     private final int totalHits;
     private final Collection<String> similarWords;
+    private final boolean partial;
+    private final String cursor;
     private final List<SearchDoc> docs = new ArrayList<SearchDoc>();
 
     public SearchDocList(final int start, final int pageSize,
             final int totalHits, final List<SearchDoc> c,
             final Collection<String> similarWords) {
+        this(start, pageSize, totalHits, c, similarWords, false);
+    }
+
+    public SearchDocList(final int start, final int pageSize,
+            final int totalHits, final List<SearchDoc> c,
+            final Collection<String> similarWords, final boolean partial) {
+        this(start, pageSize, totalHits, c, similarWords, partial, null);
+    }
+
+    public SearchDocList(final int start, final int pageSize,
+            final int totalHits, final List<SearchDoc> c,
+            final Collection<String> similarWords, final boolean partial,
+            final String cursor) {
         this.start = start;
+        this.partial = partial;
+        this.cursor = cursor;
         this.pageSize = pageSize;
         this.similarWords = similarWords;
         this.totalHits = totalHits;
@@ -180,6 +197,22 @@ public class SearchDocList implements List<SearchDoc> {
         return similarWords;
     }
 
+    /**
+     * @return true if the search was stopped by its deadline and the results
+     *         only include hits collected until then
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * @return cursor to fetch the next page when cursor based paging was
+     *         requested, or null if there are no more hits
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
     /**
      * @see java.lang.Object#equals(Object)
      */
@@ -207,7 +240,9 @@ public class SearchDocList implements List<SearchDoc> {
     @Override
     public String toString() {
         return new ToStringBuilder(this).append("similarWords",
-                this.similarWords).append("size", this.docs.size()).append(
+                this.similarWords).append("partial", this.partial).append(
+                "cursor", this.cursor).append(
+                "size", this.docs.size()).append(
                 "docs", this.docs).toString();
     }
 
@@ -0,0 +1,231 @@
+package com.plexobject.docusearch.query.lucene;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.search.IndexSearcher;
+
+import com.plexobject.docusearch.Configuration;
+import com.plexobject.docusearch.cache.CacheEvent;
+import com.plexobject.docusearch.cache.CacheInvalidator;
+import com.plexobject.docusearch.cache.CachedMap;
+import com.plexobject.docusearch.domain.Tuple;
+import com.plexobject.docusearch.index.IndexPolicy;
+import com.plexobject.docusearch.query.LookupPolicy;
+import com.plexobject.docusearch.query.Query;
+import com.plexobject.docusearch.query.QueryCriteria;
+import com.plexobject.docusearch.query.QueryPolicy;
+import com.plexobject.docusearch.query.RankedTerm;
+import com.plexobject.docusearch.query.SearchDoc;
+import com.plexobject.docusearch.query.SearchDocList;
+
+/**
+ * This class caches results of search, partialLookup and moreLikeThis in
+ * front of QueryImpl. The results are keyed by index name, criteria, policies
+ * and paging window along with version of the index reader that runs the
+ * query, and of the dictionary index for lookups, so that cached results are
+ * no longer returned once the index is changed. Cached results of
+ * an index are also removed when the indexer reports changes of the index.
+ * Callers get copies of cached results so that they can't change them.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
+public class CachingQuery implements Query {
+    private static final Logger LOGGER = Logger.getLogger(CachingQuery.class);
+    private static final long INDEFINITE = 0;
+    private static final int MAX_CACHED_RESULTS = Configuration.getInstance()
+            .getInteger("lucene.query.cache.size", 1024);
+    private static final int MAX_CACHED_DOCS = Configuration.getInstance()
+            .getInteger("lucene.query.cache.max.docs", 256);
+
+    private static final CachedMap<Tuple, Object> cachedResults = new CachedMap<Tuple, Object>(
+            "queryResults", INDEFINITE, MAX_CACHED_RESULTS);
+    static {
+        // results of other indexes are kept when an index is changed
+        cachedResults.invalidateOn(CacheEvent.Type.INDEX_CHANGED,
+                new CacheInvalidator<Tuple>() {
+                    @Override
+                    public boolean isInvalidated(CacheEvent event, Tuple key) {
+                        return event.getScope().equals(key.get(1));
+                    }
+                });
+    }
+    private final QueryImpl query;
+
+    public CachingQuery(final QueryImpl query) {
+        if (query == null) {
+            throw new NullPointerException("query is null");
+        }
+        this.query = query;
+    }
+
+    /**
+     * @return true if result cache is enabled
+     */
+    public static boolean isEnabled() {
+        return MAX_CACHED_RESULTS > 0;
+    }
+
+    /**
+     * @return number of requests that were served from the cache
+     */
+    public static long getHits() {
+        return cachedResults.getStats().getHits();
+    }
+
+    /**
+     * @return number of requests that were not found in the cache
+     */
+    public static long getMisses() {
+        return cachedResults.getStats().getMisses();
+    }
+
+    @Override
+    public SearchDocList search(final QueryCriteria criteria,
+            final IndexPolicy indexPolicy, final QueryPolicy queryPolicy,
+            final boolean includeSuggestions, final int start, final int limit) {
+        final IndexSearcher searcher = query.acquire();
+        try {
+            final Tuple key = new Tuple("search", query.getIndex(),
+                    getVersion(searcher), criteria, indexPolicy,
+                    toKey(queryPolicy), includeSuggestions, start, limit);
+            SearchDocList results = getCached(key);
+            if (results == null) {
+                results = query.search(searcher, criteria, indexPolicy,
+                        queryPolicy, includeSuggestions, start, limit);
+                if (!results.isPartial()) {
+                    putCached(key, results, results.size());
+                }
+            }
+            return copy(results);
+        } finally {
+            query.release(searcher);
+        }
+    }
+
+    @Override
+    public List<String> partialLookup(final QueryCriteria criteria,
+            final IndexPolicy indexPolicy, final LookupPolicy policy,
+            final int limit) {
+        final IndexSearcher searcher = query.acquire();
+        try {
+            final Tuple key = new Tuple("partialLookup", query.getIndex(),
+                    getVersion(searcher), query.getDictionaryVersion(policy),
+                    criteria, indexPolicy, toKey(policy), limit);
+            List<String> results = getCached(key);
+            if (results == null) {
+                results = query.partialLookup(searcher, criteria, indexPolicy,
+                        policy, limit);
+                putCached(key, results, results.size());
+            }
+            return new ArrayList<String>(results);
+        } finally {
+            query.release(searcher);
+        }
+    }
+
+    @Override
+    public SearchDocList moreLikeThis(final String externalId,
+            final int luceneId, final IndexPolicy indexPolicy,
+            final QueryPolicy queryPolicy, final int start, final int limit) {
+        final IndexSearcher searcher = query.acquire();
+        try {
+            final Tuple key = new Tuple("moreLikeThis", query.getIndex(),
+                    getVersion(searcher), externalId, luceneId, indexPolicy,
+                    toKey(queryPolicy), start, limit);
+            SearchDocList results = getCached(key);
+            if (results == null) {
+                results = query.moreLikeThis(searcher, externalId, luceneId,
+                        indexPolicy, queryPolicy, start, limit);
+                putCached(key, results, results.size());
+            }
+            return copy(results);
+        } finally {
+            query.release(searcher);
+        }
+    }
+
+    @Override
+    public Collection<String> explainSearch(final QueryCriteria criteria,
+            final IndexPolicy indexPolicy, final QueryPolicy queryPolicy,
+            final int start, final int limit) {
+        return query.explainSearch(criteria, indexPolicy, queryPolicy, start,
+                limit);
+    }
+
+    @Override
+    public Collection<RankedTerm> getTopRankingTerms(final QueryPolicy policy,
+            final int max) {
+        return query.getTopRankingTerms(policy, max);
+    }
+
+    @Override
+    public void close() {
+        query.close();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingQuery " + query + ", hits " + getHits()
+                + ", misses " + getMisses();
+    }
+
+    private static long getVersion(final IndexSearcher searcher) {
+        return searcher.getIndexReader().getVersion();
+    }
+
+    /**
+     * @return key of the policy with all of its settings because equals of
+     *         the policy only compares the names of the fields
+     */
+    static Object toKey(final QueryPolicy policy) {
+        if (policy == null) {
+            return null;
+        }
+        final List<Object> key = new ArrayList<Object>();
+        for (QueryPolicy.Field field : policy.getFields()) {
+            key.add(new Tuple(field.name, field.sortOrder,
+                    field.ascendingSort, field.boost, field.fieldType));
+        }
+        key.add(policy.getAnalyzer());
+        key.add(policy.getSortingMultiplier());
+        if (policy instanceof LookupPolicy) {
+            final LookupPolicy lookupPolicy = (LookupPolicy) policy;
+            key.add(lookupPolicy.getFieldToReturn());
+            key.add(lookupPolicy.getDictionaryIndex());
+            key.add(lookupPolicy.getDictionaryField());
+        }
+        return key;
+    }
+
+    /**
+     * @return copy of the results, which can be changed without changing the
+     *         cached results
+     */
+    private static SearchDocList copy(final SearchDocList results) {
+        return new SearchDocList(results.getStart(), results.getPageSize(),
+                results.getTotalHits(), new ArrayList<SearchDoc>(results),
+                results.getSimilarWords() != null ? new ArrayList<String>(
+                        results.getSimilarWords()) : null, results
+                        .isPartial(), results.getCursor());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T getCached(final Tuple key) {
+        final T results = (T) cachedResults.get(key);
+        if (results != null && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Found cached results for " + key);
+        }
+        return results;
+    }
+
+    private static void putCached(final Tuple key, final Object results,
+            final int numDocs) {
+        if (numDocs <= MAX_CACHED_DOCS) {
+            cachedResults.put(key, results);
+        }
+    }
+}
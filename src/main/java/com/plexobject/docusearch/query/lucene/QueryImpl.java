@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -17,12 +18,23 @@ import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.FieldSelectorResult;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.SetBasedFieldSelector;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.TermEnum;
@@ -42,10 +54,11 @@ import com.plexobject.docusearch.Configuration;
 import com.plexobject.docusearch.SearchException;
 import com.plexobject.docusearch.cache.CachedMap;
 import com.plexobject.docusearch.converter.Constants;
+import com.plexobject.docusearch.domain.Document;
 import com.plexobject.docusearch.domain.Tuple;
 import com.plexobject.docusearch.index.IndexPolicy;
 import com.plexobject.docusearch.lucene.LuceneUtils;
-import com.plexobject.docusearch.lucene.analyzer.BoostingSimilarity;
+import com.plexobject.docusearch.lucene.SearcherManager;
 import com.plexobject.docusearch.metrics.Metric;
 import com.plexobject.docusearch.metrics.Timer;
 import com.plexobject.docusearch.query.CriteriaBuilder;
@@ -57,6 +70,8 @@ import com.plexobject.docusearch.query.RankedTerm;
 import com.plexobject.docusearch.query.SearchDoc;
 import com.plexobject.docusearch.query.SearchDocBuilder;
 import com.plexobject.docusearch.query.SearchDocList;
+import com.plexobject.docusearch.util.DaemonThreadFactory;
+import com.plexobject.docusearch.util.TimeUtils;
 
 /**
  * @author Shahzad Bhatti
@@ -70,17 +85,63 @@ public class QueryImpl implements Query {
     private static final int DEFAULT_LIMIT = Configuration.getInstance()
             .getInteger("lucene.default.paging.size", 20);
     private static final Pattern FUZZY_PATTERN = Pattern.compile("\\z"); // (\\s+|\\z)
+    private static final long SEARCH_TIMEOUT_MILLIS = Configuration
+            .getInstance().getLong("lucene.search.timeout.millis", 0);
+    private static final Collection<String> RESULT_FIELDS_TO_LOAD = Arrays
+            .asList(Document.DATABASE, Document.ID, Document.SECONDARY_ID,
+                    Constants.OWNER, "indexDate");
+
+    // detailed results return the full document, so only the stored
+    // cartesian tiers are skipped
+    private static final FieldSelector STORED_FIELDS_SELECTOR = new FieldSelector() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public FieldSelectorResult accept(final String fieldName) {
+            return fieldName.startsWith(Constants.TIER_PREFIX) ? FieldSelectorResult.NO_LOAD
+                    : FieldSelectorResult.LOAD;
+        }
+    };
 
     enum QueryType {
         DEFAULT, OR, FUZZY, PREFIX, REGEX, WILDCARD, NUMBER_RANGE, TERM_RANGE, HIT
     }
 
+    /**
+     * SERIAL runs fuzzy search after the exact search returns nothing,
+     * SPECULATIVE runs both at the same time and waits for the fuzzy search
+     * within the fallback budget only if the exact search returns nothing.
+     * Speculative fuzzy search stops collecting hits at the end of the budget
+     * and is repeated serially if it doesn't finish or fails.
+     */
+    enum FuzzyFallbackMode {
+        SERIAL, SPECULATIVE
+    }
+
+    private static final FuzzyFallbackMode FUZZY_FALLBACK_MODE = FuzzyFallbackMode
+            .valueOf(Configuration.getInstance().getProperty(
+                    "lucene.fuzzy.fallback.mode", "SERIAL").toUpperCase());
+    private static final long FUZZY_FALLBACK_BUDGET_MILLIS = Configuration
+            .getInstance().getLong("lucene.fuzzy.fallback.budget.millis", 500);
+    private static final int FUZZY_FALLBACK_MAX_THREADS = Configuration
+            .getInstance().getInteger("lucene.fuzzy.fallback.max.threads", 4);
+    private static final ThreadPoolExecutor fuzzyFallbackExecutor = new ThreadPoolExecutor(
+            FUZZY_FALLBACK_MAX_THREADS, FUZZY_FALLBACK_MAX_THREADS, 60,
+            TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Configuration
+                    .getInstance().getInteger(
+                            "lucene.fuzzy.fallback.max.pending.tasks", 64)),
+            new DaemonThreadFactory("FuzzyFallback"));
+    static {
+        fuzzyFallbackExecutor.allowCoreThreadTimeOut(true);
+    }
+
     private final Directory dir;
-    private IndexReader reader;
-    private IndexSearcher searcher;
+    private final SearcherManager searcherManager;
     private final String index;
 
-    private Map<LookupPolicy, QueryImpl> lookupQueries = new CachedMap<LookupPolicy, QueryImpl>();
+    // shared by all queries as they only depend on the dictionary index
+    private static final Map<LookupPolicy, QueryImpl> lookupQueries = new CachedMap<LookupPolicy, QueryImpl>(
+            "lookupQueries");
 
     public QueryImpl(final String indexName) {
         this(new File(LuceneUtils.INDEX_DIR, indexName));
@@ -97,39 +158,49 @@ public class QueryImpl implements Query {
         if (index == null) {
             throw new NullPointerException("index is null");
         }
-        try {
-            this.dir = dir;
-            this.index = index;
-            reader = IndexReader.open(dir, true); // reopen()
-            searcher = new IndexSearcher(reader);
-            searcher.setSimilarity(new BoostingSimilarity());
-        } catch (CorruptIndexException e) {
-            LOGGER.fatal("Index file is corrupted " + dir, e);
-            throw new SearchException(e);
-        } catch (IOException e) {
-            throw new SearchException(e);
-        }
+        this.dir = dir;
+        this.index = index;
+        this.searcherManager = SearcherManager.getInstance(dir);
     }
 
     @Override
     public SearchDocList search(final QueryCriteria criteria,
             final IndexPolicy indexPolicy, final QueryPolicy queryPolicy,
             final boolean includeSuggestions, int start, int limit) {
+        final IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return search(searcher, criteria, indexPolicy, queryPolicy,
+                    includeSuggestions, start, limit);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * This method searches using a searcher that was acquired by the caller.
+     */
+    SearchDocList search(final IndexSearcher searcher,
+            final QueryCriteria criteria, final IndexPolicy indexPolicy,
+            final QueryPolicy queryPolicy, final boolean includeSuggestions,
+            int start, int limit) {
         final boolean includeExplanation = false;
 
         Filter filter = null;
 
-        Tuple tuple = doSearch(criteria, indexPolicy, queryPolicy, filter,
-                includeSuggestions, includeExplanation, QueryType.DEFAULT,
-                start, limit, true);
-        final Integer total = tuple.first();
-        final double[][] docsAndScores = tuple.second();
-        final Collection<String> similarWords = tuple.third();
-        final DistanceQueryBuilder distanceQueryBuilder = tuple.get(4);
         try {
-            final SearchDocList results = convert(start, limit, total,
-                    docsAndScores, similarWords, indexPolicy,
-                    distanceQueryBuilder);
+            Tuple tuple = doSearch(searcher, criteria, indexPolicy,
+                    queryPolicy, filter, includeSuggestions,
+                    includeExplanation, QueryType.DEFAULT, start, limit, true,
+                    toDeadline(criteria));
+            final TopHits hits = tuple.first();
+            final Collection<String> similarWords = tuple.second();
+            final DistanceQueryBuilder distanceQueryBuilder = tuple.get(3);
+            final FieldSelector fieldSelector = criteria.isDetailedResults() ? STORED_FIELDS_SELECTOR
+                    : toFieldSelector(queryPolicy, indexPolicy);
+            final SearchDocList results = convert(searcher.getIndexReader(),
+                    start, limit, hits, similarWords, indexPolicy,
+                    distanceQueryBuilder, fieldSelector, criteria.hasSortBy()
+                            && !criteria.isSpatialQuery());
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("query " + criteria + " with policy "
                         + queryPolicy + ", returned " + results);
@@ -151,20 +222,42 @@ public class QueryImpl implements Query {
 
         Filter filter = null;
 
-        final Tuple tuple = doSearch(criteria, indexPolicy, queryPolicy,
-                filter, includeSuggestions, includeExplanation,
-                QueryType.DEFAULT, start, limit, true);
-        final Collection<String> explanations = tuple.get(3);
-        return explanations;
+        final IndexSearcher searcher = searcherManager.acquire();
+        try {
+            final Tuple tuple = doSearch(searcher, criteria, indexPolicy,
+                    queryPolicy, filter, includeSuggestions,
+                    includeExplanation, QueryType.DEFAULT, start, limit, true,
+                    toDeadline(criteria));
+            final Collection<String> explanations = tuple.third();
+            return explanations;
+        } finally {
+            searcherManager.release(searcher);
+        }
     }
 
     @Override
     public List<String> partialLookup(final QueryCriteria rawCriteria,
             final IndexPolicy indexPolicy, LookupPolicy lookupPolicy, int limit) {
-        final QueryCriteria criteria = toPartialFuzzyCriteria(rawCriteria);
+        final IndexSearcher searcher = searcherManager.acquire();
         try {
-            Set<String> results = doPartialLookup(criteria, indexPolicy,
+            return partialLookup(searcher, rawCriteria, indexPolicy,
                     lookupPolicy, limit);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * This method looks up using a searcher that was acquired by the caller.
+     */
+    List<String> partialLookup(final IndexSearcher searcher,
+            final QueryCriteria rawCriteria, final IndexPolicy indexPolicy,
+            LookupPolicy lookupPolicy, int limit) {
+        final QueryCriteria criteria = toPartialFuzzyCriteria(rawCriteria);
+        final long deadline = toDeadline(criteria);
+        try {
+            Set<String> results = doPartialLookup(searcher, criteria,
+                    indexPolicy, lookupPolicy, limit, deadline);
             if (results.size() < limit) {
                 final LookupPolicy queryPolicy = new LookupPolicy();
                 queryPolicy.add(lookupPolicy.getDictionaryField());
@@ -174,7 +267,7 @@ public class QueryImpl implements Query {
                 try {
                     Set<String> newResults = getLookupQuery(lookupPolicy)
                             .doPartialLookup(criteria, indexPolicy,
-                                    queryPolicy, limit * 2);
+                                    queryPolicy, limit * 2, deadline);
                     for (String w : newResults) {
                         if (results.size() > limit) {
                             break;
@@ -199,6 +292,24 @@ public class QueryImpl implements Query {
     public SearchDocList moreLikeThis(final String externalId,
             final int luceneId, final IndexPolicy indexPolicy,
             final QueryPolicy queryPolicy, int start, int limit) {
+        final IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return moreLikeThis(searcher, externalId, luceneId, indexPolicy,
+                    queryPolicy, start, limit);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * This method finds similar documents using a searcher that was acquired
+     * by the caller.
+     */
+    SearchDocList moreLikeThis(final IndexSearcher searcher,
+            final String externalId, final int luceneId,
+            final IndexPolicy indexPolicy, final QueryPolicy queryPolicy,
+            int start, int limit) {
+        final IndexReader reader = searcher.getIndexReader();
         final int maxDoc = reader.maxDoc();
         if (luceneId >= maxDoc) {
             throw new IllegalArgumentException("docId exceeds # of documents "
@@ -231,14 +342,12 @@ public class QueryImpl implements Query {
 
             final org.apache.lucene.search.Query query = mlt.like(luceneId);
 
-            final Tuple queryResults = new QueryUtils(reader, searcher)
-                    .doQuery(query, null, QueryUtils
-                            .getScoreUsingPolicy(queryPolicy), start, limit);
-            final double[][] docsAndScores = queryResults.second();
-            final Integer available = queryResults.first();
+            final TopHits hits = new QueryUtils(reader, searcher).doQuery(
+                    query, null, QueryUtils.getScoreUsingPolicy(queryPolicy),
+                    start, limit);
 
-            SearchDocList results = convert(start, limit, available,
-                    docsAndScores, null, null, null);
+            SearchDocList results = convert(reader, start, limit, hits, null,
+                    null, null, toFieldSelector(queryPolicy, null), false);
 
             // remove all matches that include original search criteria
             // including
@@ -278,8 +387,9 @@ public class QueryImpl implements Query {
                     }
                 });
 
+        final IndexSearcher searcher = searcherManager.acquire();
         try {
-            final TermEnum terms = reader.terms();
+            final TermEnum terms = searcher.getIndexReader().terms();
             int minFreq = 0;
             while (terms.next()) {
                 String field = terms.term().field();
@@ -302,34 +412,74 @@ public class QueryImpl implements Query {
         } catch (IOException e) {
             throw new SearchException("failed to get top terms for  " + policy,
                     e);
+        } finally {
+            searcherManager.release(searcher);
         }
 
         return rtq;
 
     }
 
+    /**
+     * @return name of the index
+     */
+    public String getIndex() {
+        return index;
+    }
+
+    /**
+     * @return version of the index reader used for searching, which changes
+     *         when the index is committed
+     */
+    public long getVersion() {
+        return searcherManager.getVersion();
+    }
+
+    /**
+     * @return version of the dictionary index that lookups with the policy
+     *         search or -1 if the policy has no dictionary index
+     */
+    long getDictionaryVersion(final LookupPolicy lookupPolicy) {
+        return lookupPolicy.getDictionaryIndex() != null ? getLookupQuery(
+                lookupPolicy).getVersion() : -1;
+    }
+
+    /**
+     * @return current searcher, which must be given back using release
+     */
+    IndexSearcher acquire() {
+        return searcherManager.acquire();
+    }
+
+    void release(final IndexSearcher searcher) {
+        searcherManager.release(searcher);
+    }
+
     @Override
     public String toString() {
         return "QueryImpl " + dir;
     }
 
     // ///////////////////////////////////////////////////////////////
-    private Tuple doSearch(final QueryCriteria criteria,
-            final IndexPolicy indexPolicy, final QueryPolicy queryPolicy,
-            final Filter queryFilter, final boolean includeSuggestions,
+    private Tuple doSearch(final IndexSearcher searcher,
+            final QueryCriteria criteria, final IndexPolicy indexPolicy,
+            final QueryPolicy queryPolicy, final Filter queryFilter,
+            final boolean includeSuggestions,
             final boolean includeExplanation, final QueryType queryType,
-            int start, int limit, boolean retryFuzzySearchIfNonMatches) {
+            int start, int limit, boolean retryFuzzySearchIfNonMatches,
+            final long deadline) {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("###doSearch searching " + criteria + " on " + dir
                     + " using " + queryPolicy);
         }
 
-        if (start <= 0) {
+        if (start <= 0 || criteria.hasCursor()) {
             start = 0;
         }
         if (limit <= 0) {
             limit = DEFAULT_LIMIT;
         }
+        final IndexReader reader = searcher.getIndexReader();
         final int max = Math.min(reader.maxDoc(), MAX_LIMIT);
 
         if (limit > max) {
@@ -361,14 +511,35 @@ public class QueryImpl implements Query {
         //
         if (!criteria.hasKeywords() && !criteria.isScoreQuery()
                 && !criteria.isAlways()) {
-            return new Tuple(0, new double[0][], similarWords, explanations,
+            return new Tuple(TopHits.EMPTY, similarWords, explanations,
                     distanceQueryBuilder);
         }
         final Analyzer analyzer = queryPolicy.hasAnalyzer() ? LuceneUtils
                 .getDefaultAnalyzer() : LuceneUtils.getAnalyzer(queryPolicy
                 .getAnalyzer());
 
+        Future<Tuple> fuzzyFallback = null;
+        long fuzzyFallbackDeadline = 0;
         try {
+            if (retryFuzzySearchIfNonMatches && start == 0
+                    && !criteria.isScoreQuery() && !criteria.isAlways()
+                    && isFuzzyCandidate(criteria)) {
+                final QueryCriteria fuzzyCriteria = toFuzzyCriteria(criteria);
+                final int fuzzyLimit = limit;
+                final long fuzzyDeadline = toFuzzyDeadline(deadline);
+                fuzzyFallback = submitFuzzyFallback(searcher,
+                        new Callable<Tuple>() {
+                            @Override
+                            public Tuple call() throws Exception {
+                                return doSearch(searcher, fuzzyCriteria,
+                                        indexPolicy, queryPolicy, queryFilter,
+                                        false, includeExplanation, queryType,
+                                        0, fuzzyLimit, true, fuzzyDeadline);
+                            }
+                        });
+                fuzzyFallbackDeadline = System.currentTimeMillis()
+                        + FUZZY_FALLBACK_BUDGET_MILLIS;
+            }
             org.apache.lucene.search.Query q = null;
             if (criteria.isScoreQuery()) {
                 q = QueryUtils.createQuery(QueryType.HIT, null);
@@ -382,7 +553,9 @@ public class QueryImpl implements Query {
                 Filter securityFilter = QueryUtils.securityFilter(criteria
                         .getOwner());
                 if (securityFilter != null) {
-                    filters.add(securityFilter);
+                    filters.add(searcherManager.getCachedFilter(
+                            Constants.OWNER + ":" + criteria.getOwner(),
+                            securityFilter));
                 }
             }
             if (criteria.hasRecency()) {
@@ -392,10 +565,13 @@ public class QueryImpl implements Query {
             }
 
             if (criteria.hasIndexDateRange()) {
-                q = QueryUtils.indexDateRange(q, criteria
-                        .getIndexStartDateRange(), criteria
+                final String startDate = QueryUtils.toDayBucket(criteria
+                        .getIndexStartDateRange());
+                final String endDate = QueryUtils.toDayBucket(criteria
                         .getIndexEndDateRange());
-
+                filters.add(searcherManager.getCachedFilter("indexDate:"
+                        + startDate + "-" + endDate, QueryUtils
+                        .indexDateRangeFilter(startDate, endDate)));
             }
             Sort sort = null;
             if (criteria.isSpatialQuery()) {
@@ -410,40 +586,71 @@ public class QueryImpl implements Query {
                     : filters.size() == 1 ? filters.get(0) : new ChainedFilter(
                             filters.toArray(new Filter[filters.size()]));
 
-            final Tuple queryResults = new QueryUtils(reader, searcher)
-                    .doQuery(q, filter, sort, start, limit);
-
-            final double[][] docsAndScores = queryResults.second();
+            // retries only get the time that is left of the request
+            final long timeoutMillis = deadline > 0 ? deadline
+                    - TimeUtils.getCurrentTimeMillis() : 0;
+            if (deadline > 0 && timeoutMillis <= 0) {
+                return new Tuple(new TopHits(0, new int[0], new float[0],
+                        true), similarWords, explanations,
+                        distanceQueryBuilder);
+            }
+            // cursor based paging only collects hits after the cursor in
+            // the order of the sort
+            final TopHits hits = criteria.hasCursor() ? new QueryUtils(reader,
+                    searcher).doQueryAfter(q, filter, sort, criteria
+                    .getCursor(), limit, timeoutMillis)
+                    : new QueryUtils(reader, searcher).doQuery(q, filter,
+                            sort, start, limit, timeoutMillis);
 
-            // do fuzzy search if non-matched
-            if (retryFuzzySearchIfNonMatches && docsAndScores.length == 0
-                    && start == 0 && criteria.isFuzzySearchForNoResults()
-                    && criteria.getKeywords().indexOf(",") == -1
-                    && criteria.getKeywords().indexOf("\"") == -1
-                    && criteria.getKeywords().indexOf("'") == -1
-                    && criteria.getKeywords().indexOf("*") == -1
-                    && criteria.getKeywords().indexOf("~") == -1) {
+            // do fuzzy search if non-matched, unless the deadline was
+            // already reached
+            if (fuzzyFallback != null) {
+                if (hits.size() == 0 && !hits.isPartial()) {
+                    final Tuple fuzzyTuple = getFuzzyFallback(fuzzyFallback,
+                            fuzzyFallbackDeadline);
+                    fuzzyFallback = null;
+                    if (fuzzyTuple == null) {
+                        // fuzzy search didn't finish or failed, so it's
+                        // repeated serially in the time left of the request
+                        return doSearch(searcher, toFuzzyCriteria(criteria),
+                                indexPolicy, queryPolicy, queryFilter,
+                                includeSuggestions, includeExplanation,
+                                queryType, start, limit,
+                                retryFuzzySearchIfNonMatches, deadline);
+                    }
+                    final TopHits fuzzyHits = fuzzyTuple.first();
+                    // hits of fuzzy search that ran out of its budget are
+                    // partial, so they aren't cached as complete results
+                    if (fuzzyHits.size() > 0 || fuzzyHits.isPartial()) {
+                        return new Tuple(fuzzyHits, similarWords, fuzzyTuple
+                                .third(), fuzzyTuple.get(3));
+                    }
+                }
+            } else if (retryFuzzySearchIfNonMatches && hits.size() == 0
+                    && !hits.isPartial() && start == 0
+                    && isFuzzyCandidate(criteria)) {
                 final QueryCriteria newCriteria = toFuzzyCriteria(criteria);
 
-                return doSearch(newCriteria, indexPolicy, queryPolicy,
-                        queryFilter, includeSuggestions, includeExplanation,
-                        queryType, start, limit, retryFuzzySearchIfNonMatches);
+                return doSearch(searcher, newCriteria, indexPolicy,
+                        queryPolicy, queryFilter, includeSuggestions,
+                        includeExplanation, queryType, start, limit,
+                        retryFuzzySearchIfNonMatches, deadline);
             } else if (retryFuzzySearchIfNonMatches
-                    && docsAndScores.length == 0 && start == 0
+                    && hits.size() == 0 && !hits.isPartial() && start == 0
                     && criteria.getKeywords().indexOf("*") == -1
                     && criteria.getKeywords().indexOf("\"") == -1
                     && criteria.getKeywords().indexOf("'") == -1
                     && criteria.getKeywords().indexOf("~") != -1) {
                 final QueryCriteria newCriteria = toPartialFuzzyCriteria(criteria);
 
-                return doSearch(newCriteria, indexPolicy, queryPolicy,
-                        queryFilter, includeSuggestions, includeExplanation,
-                        queryType, start, limit, false);
+                return doSearch(searcher, newCriteria, indexPolicy,
+                        queryPolicy, queryFilter, includeSuggestions,
+                        includeExplanation, queryType, start, limit, false,
+                        deadline);
             }
-            final Integer available = queryResults.first();
             if (includeExplanation) {
-                for (double[] docAndScore : docsAndScores) {
-                    explanations.add(searcher.explain(q, (int) docAndScore[0])
+                for (int i = 0; i < hits.size(); i++) {
+                    explanations.add(searcher.explain(q, hits.getDoc(i))
                             .toString());
                 }
             }
@@ -452,11 +659,11 @@ public class QueryImpl implements Query {
                         + ", filter " + filter + ", sort " + sort
                         + ", criteria " + criteria + " on " + dir + ", query "
                         + q.getClass().getName() + ", analyzer " + analyzer
-                        + ", found " + docsAndScores.length + ", available "
-                        + available);
+                        + ", found " + hits.size() + ", available "
+                        + hits.getTotalHits());
             }
-            return new Tuple(available, docsAndScores, similarWords,
-                    explanations, distanceQueryBuilder);
+            return new Tuple(hits, similarWords, explanations,
+                    distanceQueryBuilder);
         } catch (CorruptIndexException e) {
             throw new SearchException("failed to search " + criteria, e);
         } catch (IOException e) {
@@ -466,43 +673,120 @@ public class QueryImpl implements Query {
             final String cleanKeywords = BAD_CHARACTERS.matcher(
                     criteria.getKeywords()).replaceAll("").toLowerCase().trim();
             if (cleanKeywords.length() == 0) {
-                return new Tuple(0, new double[0][], similarWords,
-                        explanations, distanceQueryBuilder);
+                return new Tuple(TopHits.EMPTY, similarWords, explanations,
+                        distanceQueryBuilder);
             } else {
-                return doSearch(new CriteriaBuilder(criteria).setKeywords(
-                        cleanKeywords).build(), indexPolicy, queryPolicy,
-                        queryFilter, includeSuggestions, includeExplanation,
-                        queryType, start, limit, retryFuzzySearchIfNonMatches);
+                return doSearch(searcher, new CriteriaBuilder(criteria)
+                        .setKeywords(cleanKeywords).build(), indexPolicy,
+                        queryPolicy, queryFilter, includeSuggestions,
+                        includeExplanation, queryType, start, limit,
+                        retryFuzzySearchIfNonMatches, deadline);
             }
-        } catch (java.text.ParseException e) {
-            throw new SearchException("failed to search " + criteria, e);
         } finally {
+            if (fuzzyFallback != null) {
+                fuzzyFallback.cancel(false);
+            }
             timer.stop();
         }
     }
 
-    @Override
-    public void close() {
-        if (searcher != null) {
-            try {
-                searcher.close();
-            } catch (CorruptIndexException e) {
-                LOGGER.error(e);
-            } catch (IOException e) {
-                LOGGER.error(e);
-            }
+    /**
+     * @return time by which all attempts of the request must finish or 0 if
+     *         the search is not limited
+     */
+    private static long toDeadline(final QueryCriteria criteria) {
+        final long timeoutMillis = criteria.hasTimeout() ? criteria
+                .getTimeoutMillis() : SEARCH_TIMEOUT_MILLIS;
+        return timeoutMillis > 0 ? TimeUtils.getCurrentTimeMillis()
+                + timeoutMillis : 0;
+    }
+
+    private static boolean isFuzzyCandidate(final QueryCriteria criteria) {
+        return criteria.isFuzzySearchForNoResults() && !criteria.hasCursor()
+                && criteria.hasKeywords()
+                && criteria.getKeywords().indexOf(",") == -1
+                && criteria.getKeywords().indexOf("\"") == -1
+                && criteria.getKeywords().indexOf("'") == -1
+                && criteria.getKeywords().indexOf("*") == -1
+                && criteria.getKeywords().indexOf("~") == -1;
+    }
+
+    /**
+     * @return deadline of speculative fuzzy search, which stops collecting
+     *         hits when its budget or the time of the request runs out
+     */
+    private static long toFuzzyDeadline(final long deadline) {
+        final long budgetDeadline = TimeUtils.getCurrentTimeMillis()
+                + FUZZY_FALLBACK_BUDGET_MILLIS;
+        return deadline > 0 ? Math.min(deadline, budgetDeadline)
+                : budgetDeadline;
+    }
+
+    /**
+     * This method starts fuzzy search in the background when speculative
+     * fallback is enabled. The searcher is retained so that it stays open
+     * until the fuzzy search finishes even if the caller releases it first.
+     * 
+     * @return future of fuzzy search or null if fuzzy search should be done
+     *         serially
+     */
+    private <T> Future<T> submitFuzzyFallback(final IndexSearcher searcher,
+            final Callable<T> fuzzySearch) {
+        if (FUZZY_FALLBACK_MODE != FuzzyFallbackMode.SPECULATIVE) {
+            return null;
         }
-        if (reader != null) {
-            try {
-                reader.close();
-            } catch (CorruptIndexException e) {
-                LOGGER.error(e);
-            } catch (IOException e) {
-                LOGGER.error(e);
+        searcherManager.retain(searcher);
+        try {
+            return fuzzyFallbackExecutor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        return fuzzySearch.call();
+                    } finally {
+                        searcherManager.release(searcher);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            searcherManager.release(searcher);
+            if (LOGGER.isInfoEnabled()) {
+                LOGGER.info("Fuzzy fallback rejected, will search serially");
             }
+            return null;
+        }
+    }
+
+    /**
+     * @return results of fuzzy search or null if it didn't finish within the
+     *         budget or failed. Running searches are not interrupted as
+     *         interrupting NIO reads closes the shared index files, they stop
+     *         collecting hits at the deadline of the fuzzy search instead.
+     */
+    private <T> T getFuzzyFallback(final Future<T> fuzzyFallback,
+            final long deadline) {
+        try {
+            return fuzzyFallback.get(Math.max(0, deadline
+                    - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            LOGGER.warn("Fuzzy fallback on " + dir + " didn't finish within "
+                    + FUZZY_FALLBACK_BUDGET_MILLIS + " millis");
+        } catch (ExecutionException e) {
+            LOGGER.warn("Fuzzy fallback on " + dir + " failed due to "
+                    + e.getCause());
         }
-        searcher = null;
-        reader = null;
+        fuzzyFallback.cancel(false);
+        return null;
+    }
+
+    /**
+     * The searcher is shared with other queries on the same index and is
+     * closed by SearcherManager when it's replaced and dictionary lookups are
+     * shared with other queries, so this method doesn't close anything.
+     */
+    @Override
+    public void close() {
     }
 
     private QueryCriteria toFuzzyCriteria(final QueryCriteria criteria) {
@@ -527,34 +811,30 @@ public class QueryImpl implements Query {
         return newCriteria;
     }
 
-    @SuppressWarnings("unchecked")
-    private SearchDocList convert(final int start, final int pageSize,
-            int totalHits, final double[][] docsAndScores,
+    private SearchDocList convert(final IndexReader reader,
+            final int start, final int pageSize, final TopHits hits,
             final Collection<String> similarWords,
             final IndexPolicy indexPolicy,
-            final DistanceQueryBuilder distanceQueryBuilder)
+            final DistanceQueryBuilder distanceQueryBuilder,
+            final FieldSelector fieldSelector, final boolean includeSortValues)
             throws CorruptIndexException, IOException {
         final List<SearchDoc> results = new ArrayList<SearchDoc>();
-        // this will add a field called _localTierXX where XX isthe value of
-        // startTier in the loop
+        // position of each id in results for merging duplicates
+        final Map<String, Integer> positions = new HashMap<String, Integer>();
         Map<Integer, Double> distances = distanceQueryBuilder != null ? distanceQueryBuilder
                 .getDistanceFilter().getDistances()
                 : null;
-        for (double[] docAndScore : docsAndScores) {
-            if (docAndScore == null) {
-                throw new NullPointerException("null docs for "
-                        + docsAndScores.length + ": "
-                        + Arrays.asList(docsAndScores));
-            }
-            final int doc = (int) docAndScore[0];
-            final float score = (float) docAndScore[1];
+        int totalHits = hits.getTotalHits();
+        for (int i = 0; i < hits.size(); i++) {
+            final int doc = hits.getDoc(i);
+            final float score = hits.getScore(i);
             final org.apache.lucene.document.Document searchDoc = reader
-                    .document(doc);
-            final List<Field> fields = searchDoc.getFields();
+                    .document(doc, fieldSelector);
 
             final Map<String, Object> map = new TreeMap<String, Object>();
-            for (Field field : fields) {
-                map.put(field.name(), field.stringValue());
+            for (Object field : searchDoc.getFields()) {
+                final Fieldable fieldable = (Fieldable) field;
+                map.put(fieldable.name(), fieldable.stringValue());
             }
 
             //
@@ -568,58 +848,163 @@ public class QueryImpl implements Query {
                                 .getLongitudeField().name)));
                 map.put(Constants.DISTANCE, distance);
             }
-            final SearchDocBuilder resultBuilder = new SearchDocBuilder()
-                    .putAll(map).setScore(score).seHitDocumentNumber(doc);
-
-            SearchDoc result = null;
 
             // add scores for duplicates
-            int oldIndex = results.indexOf(resultBuilder.build());
-            if (oldIndex == -1) {
-                result = resultBuilder.build();
-                results.add(result);
+            final String id = toUniqueId(searchDoc);
+            final Integer oldIndex = id != null ? positions.get(id) : null;
+            if (oldIndex == null) {
+                if (id != null) {
+                    positions.put(id, results.size());
+                }
+                final SearchDocBuilder builder = new SearchDocBuilder().putAll(
+                        map).setScore(score).seHitDocumentNumber(doc);
+                // sort values let results of several indexes be merged in
+                // the same order
+                if (includeSortValues && hits.getSortValues(i) != null) {
+                    builder.put(SearchDoc.SORT, new ArrayList<Object>(Arrays
+                            .asList(hits.getSortValues(i))));
+                }
+                results.add(builder.build());
             } else {
                 final SearchDoc oldResult = results.get(oldIndex);
-                resultBuilder.setScore(score + oldResult.getScore());
-                result = resultBuilder.build();
-                results.set(oldIndex, result);
+                // keeping identity fields that getAttributes() leaves out
+                results.set(oldIndex, new SearchDocBuilder().putAll(oldResult)
+                        .setScore(score + oldResult.getScore()).build());
                 totalHits--;
             }
         }
 
         return new SearchDocList(start, pageSize, totalHits, results,
-                similarWords);
+                similarWords, hits.isPartial(), hits.getCursor());
+    }
+
+    private static String toUniqueId(
+            final org.apache.lucene.document.Document searchDoc) {
+        final String id = searchDoc.get(Document.ID);
+        final String secondaryId = searchDoc.get(Document.SECONDARY_ID);
+        return id == null || secondaryId == null ? id : id + "/"
+                + secondaryId;
+    }
+
+    /**
+     * @return field selector that only loads identity fields, fields of the
+     *         query policy and the location fields of the index policy
+     *         instead of all stored fields
+     */
+    private static FieldSelector toFieldSelector(
+            final QueryPolicy queryPolicy, final IndexPolicy indexPolicy) {
+        final Set<String> fieldsToLoad = new HashSet<String>(
+                RESULT_FIELDS_TO_LOAD);
+        if (queryPolicy != null) {
+            fieldsToLoad.addAll(Arrays.asList(queryPolicy.getFieldNames()));
+        }
+        if (indexPolicy != null && indexPolicy.getLatitudeField() != null
+                && indexPolicy.getLongitudeField() != null) {
+            fieldsToLoad.add(indexPolicy.getLatitudeField().name);
+            fieldsToLoad.add(indexPolicy.getLongitudeField().name);
+        }
+        return new SetBasedFieldSelector(fieldsToLoad, Collections
+                .<String> emptySet());
+    }
+
+    /**
+     * @return field selector that only loads identity fields and the field
+     *         returned by the lookup policy instead of all stored fields
+     */
+    private static FieldSelector toFieldSelector(final LookupPolicy policy) {
+        final Set<String> fieldsToLoad = new HashSet<String>(
+                RESULT_FIELDS_TO_LOAD);
+        if (policy.getFieldToReturn() != null) {
+            fieldsToLoad.add(policy.getFieldToReturn());
+        }
+        return new SetBasedFieldSelector(fieldsToLoad, Collections
+                .<String> emptySet());
     }
 
     private Set<String> doPartialLookup(QueryCriteria criteria,
             final IndexPolicy indexPolicy, final LookupPolicy lookupPolicy,
-            int limit) throws CorruptIndexException, IOException {
+            int limit, final long deadline) throws CorruptIndexException,
+            IOException {
+        final IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return doPartialLookup(searcher, criteria, indexPolicy,
+                    lookupPolicy, limit, deadline);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private Set<String> doPartialLookup(final IndexSearcher searcher,
+            QueryCriteria criteria, final IndexPolicy indexPolicy,
+            final LookupPolicy lookupPolicy, final int limit,
+            final long deadline) throws CorruptIndexException, IOException {
         final boolean includeSuggestions = false;
         final boolean includeExplanation = false;
-        Tuple tuple = doSearch(criteria, indexPolicy, lookupPolicy, null,
-                includeSuggestions, includeExplanation, QueryType.PREFIX, 0,
-                limit, false);
-        final Integer total = tuple.first();
-        final double[][] docsAndScores = tuple.second();
-
-        // fuzzy matching if non-matched
-        if (docsAndScores.length == 0 && criteria.isFuzzySearchForNoResults()
-                && criteria.getKeywords().indexOf(",") == -1
-                && criteria.getKeywords().indexOf("*") == -1
-                && criteria.getKeywords().indexOf("\"") == -1
-                && criteria.getKeywords().indexOf("'") == -1
-                && criteria.getKeywords().indexOf("~") == -1) {
-            final QueryCriteria newCriteria = toFuzzyCriteria(criteria);
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("doPartialLookup fuzzy searching " + newCriteria);
+        Future<Set<String>> fuzzyFallback = null;
+        if (isFuzzyCandidate(criteria)) {
+            final QueryCriteria fuzzyCriteria = toFuzzyCriteria(criteria);
+            final long fuzzyDeadline = toFuzzyDeadline(deadline);
+            fuzzyFallback = submitFuzzyFallback(searcher,
+                    new Callable<Set<String>>() {
+                        @Override
+                        public Set<String> call() throws Exception {
+                            return doPartialLookup(searcher, fuzzyCriteria,
+                                    indexPolicy, lookupPolicy, limit,
+                                    fuzzyDeadline);
+                        }
+                    });
+        }
+        final long fuzzyFallbackDeadline = System.currentTimeMillis()
+                + FUZZY_FALLBACK_BUDGET_MILLIS;
+        try {
+            Tuple tuple = doSearch(searcher, criteria, indexPolicy,
+                    lookupPolicy, null, includeSuggestions,
+                    includeExplanation, QueryType.PREFIX, 0, limit, false,
+                    deadline);
+            final TopHits hits = tuple.first();
+
+            // fuzzy matching if non-matched
+            if (fuzzyFallback != null) {
+                if (hits.size() == 0) {
+                    final Set<String> fuzzyResults = getFuzzyFallback(
+                            fuzzyFallback, fuzzyFallbackDeadline);
+                    fuzzyFallback = null;
+                    if (fuzzyResults != null) {
+                        return fuzzyResults;
+                    }
+                    // fuzzy lookup didn't finish or failed, so it's
+                    // repeated serially in the time left of the request
+                    return doPartialLookup(searcher, toFuzzyCriteria(criteria),
+                            indexPolicy, lookupPolicy, limit, deadline);
+                }
+            } else if (hits.size() == 0 && isFuzzyCandidate(criteria)) {
+                final QueryCriteria newCriteria = toFuzzyCriteria(criteria);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("doPartialLookup fuzzy searching "
+                            + newCriteria);
+                }
+                return doPartialLookup(searcher, newCriteria, indexPolicy,
+                        lookupPolicy, limit, deadline);
+            }
+            return toLookupResults(searcher, tuple, lookupPolicy,
+                    indexPolicy, limit);
+        } finally {
+            if (fuzzyFallback != null) {
+                fuzzyFallback.cancel(false);
             }
-            return doPartialLookup(newCriteria, indexPolicy, lookupPolicy,
-                    limit);
         }
-        final Collection<String> similarWords = tuple.third();
+    }
+
+    private Set<String> toLookupResults(final IndexSearcher searcher,
+            final Tuple tuple, final LookupPolicy lookupPolicy,
+            final IndexPolicy indexPolicy, final int limit)
+            throws CorruptIndexException, IOException {
+        final TopHits hits = tuple.first();
+        final Collection<String> similarWords = tuple.second();
 
-        SearchDocList matches = convert(0, limit, total, docsAndScores,
-                similarWords, indexPolicy, null);
+        SearchDocList matches = convert(searcher.getIndexReader(), 0, limit,
+                hits, similarWords, indexPolicy, null,
+                toFieldSelector(lookupPolicy), false);
         Set<String> results = new HashSet<String>();
         for (SearchDoc doc : matches) {
             try {
@@ -11,7 +11,6 @@ import java.util.regex.Pattern;
 import org.apache.commons.validator.GenericValidator;
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.DateTools;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryParser.MultiFieldQueryParser;
@@ -19,10 +18,9 @@ import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.FieldCacheTermsFilter;
 import org.apache.lucene.search.Filter;
-import org.apache.lucene.search.FilteredQuery;
 import org.apache.lucene.search.FuzzyQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.PrefixQuery;
@@ -33,9 +31,11 @@ import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TermRangeFilter;
+import org.apache.lucene.search.TimeLimitingCollector;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopDocsCollector;
 import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.WildcardQuery;
 import org.apache.lucene.search.function.CustomScoreQuery;
 import org.apache.lucene.search.function.FieldScoreQuery;
@@ -51,7 +51,6 @@ import org.apache.solr.search.SortedIntDocSet;
 import com.plexobject.docusearch.Configuration;
 import com.plexobject.docusearch.converter.Constants;
 import com.plexobject.docusearch.domain.Document;
-import com.plexobject.docusearch.domain.Tuple;
 import com.plexobject.docusearch.lucene.analyzer.SimilarityHelper;
 import com.plexobject.docusearch.query.QueryCriteria;
 import com.plexobject.docusearch.query.QueryPolicy;
@@ -69,7 +68,7 @@ public class QueryUtils {
 
     private static final double DEFAULT_MULTIPLIER = Configuration
             .getInstance().getDouble("lucene.recency.multiplier", 2.0);
-    private static final int MSEC_PER_DAY = 24 * 3600 * 1000;
+    private static final int DAY_LENGTH = "yyyyMMdd".length();
     private static SearchScheme searchScheme = SearchScheme.SORT_WITH_TOPDOCS;
 
     public enum SearchScheme {
@@ -111,21 +110,36 @@ public class QueryUtils {
      *            offset into the list of documents to return
      * @param len
      *            maximum number of documents to return
-     * @return DocList meeting the specified criteria, should <b>not</b> be
-     *         modified by the caller.
+     * @return hits of the requested page along with the total number of
+     *         matching documents
      * @throws IOException
      */
-    Tuple doQuery(final org.apache.lucene.search.Query query,
+    TopHits doQuery(final org.apache.lucene.search.Query query,
             final Filter filter, final Sort sort, final int offset,
             final int len) throws IOException {
-        final int maxDocRequested = reader.maxDoc();
+        return doQuery(query, filter, sort, offset, len, 0);
+    }
+
+    /**
+     * @param timeoutMillis
+     *            - max time to collect hits, the hits collected until then
+     *            are returned as partial results. It's only applied to
+     *            SORT_WITH_TOPDOCS scheme.
+     */
+    TopHits doQuery(final org.apache.lucene.search.Query query,
+            final Filter filter, final Sort sort, final int offset,
+            final int len, final long timeoutMillis) throws IOException {
+        // only keep as many hits as the requested page needs, the
+        // collectors count all matches for the total
+        final int numHits = Math.max(1, Math.min(reader.maxDoc(), offset
+                + len));
         TopDocs docs = null;
 
         switch (searchScheme) {
 
         case SORT_WITH_COLLECTOR: // TODO fix this
-            final DocSetCollector collector = new DocSetCollector(
-                    maxDocRequested);
+            final DocSetCollector collector = new DocSetCollector(reader
+                    .maxDoc());
             searcher.search(query.weight(searcher), filter, collector);
             int sliceLen = collector.getNumHits(); // Math.min(maxDocRequested,
             // collector.getNumHits());
@@ -135,46 +149,128 @@ public class QueryUtils {
             final DocList superset = sortDocSet(query, collector, sort,
                     sliceLen);
             final DocList slice = superset.subset(offset, len);
-            final double[][] docsAndScores = new double[sliceLen][];
+            final int[] ids = new int[slice.size()];
+            final float[] scores = new float[slice.size()];
             final DocIterator it = slice.iterator();
             for (int i = 0; it.hasNext(); i++) {
-                docsAndScores[i] = new double[] { it.nextDoc(), it.score() };
+                ids[i] = it.nextDoc();
+                scores[i] = it.score();
             }
-            return new Tuple(collector.getNumHits(), docsAndScores);
+            return new TopHits(collector.getNumHits(), ids, scores);
         case SORT_WITH_TOPDOCS:
-            TopDocsCollector tdc = TopFieldCollector.create(sort,
-                    maxDocRequested, true, true, false, true);
+            final TopDocsCollector tdc = sort != null ? TopFieldCollector
+                    .create(sort, numHits, true, true, false, true)
+                    : TopScoreDocCollector.create(numHits, true);
             //
-            searcher.search(query, filter, tdc);
+            boolean partial = false;
+            if (timeoutMillis > 0) {
+                try {
+                    searcher.search(query, filter, new TimeLimitingCollector(
+                            tdc, timeoutMillis));
+                } catch (TimeLimitingCollector.TimeExceededException e) {
+                    LOGGER.warn("Stopped collecting " + query + " after "
+                            + e.getTimeElapsed() + " millis with "
+                            + tdc.getTotalHits() + " hits");
+                    partial = true;
+                }
+            } else {
+                searcher.search(query, filter, tdc);
+            }
 
-            docs = tdc.topDocs();
-            return sliceResults(offset, len, docs);
+            return TopHits.valueOf(tdc.topDocs(offset, len), partial);
         default:
-            docs = searcher.search(query.weight(searcher), filter,
-                    maxDocRequested);
+            docs = searcher.search(query.weight(searcher), filter, numHits);
             return sliceResults(offset, len, docs);
         }
     }
 
-    private Tuple sliceResults(final int offset, final int len, TopDocs docs) {
-        int maxDocsToReturn = Math.max(0, Math.min(docs.scoreDocs.length
-                - offset, len));
-        // LOGGER.info("max results to return " + maxDocsToReturn +
-        // ", doc length " + docs.scoreDocs.length);
-        final double[][] docsAndScores = new double[maxDocsToReturn][];
-
-        for (int i = 0; i < docs.scoreDocs.length; i++) {
-            final ScoreDoc field = docs.scoreDocs[i];
-            if (i < offset) {
-                continue;
-            } else if (i - offset == maxDocsToReturn) {
-                break;
+    /**
+     * This method collects the page of hits after the cursor in the order of
+     * the given sort, so only len hits are kept regardless of how deep the
+     * page is. Hits are ordered by the unique id of documents after the
+     * fields of the sort, so pages don't depend on document numbers, which
+     * change when segments are merged.
+     * 
+     * @param cursor
+     *            - cursor returned with the previous page or
+     *            QueryCriteria.FIRST_CURSOR
+     * @return hits along with the cursor for the next page, which is null when
+     *         there are no more hits or the collection was stopped by the
+     *         deadline
+     */
+    TopHits doQueryAfter(final org.apache.lucene.search.Query query,
+            final Filter filter, final Sort sort, final String cursor,
+            final int len, final long timeoutMillis) throws IOException {
+        final Sort pagingSort = toPagingSort(sort);
+        final Comparable<?>[] after = SearchCursor.decode(cursor, pagingSort
+                .getSort());
+        final int numHits = Math.max(1, Math.min(reader.maxDoc(), len));
+        final TopDocsCollector tdc = TopFieldCollector.create(pagingSort,
+                numHits, true, true, false, true);
+        final SearchAfterCollector collector = new SearchAfterCollector(tdc,
+                pagingSort, after);
+        boolean partial = false;
+        try {
+            searcher.search(query, filter, timeoutMillis > 0 ? new TimeLimitingCollector(
+                    collector, timeoutMillis)
+                    : collector);
+        } catch (TimeLimitingCollector.TimeExceededException e) {
+            LOGGER.warn("Stopped collecting " + query + " after "
+                    + e.getTimeElapsed() + " millis with "
+                    + collector.getTotalHits() + " hits");
+            partial = true;
+        }
+        final ScoreDoc[] scoreDocs = tdc.topDocs(0, len).scoreDocs;
+        final int[] ids = new int[scoreDocs.length];
+        final float[] scores = new float[scoreDocs.length];
+        final Comparable<?>[][] sortValues = new Comparable<?>[scoreDocs.length][];
+        for (int i = 0; i < scoreDocs.length; i++) {
+            ids[i] = scoreDocs[i].doc;
+            scores[i] = scoreDocs[i].score;
+            sortValues[i] = ((FieldDoc) scoreDocs[i]).fields;
+        }
+        final String nextCursor = !partial && scoreDocs.length > 0
+                && scoreDocs.length == len ? SearchCursor
+                .encode(sortValues[scoreDocs.length - 1]) : null;
+        return new TopHits(collector.getTotalHits(), ids, scores, partial,
+                nextCursor, sortValues);
+    }
+
+    /**
+     * @return sort followed by the unique id of documents, and the document
+     *         number for documents indexed before unique ids
+     */
+    static Sort toPagingSort(final Sort sort) {
+        final List<SortField> fields = new ArrayList<SortField>();
+        if (sort != null) {
+            for (SortField field : sort.getSort()) {
+                // document numbers are only used as the last resort
+                if (field.getType() != SortField.DOC) {
+                    fields.add(field);
+                }
             }
-            // LOGGER.info("setting " + (i - offset) + " : " + field.doc);
+        }
+        if (fields.size() == 0) {
+            fields.add(SortField.FIELD_SCORE);
+        }
+        fields.add(new SortField(Constants.UID, SortField.STRING));
+        fields.add(SortField.FIELD_DOC);
+        return new Sort(fields.toArray(new SortField[fields.size()]));
+    }
 
-            docsAndScores[i - offset] = new double[] { field.doc, field.score };
+    private TopHits sliceResults(final int offset, final int len,
+            final TopDocs docs) {
+        final int maxDocsToReturn = Math.max(0, Math.min(
+                docs.scoreDocs.length - offset, len));
+        final int[] ids = new int[maxDocsToReturn];
+        final float[] scores = new float[maxDocsToReturn];
+
+        for (int i = 0; i < maxDocsToReturn; i++) {
+            final ScoreDoc field = docs.scoreDocs[offset + i];
+            ids[i] = field.doc;
+            scores[i] = field.score;
         }
-        return new Tuple(docs.scoreDocs.length, docsAndScores); // docs.totalHits
+        return new TopHits(docs.totalHits, ids, scores);
     }
 
     private DocList sortDocSet(final org.apache.lucene.search.Query query,
@@ -268,8 +364,7 @@ public class QueryUtils {
 
     org.apache.lucene.search.Query boostQuery(
             final org.apache.lucene.search.Query q, int maxDays,
-            double multiplier) throws IOException, ParseException,
-            java.text.ParseException {
+            double multiplier) {
         if (maxDays <= 0) {
             maxDays = searcher.maxDoc();
         }
@@ -279,27 +374,17 @@ public class QueryUtils {
         if (multiplier == 0) {
             multiplier = DEFAULT_MULTIPLIER;
         }
-        final int[] daysAgo = new int[Math.min(searcher.maxDoc(), maxDays * 10)];
-        long now = TimeUtils.getCurrentTimeMillis();
-
-        for (int i = 0; i < daysAgo.length; i++) {
-            if (!reader.isDeleted(i)) {
-                long then = DateTools.stringToTime(reader.document(i).get(
-                        "indexDate"));
-
-                daysAgo[i] = (int) ((now - then) / MSEC_PER_DAY);
-            }
-        }
-        return new RecencyBoostingQuery(q, daysAgo, multiplier, maxDays);
+        return new RecencyBoostingQuery(q, multiplier, maxDays, TimeUtils
+                .getCurrentTimeMillis());
     }
 
-    static org.apache.lucene.search.Query indexDateRange(
-            org.apache.lucene.search.Query q, String indexStartDateRange,
-            String indexEndDateRange) {
-
-        Filter filter = new TermRangeFilter("indexDate", indexStartDateRange,
-                indexEndDateRange, true, true);
-        return new FilteredQuery(q, filter);
+    /**
+     * @return date truncated to the day, which is used to share cached date
+     *         range filters among queries
+     */
+    static String toDayBucket(final String date) {
+        return date != null && date.length() > DAY_LENGTH ? date.substring(0,
+                DAY_LENGTH) : date;
     }
 
     static Filter indexDateRangeFilter(final String indexStartDateRange,
@@ -321,25 +406,19 @@ public class QueryUtils {
                     BooleanClause.Occur.SHOULD);
             securityFilter.add(new TermQuery(new Term("owner",
                     Constants.ALL_OWNER)), BooleanClause.Occur.SHOULD);
-            return cachingFilter(new QueryWrapperFilter(securityFilter));
+            return new QueryWrapperFilter(securityFilter);
         } else {
             return null;
         }
     }
 
-    static Filter cachingFilter(final Filter filter) {
-        return new CachingWrapperFilter(filter);
-    }
-
     public static Sort getScoreUsingCriteria(final String fieldName,
             final QueryPolicy policy) {
         List<SortField> scores = new ArrayList<SortField>();
 
-        for (QueryPolicy.Field field : policy.getFields()) {
-            if (field.name.toLowerCase().contains(fieldName)) {
-                scores.add(field.sortOrder, new SortField(field.name,
-                        getType(field), field.ascendingSort));
-            }
+        for (QueryPolicy.Field field : policy.getSortFields(fieldName)) {
+            scores.add(new SortField(field.name, getType(field),
+                    field.ascendingSort));
         }
         return new Sort(scores.toArray(new SortField[scores.size()]));
     }
@@ -1,32 +1,75 @@
 package com.plexobject.docusearch.query.lucene;
 
-import java.util.Arrays;
+import java.io.IOException;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.lucene.document.DateTools;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.function.CustomScoreQuery;
+import org.apache.lucene.search.function.DocValues;
+import org.apache.lucene.search.function.ValueSource;
+import org.apache.lucene.search.function.ValueSourceQuery;
 
+/**
+ * This query boosts recently indexed documents. The index date of each
+ * document is read from the field cache, which parses the indexDate terms
+ * once per segment into days since epoch instead of loading stored fields on
+ * every query.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
 public class RecencyBoostingQuery extends CustomScoreQuery {
     private static final long serialVersionUID = 1L;
-    int[] daysAgo;
-    double multiplier;
-    int maxDaysAgo;
-
-    public RecencyBoostingQuery(org.apache.lucene.search.Query q,
-            int[] daysAgo, double multiplier, int maxDaysAgo) {
-        super(q);
-        this.daysAgo = Arrays.copyOf(daysAgo, daysAgo.length);
-        this.multiplier = multiplier;
-        this.maxDaysAgo = maxDaysAgo;
+    static final String INDEX_DATE = "indexDate";
+    private static final long MSEC_PER_DAY = 24 * 3600 * 1000L;
+
+    /**
+     * Parses index date terms into days since epoch, this instance must be
+     * shared so that field cache entries are reused.
+     */
+    static final FieldCache.IntParser INDEX_DAY_PARSER = new FieldCache.IntParser() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int parseInt(final String value) {
+            try {
+                return (int) (DateTools.stringToTime(value) / MSEC_PER_DAY);
+            } catch (java.text.ParseException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "RecencyBoostingQuery.INDEX_DAY_PARSER";
+        }
+    };
+
+    private final double multiplier;
+    private final int maxDaysAgo;
+    private final int today;
+
+    public RecencyBoostingQuery(final org.apache.lucene.search.Query q,
+            final double multiplier, final int maxDaysAgo, final long now) {
+        this(q, new RecencyValueSource(multiplier, maxDaysAgo,
+                (int) (now / MSEC_PER_DAY)));
+    }
+
+    private RecencyBoostingQuery(final org.apache.lucene.search.Query q,
+            final RecencyValueSource valueSource) {
+        super(q, new ValueSourceQuery(valueSource));
+        setStrict(true);
+        this.multiplier = valueSource.multiplier;
+        this.maxDaysAgo = valueSource.maxDaysAgo;
+        this.today = valueSource.today;
     }
 
+    @Override
     public float customScore(int doc, float subQueryScore, float valSrcScore) {
-        if (daysAgo[doc] < maxDaysAgo) {
-            float boost = (float) (multiplier * (maxDaysAgo - daysAgo[doc]) / maxDaysAgo);
-            return (float) (subQueryScore * (1.0 + boost));
-        } else {
-            return subQueryScore;
-        }
+        return subQueryScore * valSrcScore;
     }
 
     /**
@@ -41,9 +84,9 @@ public class RecencyBoostingQuery extends CustomScoreQuery {
             return false;
         }
         RecencyBoostingQuery rhs = (RecencyBoostingQuery) object;
-        return new EqualsBuilder().append(this.daysAgo, rhs.daysAgo).append(
-                this.multiplier, rhs.multiplier).append(maxDaysAgo,
-                rhs.maxDaysAgo).isEquals();
+        return new EqualsBuilder().append(this.multiplier, rhs.multiplier)
+                .append(maxDaysAgo, rhs.maxDaysAgo).append(today, rhs.today)
+                .isEquals();
     }
 
     /**
@@ -51,8 +94,77 @@ public class RecencyBoostingQuery extends CustomScoreQuery {
      */
     @Override
     public int hashCode() {
-        return new HashCodeBuilder(786529047, 1924536713).append(this)
-                .toHashCode();
+        return new HashCodeBuilder(786529047, 1924536713).appendSuper(
+                super.hashCode()).append(multiplier).append(maxDaysAgo)
+                .append(today).toHashCode();
     }
 
-};
\ No newline at end of file
+    /**
+     * Value source that returns recency boost of each document in a segment
+     */
+    static class RecencyValueSource extends ValueSource {
+        private static final long serialVersionUID = 1L;
+        private final double multiplier;
+        private final int maxDaysAgo;
+        private final int today;
+
+        RecencyValueSource(final double multiplier, final int maxDaysAgo,
+                final int today) {
+            this.multiplier = multiplier;
+            this.maxDaysAgo = maxDaysAgo;
+            this.today = today;
+        }
+
+        @Override
+        public DocValues getValues(final IndexReader reader)
+                throws IOException {
+            final int[] indexDays = FieldCache.DEFAULT.getInts(reader,
+                    INDEX_DATE, INDEX_DAY_PARSER);
+            return new DocValues() {
+                @Override
+                public float floatVal(int doc) {
+                    return boost(indexDays[doc]);
+                }
+
+                @Override
+                public String toString(int doc) {
+                    return description() + "=" + floatVal(doc);
+                }
+            };
+        }
+
+        float boost(final int indexDay) {
+            final int daysAgo = today - indexDay;
+            if (indexDay > 0 && daysAgo < maxDaysAgo) {
+                return (float) (1.0 + multiplier * (maxDaysAgo - daysAgo)
+                        / maxDaysAgo);
+            } else {
+                return 1.0F;
+            }
+        }
+
+        @Override
+        public String description() {
+            return "recency(" + INDEX_DATE + ", multiplier=" + multiplier
+                    + ", maxDaysAgo=" + maxDaysAgo + ")";
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof RecencyValueSource)) {
+                return false;
+            }
+            RecencyValueSource rhs = (RecencyValueSource) object;
+            return new EqualsBuilder().append(this.multiplier, rhs.multiplier)
+                    .append(maxDaysAgo, rhs.maxDaysAgo).append(today,
+                            rhs.today).isEquals();
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder(786529047, 1924536713)
+                    .append(multiplier).append(maxDaysAgo).append(today)
+                    .toHashCode();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.plexobject.docusearch.query.lucene;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.ScoreCachingWrappingScorer;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+/**
+ * This collector skips hits that come before or at the given sort values in
+ * the order of the sort and passes the rest to the underlying collector, so
+ * that the next page only keeps as many hits as the page needs. It also
+ * counts all matching documents for the total.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
+class SearchAfterCollector extends Collector {
+    private final Collector collector;
+    private final SortField[] sortFields;
+    private final FieldComparator[] comparators;
+    private final Comparable<?>[] after;
+    private int totalHits;
+
+    /**
+     * @param collector
+     *            - collector of the hits after the given sort values
+     * @param sort
+     *            - sort of the hits
+     * @param after
+     *            - sort values of the last hit of the previous page or null
+     *            for the first page
+     */
+    SearchAfterCollector(final Collector collector, final Sort sort,
+            final Comparable<?>[] after) throws IOException {
+        if (collector == null) {
+            throw new NullPointerException("collector is null");
+        }
+        this.collector = collector;
+        this.sortFields = sort.getSort();
+        this.after = after;
+        this.comparators = new FieldComparator[after != null ? sortFields.length
+                : 0];
+        for (int i = 0; i < comparators.length; i++) {
+            comparators[i] = sortFields[i].getComparator(1, i);
+        }
+    }
+
+    @Override
+    public void setScorer(final Scorer scorer) throws IOException {
+        // score is read here and by the underlying collector
+        final Scorer cachingScorer = new ScoreCachingWrappingScorer(scorer);
+        for (FieldComparator comparator : comparators) {
+            comparator.setScorer(cachingScorer);
+        }
+        collector.setScorer(cachingScorer);
+    }
+
+    @Override
+    public void collect(final int doc) throws IOException {
+        totalHits++;
+        if (after != null && !isAfter(doc)) {
+            return;
+        }
+        collector.collect(doc);
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean isAfter(final int doc) throws IOException {
+        for (int i = 0; i < comparators.length; i++) {
+            comparators[i].copy(0, doc);
+            final Comparable<Object> value = comparators[i].value(0);
+            int cmp = value == null ? (after[i] == null ? 0 : -1)
+                    : after[i] == null ? 1 : value.compareTo(after[i]);
+            // higher scores come first
+            if (sortFields[i].getType() == SortField.SCORE) {
+                cmp = -cmp;
+            }
+            if (sortFields[i].getReverse()) {
+                cmp = -cmp;
+            }
+            if (cmp != 0) {
+                return cmp > 0;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void setNextReader(final IndexReader reader, final int docBase)
+            throws IOException {
+        for (FieldComparator comparator : comparators) {
+            comparator.setNextReader(reader, docBase);
+        }
+        collector.setNextReader(reader, docBase);
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+        return collector.acceptsDocsOutOfOrder();
+    }
+
+    /**
+     * @return number of all matching documents including the skipped ones
+     */
+    int getTotalHits() {
+        return totalHits;
+    }
+}
@@ -0,0 +1,185 @@
+package com.plexobject.docusearch.query.lucene;
+
+import java.io.UnsupportedEncodingException;
+
+import org.apache.lucene.search.SortField;
+
+import com.plexobject.docusearch.query.QueryCriteria;
+
+/**
+ * This class encodes the sort values of the last hit of a page into an opaque
+ * cursor and decodes them back for the next page. The sort of cursor based
+ * paging ends with the unique id of documents, so the cursor stays valid
+ * when the index changes between pages: documents added or removed before
+ * the cursor don't shift the next page.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
+final class SearchCursor {
+    private static final char SEPARATOR = '.';
+    private static final String UTF8 = "UTF-8";
+
+    private SearchCursor() {
+    }
+
+    /**
+     * @param values
+     *            - values of the sort fields of the last hit
+     * @return cursor for the next page
+     */
+    static String encode(final Comparable<?>[] values) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(SEPARATOR);
+            }
+            final Object value = values[i];
+            if (value == null) {
+                sb.append('n');
+            } else if (value instanceof String) {
+                sb.append('s').append(toHex((String) value));
+            } else if (value instanceof Float) {
+                sb.append('f').append(
+                        Integer.toHexString(Float
+                                .floatToIntBits((Float) value)));
+            } else if (value instanceof Double) {
+                sb.append('d').append(
+                        Long.toHexString(Double
+                                .doubleToLongBits((Double) value)));
+            } else if (value instanceof Integer) {
+                sb.append('i').append(Integer.toHexString((Integer) value));
+            } else if (value instanceof Long) {
+                sb.append('l').append(Long.toHexString((Long) value));
+            } else {
+                throw new IllegalArgumentException("unsupported sort value "
+                        + value + " of " + value.getClass().getName());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param cursor
+     *            - cursor returned with the previous page or
+     *            QueryCriteria.FIRST_CURSOR
+     * @param sortFields
+     *            - sort of cursor based paging
+     * @return sort values of the last hit of the previous page or null for
+     *         the first page
+     * @throws IllegalArgumentException
+     *             if the cursor is invalid or doesn't match the sort
+     */
+    static Comparable<?>[] decode(final String cursor,
+            final SortField[] sortFields) {
+        if (QueryCriteria.FIRST_CURSOR.equals(cursor)) {
+            return null;
+        }
+        final String[] parts = cursor.split("\\" + SEPARATOR, -1);
+        if (parts.length != sortFields.length) {
+            throw new IllegalArgumentException("invalid cursor " + cursor);
+        }
+        final Comparable<?>[] values = new Comparable<?>[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                values[i] = toValue(parts[i]);
+                if (values[i] != null
+                        && !isValueOf(values[i], sortFields[i].getType())) {
+                    throw new IllegalArgumentException("cursor " + cursor
+                            + " doesn't match the sort");
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid cursor " + cursor);
+        } catch (StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("invalid cursor " + cursor);
+        }
+        return values;
+    }
+
+    private static Comparable<?> toValue(final String part) {
+        if (part.length() == 0) {
+            throw new NumberFormatException("empty value");
+        }
+        final String value = part.substring(1);
+        switch (part.charAt(0)) {
+        case 'n':
+            if (value.length() > 0) {
+                throw new NumberFormatException(part);
+            }
+            return null;
+        case 's':
+            return fromHex(value);
+        case 'f':
+            return Float.intBitsToFloat((int) Long.parseLong(value, 16));
+        case 'd':
+            return Double.longBitsToDouble(parseLong(value));
+        case 'i':
+            return (int) Long.parseLong(value, 16);
+        case 'l':
+            return parseLong(value);
+        default:
+            throw new NumberFormatException(part);
+        }
+    }
+
+    // parses all 64 bits of the hex value
+    private static long parseLong(final String value) {
+        if (value.length() == 0 || value.length() > 16) {
+            throw new NumberFormatException(value);
+        }
+        final int split = Math.max(0, value.length() - 8);
+        final long high = split > 0 ? Long.parseLong(
+                value.substring(0, split), 16) : 0;
+        return (high << 32) | Long.parseLong(value.substring(split), 16);
+    }
+
+    private static boolean isValueOf(final Object value, final int type) {
+        switch (type) {
+        case SortField.SCORE:
+        case SortField.FLOAT:
+            return value instanceof Float;
+        case SortField.DOC:
+        case SortField.INT:
+            return value instanceof Integer;
+        case SortField.LONG:
+            return value instanceof Long;
+        case SortField.DOUBLE:
+            return value instanceof Double;
+        case SortField.STRING:
+            return value instanceof String;
+        default:
+            return true;
+        }
+    }
+
+    private static String toHex(final String value) {
+        try {
+            final byte[] bytes = value.getBytes(UTF8);
+            final StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String fromHex(final String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new NumberFormatException(hex);
+        }
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2),
+                    16);
+        }
+        try {
+            return new String(bytes, UTF8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
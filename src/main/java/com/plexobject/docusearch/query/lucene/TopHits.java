@@ -0,0 +1,128 @@
+package com.plexobject.docusearch.query.lucene;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+/**
+ * This class holds a page of matching lucene document numbers and their
+ * scores in parallel primitive arrays along with the total number of hits.
+ * Hits that were sorted by fields also keep the values of the sort fields.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
+final class TopHits {
+    static final TopHits EMPTY = new TopHits(0, new int[0], new float[0]);
+
+    private final int totalHits;
+    private final int[] docs;
+    private final float[] scores;
+    private final boolean partial;
+    private final String cursor;
+    private final Comparable<?>[][] sortValues;
+
+    TopHits(final int totalHits, final int[] docs, final float[] scores) {
+        this(totalHits, docs, scores, false, null);
+    }
+
+    TopHits(final int totalHits, final int[] docs, final float[] scores,
+            final boolean partial) {
+        this(totalHits, docs, scores, partial, null);
+    }
+
+    TopHits(final int totalHits, final int[] docs, final float[] scores,
+            final boolean partial, final String cursor) {
+        this(totalHits, docs, scores, partial, cursor, null);
+    }
+
+    TopHits(final int totalHits, final int[] docs, final float[] scores,
+            final boolean partial, final String cursor,
+            final Comparable<?>[][] sortValues) {
+        if (docs.length != scores.length) {
+            throw new IllegalArgumentException("docs " + docs.length
+                    + " and scores " + scores.length + " don't match");
+        }
+        this.totalHits = totalHits;
+        this.docs = docs;
+        this.scores = scores;
+        this.partial = partial;
+        this.cursor = cursor;
+        this.sortValues = sortValues;
+    }
+
+    /**
+     * @param topDocs
+     *            - top docs that were already sliced to the requested page
+     * @return hits of the page
+     */
+    static TopHits valueOf(final TopDocs topDocs) {
+        return valueOf(topDocs, false);
+    }
+
+    /**
+     * @param topDocs
+     *            - top docs that were already sliced to the requested page
+     * @param partial
+     *            - whether collection was stopped before all hits were seen
+     * @return hits of the page
+     */
+    static TopHits valueOf(final TopDocs topDocs, final boolean partial) {
+        final ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+        final int[] docs = new int[scoreDocs.length];
+        final float[] scores = new float[scoreDocs.length];
+        final Comparable<?>[][] sortValues = scoreDocs.length > 0
+                && scoreDocs[0] instanceof FieldDoc ? new Comparable<?>[scoreDocs.length][]
+                : null;
+        for (int i = 0; i < scoreDocs.length; i++) {
+            docs[i] = scoreDocs[i].doc;
+            scores[i] = scoreDocs[i].score;
+            if (sortValues != null) {
+                sortValues[i] = ((FieldDoc) scoreDocs[i]).fields;
+            }
+        }
+        return new TopHits(topDocs.totalHits, docs, scores, partial, null,
+                sortValues);
+    }
+
+    int getTotalHits() {
+        return totalHits;
+    }
+
+    int size() {
+        return docs.length;
+    }
+
+    int getDoc(final int i) {
+        return docs[i];
+    }
+
+    float getScore(final int i) {
+        return scores[i];
+    }
+
+    /**
+     * @return values of the sort fields of the hit or null if the hits were
+     *         not sorted by fields
+     */
+    Comparable<?>[] getSortValues(final int i) {
+        return sortValues != null ? sortValues[i] : null;
+    }
+
+    boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * @return cursor of the next page for cursor based paging
+     */
+    String getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public String toString() {
+        return "TopHits " + docs.length + "/" + totalHits
+                + (partial ? " (partial)" : "");
+    }
+}
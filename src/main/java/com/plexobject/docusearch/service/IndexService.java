@@ -83,4 +83,12 @@ public interface IndexService {
             String policyName, String sourceDatabase, String joinDatabase,
             String indexIdInJoinDatabase, String sourceIdInJoinDatabase,
             String docIds);
+
+    /**
+     * This method merges all segments of the index into one, which is only
+     * done on demand as it is expensive for large indexes.
+     * 
+     * @param index
+     */
+    public Response optimizeIndex(String index);
 }
@@ -34,4 +34,22 @@ public interface SearchAdminService {
      * @return JSONArray with top ranking terms
      */
     Response getTopRankingTerms(String index, int numTerms);
+
+    /**
+     * This method backs up the last commit of the index to the backup
+     * directory without stopping indexing. Only files that are not in the
+     * previous backup are copied.
+     * 
+     * @param index
+     * @return JSONObject with generation and number of copied files and bytes
+     */
+    Response backupIndex(String index);
+
+    /**
+     * 
+     * @param index
+     * @return JSONObject with number of segments and statistics of background
+     *         merges of the index
+     */
+    Response getMergeStats(String index);
 }
@@ -30,13 +30,52 @@ public interface SearchService {
      * @param limit
      * @param details
      *            - send detailed results
+     * @param timeoutMillis
+     *            - max time to search, 0 uses the server default
+     * @param cursor
+     *            - cursor returned with the previous page or * to start
+     *            cursor based paging in relevance order
      * @return JSONObject for SearchDocList
      */
     Response query(String index, String owner, String keywords, String zipCode,
             String city, String state, String country, String region,
             float radius, String sortBy, boolean sortAscending,
             boolean includeSuggestions, int start, int limit,
-            boolean detailedResults);
+            boolean detailedResults, long timeoutMillis,
+            String cursor);
+
+    /**
+     * This method queries multiple indexes concurrently with keywords and
+     * returns JSONObject for merged SearchDocList.
+     * 
+     * @param indexes
+     *            - comma separated names of indexes
+     * @param owner
+     * @param keywords
+     * @param zipCode
+     * @param city
+     * @param state
+     * @param country
+     * @param region
+     * @param radius
+     *            - for spatial search
+     * @param sortBy
+     * @param ascending
+     * @param includeSuggestions
+     *            - include suggestions for similar keywords
+     * @param start
+     * @param limit
+     * @param details
+     *            - send detailed results
+     * @param timeoutMillis
+     *            - max time to search, 0 uses the server default
+     * @return JSONObject for SearchDocList
+     */
+    Response queryMultiple(String indexes, String owner, String keywords,
+            String zipCode, String city, String state, String country,
+            String region, float radius, String sortBy, boolean sortAscending,
+            boolean includeSuggestions, int start, int limit,
+            boolean detailedResults, long timeoutMillis);
 
     /**
      * This method finds similar results for given document id
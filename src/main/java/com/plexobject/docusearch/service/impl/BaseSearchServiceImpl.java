@@ -14,6 +14,7 @@ import org.codehaus.jettison.json.JSONObject;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.plexobject.docusearch.Configuration;
 import com.plexobject.docusearch.cache.CacheDisposer;
 import com.plexobject.docusearch.cache.CacheLoader;
 import com.plexobject.docusearch.cache.CachedMap;
@@ -26,6 +27,7 @@ import com.plexobject.docusearch.persistence.DocumentRepository;
 import com.plexobject.docusearch.query.Query;
 import com.plexobject.docusearch.query.SearchDoc;
 import com.plexobject.docusearch.query.SearchDocList;
+import com.plexobject.docusearch.query.lucene.CachingQuery;
 import com.plexobject.docusearch.query.lucene.QueryImpl;
 import com.plexobject.docusearch.util.SpatialLookup;
 import com.sun.jersey.spi.inject.Inject;
@@ -34,8 +36,12 @@ public class BaseSearchServiceImpl implements InitializingBean {
     final Logger LOGGER = Logger.getLogger(getClass());
     private static final long INDEFINITE = 0;
 
+    private static final int MAX_CACHED_QUERIES = Configuration.getInstance()
+            .getInteger("cache.search.queries.max.size", 24);
+
     final Map<File, Query> cachedQueries = new CachedMap<File, Query>(
-            INDEFINITE, 24, new CacheLoader<File, Query>() {
+            "searchQueries", INDEFINITE, MAX_CACHED_QUERIES,
+            new CacheLoader<File, Query>() {
                 @Override
                 public Query get(File dir) {
                     return newQueryImpl(dir);
@@ -138,9 +144,12 @@ public class BaseSearchServiceImpl implements InitializingBean {
         for (SearchDoc result : results) {
             JSONObject resultJson = Converters.getInstance().getConverter(
                     Object.class, JSONObject.class).convert(result);
+            // sort values are only used to merge results of several indexes
+            resultJson.remove(SearchDoc.SORT);
             if (detailedResults) {
-                Document doc = documentRepository.getDocument(index, result
-                        .getId());
+                Document doc = documentRepository.getDocument(
+                        index != null ? index : result.getDatabase(), result
+                                .getId());
                 JSONObject jsonDoc = Converters.getInstance().getConverter(
                         Object.class, JSONObject.class).convert(doc);
                 Iterator<String> it = jsonDoc.keys();
@@ -165,6 +174,7 @@ public class BaseSearchServiceImpl implements InitializingBean {
     }
 
     protected Query newQueryImpl(final File dir) {
-        return new QueryImpl(dir);
+        final QueryImpl query = new QueryImpl(dir);
+        return CachingQuery.isEnabled() ? new CachingQuery(query) : query;
     }
 }
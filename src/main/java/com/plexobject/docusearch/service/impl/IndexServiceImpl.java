@@ -459,6 +459,44 @@ public class IndexServiceImpl implements IndexService, InitializingBean {
 
     }
 
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes( { MediaType.WILDCARD })
+    @Path("/optimize/{index}")
+    @Override
+    public Response optimizeIndex(@PathParam("index") final String index) {
+        if (!ACTIVATE_INDEX) {
+            return Response.status(RestClient.SERVICE_UNAVAILABLE).type(
+                    "text/plain").entity("Index Service is not available\n")
+                    .build();
+        }
+        if (GenericValidator.isBlankOrNull(index)) {
+            return Response.status(RestClient.CLIENT_ERROR_BAD_REQUEST).type(
+                    "text/plain").entity("index not specified\n").build();
+        }
+        if (index.contains("\"")) {
+            return Response.status(RestClient.CLIENT_ERROR_BAD_REQUEST).type(
+                    "text/plain").entity("index name is valid " + index + "\n")
+                    .build();
+        }
+        final Timer timer = Metric.newTimer("IndexServiceImpl.optimizeIndex");
+        try {
+            documentsDatabaseIndexer.optimize(index);
+            mbean.incrementRequests();
+
+            return Response.ok().entity("optimized index " + index + "\n")
+                    .build();
+        } catch (Exception e) {
+            LOGGER.error("failed to optimize index " + index, e);
+            mbean.incrementError();
+            return Response.status(RestClient.SERVER_INTERNAL_ERROR).type(
+                    "text/plain").entity(
+                    "failed to optimize index " + index + "\n").build();
+        } finally {
+            timer.stop();
+        }
+    }
+
     /**
      * @return the documentsDatabaseIndexer
      */
@@ -6,6 +6,7 @@ import java.util.Collection;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -14,6 +15,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.apache.commons.validator.GenericValidator;
+import org.apache.lucene.store.Directory;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONObject;
 import org.springframework.context.annotation.Scope;
@@ -22,7 +24,9 @@ import org.springframework.stereotype.Component;
 import com.plexobject.docusearch.converter.Converters;
 import com.plexobject.docusearch.http.RestClient;
 import com.plexobject.docusearch.index.IndexPolicy;
+import com.plexobject.docusearch.lucene.IndexWriterManager;
 import com.plexobject.docusearch.lucene.LuceneUtils;
+import com.plexobject.docusearch.lucene.MergeStatsScheduler;
 import com.plexobject.docusearch.metrics.Metric;
 import com.plexobject.docusearch.metrics.Timer;
 import com.plexobject.docusearch.query.CriteriaBuilder;
@@ -180,4 +184,118 @@ public class SearchAdminServiceImpl extends BaseSearchServiceImpl implements
         }
     }
 
+    /**
+     * 
+     * @param index
+     * @return JSONObject with generation and number of copied files and bytes
+     */
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes( { MediaType.WILDCARD })
+    @Path("/backup/{index}")
+    @Override
+    public Response backupIndex(@PathParam("index") final String index) {
+        final Response error = checkIndexDir(index);
+        if (error != null) {
+            return error;
+        }
+        final File dir = new File(LuceneUtils.INDEX_DIR, index);
+
+        final Timer timer = Metric.newTimer("SearchAdminServiceImpl.backup");
+
+        try {
+            // never opens a writer, which would take the write lock
+            final IndexWriterManager.Backup backup = IndexWriterManager
+                    .backup(LuceneUtils.toFSDirectory(dir), new File(
+                            LuceneUtils.BACKUP_DIR, index));
+            final JSONObject response = new JSONObject();
+            response.put("index", index);
+            response.put("generation", backup.getGeneration());
+            response.put("files", backup.getNumFiles());
+            response.put("copied", backup.getNumCopied());
+            response.put("bytes", backup.getBytesCopied());
+
+            timer.stop("backed up " + index + ", " + backup);
+            mbean.incrementRequests();
+
+            return Response.ok(response.toString()).build();
+        } catch (Exception e) {
+            LOGGER.error("failed to backup " + index, e);
+            mbean.incrementError();
+            return Response.status(RestClient.SERVER_INTERNAL_ERROR).type(
+                    "text/plain").entity("failed to backup " + index + "\n")
+                    .build();
+        }
+    }
+
+    /**
+     * 
+     * @param index
+     * @return JSONObject with number of segments and statistics of background
+     *         merges of the index, which are only available while a writer is
+     *         open for the index
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes( { MediaType.WILDCARD })
+    @Path("/merges/{index}")
+    @Override
+    public Response getMergeStats(@PathParam("index") final String index) {
+        final Response error = checkIndexDir(index);
+        if (error != null) {
+            return error;
+        }
+        final File dir = new File(LuceneUtils.INDEX_DIR, index);
+
+        try {
+            final Directory directory = LuceneUtils.toFSDirectory(dir);
+            final IndexWriterManager manager = IndexWriterManager
+                    .getOpenInstance(directory);
+            final JSONObject response = new JSONObject();
+            response.put("index", index);
+            response.put("segments", IndexWriterManager
+                    .getSegmentCount(directory));
+            response.put("open", manager != null);
+            if (manager != null) {
+                final MergeStatsScheduler scheduler = manager
+                        .getMergeScheduler();
+                response.put("merges", scheduler.getNumMerges());
+                response.put("failed", scheduler.getNumFailed());
+                response.put("running", scheduler.getRunning());
+                response.put("totalMergeMillis", scheduler
+                        .getTotalMergeMillis());
+                response.put("maxMergeMillis", scheduler.getMaxMergeMillis());
+                response.put("lastMerge", scheduler.getLastMerge());
+            }
+            mbean.incrementRequests();
+
+            return Response.ok(response.toString()).build();
+        } catch (Exception e) {
+            LOGGER.error("failed to get merge stats for " + index, e);
+            mbean.incrementError();
+            return Response.status(RestClient.SERVER_INTERNAL_ERROR).type(
+                    "text/plain").entity(
+                    "failed to get merge stats for " + index + "\n").build();
+        }
+    }
+
+    // returns error response unless index names an existing index directory
+    private static Response checkIndexDir(final String index) {
+        if (GenericValidator.isBlankOrNull(index)) {
+            return Response.status(RestClient.CLIENT_ERROR_BAD_REQUEST).type(
+                    "text/plain").entity("index not specified").build();
+        }
+        if (index.contains("\"") || index.contains("/")
+                || index.contains("..")) {
+            return Response.status(RestClient.CLIENT_ERROR_BAD_REQUEST).type(
+                    "text/plain").entity("index name is valid " + index + "\n")
+                    .build();
+        }
+        if (!new File(LuceneUtils.INDEX_DIR, index).isDirectory()) {
+            return Response.status(RestClient.CLIENT_ERROR_NOT_FOUND).type(
+                    "text/plain").entity("index not found " + index + "\n")
+                    .build();
+        }
+        return null;
+    }
 }
@@ -3,6 +3,8 @@ package com.plexobject.docusearch.service.impl;
 import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
@@ -26,6 +28,7 @@ import com.plexobject.docusearch.lucene.LuceneUtils;
 import com.plexobject.docusearch.metrics.Metric;
 import com.plexobject.docusearch.metrics.Timer;
 import com.plexobject.docusearch.query.CriteriaBuilder;
+import com.plexobject.docusearch.query.MultiIndexQuery;
 import com.plexobject.docusearch.query.Query;
 import com.plexobject.docusearch.query.QueryCriteria;
 import com.plexobject.docusearch.query.QueryPolicy;
@@ -57,7 +60,9 @@ public class SearchServiceImpl extends BaseSearchServiceImpl implements
             @DefaultValue("false") @QueryParam("suggestions") final boolean includeSuggestions,
             @DefaultValue("0") @QueryParam("start") final int start,
             @DefaultValue("20") @QueryParam("limit") final int limit,
-            @DefaultValue("false") @QueryParam("detailedResults") final boolean detailedResults) {
+            @DefaultValue("false") @QueryParam("detailedResults") final boolean detailedResults,
+            @DefaultValue("0") @QueryParam("timeout") final long timeoutMillis,
+            @QueryParam("cursor") final String cursor) {
         if (GenericValidator.isBlankOrNull(index)) {
             return Response.status(RestClient.CLIENT_ERROR_BAD_REQUEST).type(
                     "text/plain").entity("index not specified").build();
@@ -78,23 +83,10 @@ public class SearchServiceImpl extends BaseSearchServiceImpl implements
             IndexPolicy indexPolicy = configRepository.getIndexPolicy(index);
 
             QueryPolicy queryPolicy = configRepository.getQueryPolicy(index);
-            final CriteriaBuilder criteriaBuilder = new CriteriaBuilder()
-                    .setKeywords(keywords).setOwner(owner);
-            if (!GenericValidator.isBlankOrNull(zipCode)) {
-                criteriaBuilder.setZipcode(zipCode);
-                double[] latLongs = spatialLookup
-                        .getLatitudeAndLongitude(zipCode);
-                criteriaBuilder.setLatitude(latLongs[0]);
-                criteriaBuilder.setLongitude(latLongs[1]);
-            }
-            criteriaBuilder.setCity(city);
-            criteriaBuilder.setState(state);
-            criteriaBuilder.setCountry(country);
-            criteriaBuilder.setRegion(region);
-            criteriaBuilder.setRadius(radius);
-            criteriaBuilder.setSortBy(sortBy, sortAscending);
-
-            final QueryCriteria criteria = criteriaBuilder.build();
+            final QueryCriteria criteria = new CriteriaBuilder(newCriteria(
+                    owner, keywords, zipCode, city, state, country, region,
+                    radius, sortBy, sortAscending, timeoutMillis,
+                    detailedResults)).setCursor(cursor).build();
 
             final File dir = new File(LuceneUtils.INDEX_DIR, index);
 
@@ -121,6 +113,10 @@ public class SearchServiceImpl extends BaseSearchServiceImpl implements
             response.put("links", createQueryLinks(index, keywords, zipCode,
                     includeSuggestions, limit, detailedResults, results));
             response.put("totalHits", results.getTotalHits());
+            response.put("partial", results.isPartial());
+            if (results.getCursor() != null) {
+                response.put("cursor", results.getCursor());
+            }
             response.put("docs", docs);
 
             timer.stop("Found " + results.getTotalHits() + " hits for "
@@ -131,6 +127,13 @@ public class SearchServiceImpl extends BaseSearchServiceImpl implements
 
             return Response.ok(response.toString()).build();
 
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("invalid query " + index + " with " + keywords
+                    + " from " + start + "/" + limit + " due to " + e);
+            mbean.incrementError();
+
+            return Response.status(RestClient.CLIENT_ERROR_BAD_REQUEST).type(
+                    "text/plain").entity(e.getMessage() + "\n").build();
         } catch (Exception e) {
             LOGGER.error("failed to query " + index + " with " + keywords
                     + " from " + start + "/" + limit, e);
@@ -144,6 +147,132 @@ public class SearchServiceImpl extends BaseSearchServiceImpl implements
         }
     }
 
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes( { MediaType.TEXT_HTML, MediaType.APPLICATION_JSON })
+    @Path("multi/{indexes}")
+    @Override
+    public Response queryMultiple(
+            @PathParam("indexes") final String indexes,
+            @QueryParam("owner") final String owner,
+            @QueryParam("q") final String keywords,
+            @QueryParam("zipCode") final String zipCode,
+            @QueryParam("city") final String city,
+            @QueryParam("state") final String state,
+            @QueryParam("country") final String country,
+            @QueryParam("region") final String region,
+            @DefaultValue("50") @QueryParam("radius") final float radius,
+            @QueryParam("sort") final String sortBy,
+            @DefaultValue("true") @QueryParam("asc") final boolean sortAscending,
+            @DefaultValue("false") @QueryParam("suggestions") final boolean includeSuggestions,
+            @DefaultValue("0") @QueryParam("start") final int start,
+            @DefaultValue("20") @QueryParam("limit") final int limit,
+            @DefaultValue("false") @QueryParam("detailedResults") final boolean detailedResults,
+            @DefaultValue("0") @QueryParam("timeout") final long timeoutMillis) {
+        if (GenericValidator.isBlankOrNull(indexes)) {
+            return Response.status(RestClient.CLIENT_ERROR_BAD_REQUEST).type(
+                    "text/plain").entity("indexes not specified").build();
+        }
+        if (indexes.contains("\"")) {
+            return Response.status(RestClient.CLIENT_ERROR_BAD_REQUEST).type(
+                    "text/plain").entity(
+                    "index names are not valid " + indexes + "\n").build();
+        }
+
+        if (GenericValidator.isBlankOrNull(keywords)) {
+            return Response.status(RestClient.CLIENT_ERROR_BAD_REQUEST).type(
+                    "text/plain").entity("keywrods not specified").build();
+        }
+        final Timer timer = Metric.newTimer("SearchServiceImpl.queryMultiple");
+
+        try {
+            final QueryCriteria criteria = newCriteria(owner, keywords,
+                    zipCode, city, state, country, region, radius, sortBy,
+                    sortAscending, timeoutMillis, detailedResults);
+            final List<MultiIndexQuery.Target> targets = new ArrayList<MultiIndexQuery.Target>();
+            for (String index : indexes.split(",")) {
+                index = index.trim();
+                if (index.length() == 0) {
+                    continue;
+                }
+                final File dir = new File(LuceneUtils.INDEX_DIR, index);
+                targets.add(new MultiIndexQuery.Target(index,
+                        getQueryImpl(dir), configRepository
+                                .getIndexPolicy(index), configRepository
+                                .getQueryPolicy(index)));
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Searching " + criteria + " using " + targets);
+            }
+            SearchDocList results = new MultiIndexQuery(targets).search(
+                    criteria, includeSuggestions, start, limit);
+            JSONArray docs = docsToJson(null, detailedResults, results);
+            JSONArray similar = new JSONArray();
+            if (results.getSimilarWords() != null) {
+                for (String word : results.getSimilarWords()) {
+                    similar.put(word);
+                }
+            }
+            final JSONObject response = new JSONObject();
+
+            response.put("suggestions", similar);
+            response.put("q", keywords);
+            response.put("start", start);
+            response.put("limit", limit);
+            response.put("links", createQueryLinks("multi/" + indexes,
+                    keywords, zipCode, includeSuggestions, limit,
+                    detailedResults, results));
+            response.put("totalHits", results.getTotalHits());
+            response.put("partial", results.isPartial());
+            response.put("docs", docs);
+
+            timer.stop("Found " + results.getTotalHits() + " hits for "
+                    + keywords + " on indexes " + indexes + ", detailed "
+                    + detailedResults + ", start " + start + ", limit " + limit
+                    + ", suggestions " + includeSuggestions);
+            mbean.incrementRequests();
+
+            return Response.ok(response.toString()).build();
+
+        } catch (Exception e) {
+            LOGGER.error("failed to query " + indexes + " with " + keywords
+                    + " from " + start + "/" + limit, e);
+            mbean.incrementError();
+
+            return Response.status(RestClient.SERVER_INTERNAL_ERROR).type(
+                    "text/plain").entity(
+                    "failed to query " + indexes + " with " + keywords
+                            + " from " + start + "/" + limit + " due to " + e
+                            + "\n").build();
+        }
+    }
+
+    private QueryCriteria newCriteria(final String owner,
+            final String keywords, final String zipCode, final String city,
+            final String state, final String country, final String region,
+            final float radius, final String sortBy,
+            final boolean sortAscending, final long timeoutMillis,
+            final boolean detailedResults) {
+        final CriteriaBuilder criteriaBuilder = new CriteriaBuilder()
+                .setKeywords(keywords).setOwner(owner);
+        if (!GenericValidator.isBlankOrNull(zipCode)) {
+            criteriaBuilder.setZipcode(zipCode);
+            double[] latLongs = spatialLookup.getLatitudeAndLongitude(zipCode);
+            criteriaBuilder.setLatitude(latLongs[0]);
+            criteriaBuilder.setLongitude(latLongs[1]);
+        }
+        criteriaBuilder.setCity(city);
+        criteriaBuilder.setState(state);
+        criteriaBuilder.setCountry(country);
+        criteriaBuilder.setRegion(region);
+        criteriaBuilder.setRadius(radius);
+        criteriaBuilder.setSortBy(sortBy, sortAscending);
+        criteriaBuilder.setTimeoutMillis(timeoutMillis);
+        criteriaBuilder.setDetailedResults(detailedResults);
+        return criteriaBuilder.build();
+    }
+
     private JSONArray createQueryLinks(final String index,
             final String keywords, final String zipCode,
             final boolean includeSuggestions, final int limit,
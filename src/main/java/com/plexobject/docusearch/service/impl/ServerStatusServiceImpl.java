@@ -21,11 +21,13 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import com.plexobject.docusearch.cache.CacheFlusher;
+import com.plexobject.docusearch.cache.CacheStats;
 import com.plexobject.docusearch.http.RestClient;
 import com.plexobject.docusearch.jmx.JMXRegistrar;
 import com.plexobject.docusearch.jmx.impl.ServiceJMXBeanImpl;
 import com.plexobject.docusearch.metrics.Metric;
 import com.plexobject.docusearch.metrics.Timer;
+import com.plexobject.docusearch.query.lucene.CachingQuery;
 import com.plexobject.docusearch.service.ServerStatsService;
 import com.plexobject.docusearch.util.TimeUtils;
 
@@ -88,6 +90,9 @@ public class ServerStatusServiceImpl implements ServerStatsService {
             response.put("started", new Date(STARTED));
             response.put("uptime", uptime());
             response.put("cacheSizes", getCacheSizes());
+            response.put("caches", getCacheStats());
+            response.put("queryCacheHits", CachingQuery.getHits());
+            response.put("queryCacheMisses", CachingQuery.getMisses());
             response.put("metrics", getMetrics());
             response.put("systemStats", Timer.getSystemStats());
             response.put("serviceJMXBeans", getServiceJMXBeans());
@@ -134,6 +139,14 @@ public class ServerStatusServiceImpl implements ServerStatsService {
         return sizes;
     }
 
+    private JSONArray getCacheStats() throws JSONException {
+        final JSONArray caches = new JSONArray();
+        for (CacheStats stats : CacheFlusher.getInstance().getCacheStats()) {
+            caches.put(stats.toJSONObject());
+        }
+        return caches;
+    }
+
     private static String uptime() {
         final long elapsed = TimeUtils.getCurrentTimeMillis() - STARTED;
         return elapsed > 1000 ? String.format("%.2f secs", elapsed / 1000)
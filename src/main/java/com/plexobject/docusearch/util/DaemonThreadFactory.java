@@ -0,0 +1,30 @@
+package com.plexobject.docusearch.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class creates named daemon threads for background executors so that
+ * they don't prevent the JVM from shutting down.
+ *
+ * @author Shahzad Bhatti
+ *
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    public DaemonThreadFactory(final String prefix) {
+        if (prefix == null) {
+            throw new NullPointerException("prefix is null");
+        }
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }
+}
@@ -5,8 +5,10 @@ import java.util.Map;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.plexobject.docusearch.Configuration;
 import com.plexobject.docusearch.cache.CacheLoader;
 import com.plexobject.docusearch.cache.CachedMap;
+import com.plexobject.docusearch.cache.ObjectSizeWeigher;
 import com.plexobject.docusearch.domain.Document;
 import com.plexobject.docusearch.persistence.DocumentRepository;
 import com.sun.jersey.spi.inject.Inject;
@@ -15,9 +17,14 @@ import com.sun.jersey.spi.inject.Inject;
 public class SpatialLookup {
     private static final String ZIP_DATABASE = "the_zipcodes";
     private static final long INDEFINITE = 0;
+    private static final long MAX_CACHED_LAT_LONGS_BYTES = Configuration
+            .getInstance().getLong("cache.latlongs.max.bytes",
+                    4 * 1024 * 1024);
 
     private Map<String, double[]> cachedLatLongs = new CachedMap<String, double[]>(
-            INDEFINITE, 8192, new CacheLoader<String, double[]>() {
+            "latLongs", INDEFINITE, 8192, MAX_CACHED_LAT_LONGS_BYTES,
+            new ObjectSizeWeigher<String, double[]>(),
+            new CacheLoader<String, double[]>() {
                 @Override
                 public double[] get(String zip) {
                     return fetchLatitudeAndLongitude(zip);
@@ -0,0 +1,361 @@
+package com.plexobject.docusearch.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.plexobject.docusearch.util.TimeUtils;
+import com.plexobject.docusearch.util.TimeUtils.TimeSource;
+
+public class CachedMapTest {
+    @After
+    public void tearDown() throws Exception {
+        TimeUtils.setTimeSource(new TimeSource() {
+            @Override
+            public Date getCurrentTime() {
+                return new Date();
+            }
+        });
+    }
+
+    @Test
+    public void testConcurrentMissesLoadOnce() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final CachedMap<String, String> cache = new CachedMap<String, String>(
+                0, 10, new CacheLoader<String, String>() {
+                    @Override
+                    public String get(String key) {
+                        loads.incrementAndGet();
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return key.toUpperCase();
+                    }
+                }, null);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<String> values = new ArrayList<String>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 16; i++) {
+            final Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    final String value = cache.get("key");
+                    synchronized (values) {
+                        values.add(value);
+                    }
+                }
+            };
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(16, values.size());
+        for (String value : values) {
+            Assert.assertEquals("KEY", value);
+        }
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        final long now = System.currentTimeMillis();
+        final AtomicInteger secs = new AtomicInteger();
+        TimeUtils.setTimeSource(new TimeSource() {
+            @Override
+            public Date getCurrentTime() {
+                return new Date(now + secs.get() * 1000L);
+            }
+        });
+        final AtomicInteger loads = new AtomicInteger();
+        final CachedMap<String, Integer> cache = new CachedMap<String, Integer>(
+                "testRefreshAhead", 10, 10, 0, null,
+                new CacheLoader<String, Integer>() {
+                    @Override
+                    public Integer get(String key) {
+                        final int n = loads.incrementAndGet();
+                        if (n == 2) {
+                            throw new IllegalStateException("failed " + n);
+                        }
+                        return n;
+                    }
+                }, null, 0.5, 0.5);
+        Assert.assertEquals(Integer.valueOf(1), cache.get("key"));
+        secs.set(4);
+        Assert.assertEquals(Integer.valueOf(1), cache.get("key"));
+        Assert.assertEquals(1, loads.get());
+
+        // failed reload keeps serving old value
+        secs.set(6);
+        Assert.assertEquals(Integer.valueOf(1), cache.get("key"));
+        waitForLoads(cache, 2);
+        Assert.assertEquals(1, cache.getStats().getLoadFailures());
+        Assert.assertEquals(Integer.valueOf(1), cache.get("key"));
+        waitForLoads(cache, 3);
+        Assert.assertEquals(Integer.valueOf(3), cache.get("key"));
+        Assert.assertEquals(2, cache.getStats().getReloads());
+
+        // values past expiration and grace period are loaded synchronously
+        secs.set(30);
+        Assert.assertEquals(Integer.valueOf(4), cache.get("key"));
+        Assert.assertEquals(4, cache.getStats().getLoads());
+        Assert.assertEquals(1, cache.getStats().getExpirations());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        final CachedMap<Integer, Integer> cache = new CachedMap<Integer, Integer>(
+                0, 10);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, i);
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(Integer.valueOf(0), cache.get(0));
+        cache.put(10, 10);
+        Assert.assertTrue(cache.size() <= 10);
+        Assert.assertTrue(cache.containsKey(0));
+        Assert.assertTrue(cache.containsKey(10));
+        Assert.assertFalse(cache.containsKey(1));
+        Assert.assertEquals(11 - cache.size(), cache.getStats()
+                .getSizeEvictions());
+    }
+
+    @Test
+    public void testEvictByWeight() throws Exception {
+        final CachedMap<Integer, String> cache = new CachedMap<Integer, String>(
+                "testEvictByWeight", 0, 100, 1000,
+                new CacheWeigher<Integer, String>() {
+                    @Override
+                    public long weigh(Integer key, String value) {
+                        return value.length();
+                    }
+                }, null, null);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, repeat('x', 100));
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(1000, cache.getWeight());
+        cache.get(0);
+        cache.put(10, repeat('y', 200));
+        Assert.assertTrue(String.valueOf(cache.getWeight()), cache
+                .getWeight() <= 900);
+        Assert.assertTrue(cache.containsKey(0));
+        Assert.assertTrue(cache.containsKey(10));
+        Assert.assertFalse(cache.containsKey(1));
+        Assert.assertEquals(cache.getWeight(), cache.getStats()
+                .getEstimatedMemoryBytes());
+
+        // entries heavier than max weight are not cached
+        cache.put(0, repeat('z', 1001));
+        Assert.assertFalse(cache.containsKey(0));
+        long weight = 0;
+        for (String value : cache.values()) {
+            weight += value.length();
+        }
+        Assert.assertEquals(weight, cache.getWeight());
+        cache.flushCache();
+        Assert.assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testObjectSizeWeigher() throws Exception {
+        final Map<String, Object> small = new HashMap<String, Object>();
+        small.put("name", "value");
+        final Map<String, Object> large = new HashMap<String, Object>(small);
+        large.put("body", repeat('x', 1024 * 1024));
+        final CacheWeigher<String, Map<String, Object>> weigher = new ObjectSizeWeigher<String, Map<String, Object>>();
+        Assert.assertTrue(weigher.weigh("key", large) > 2 * 1024 * 1024);
+        Assert.assertTrue(weigher.weigh("key", small) < 1024);
+        Assert.assertTrue(ObjectSizeWeigher.sizeOf(new double[2]) > 16);
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        final CachedMap<String, String> cache = new CachedMap<String, String>(
+                "testStats", 0, 10, new CacheLoader<String, String>() {
+                    @Override
+                    public String get(String key) {
+                        return key.length() > 1 ? key : null;
+                    }
+                }, null);
+        final CachedMap<String, String> other = new CachedMap<String, String>(
+                "testStats", 0, 10);
+        Assert.assertEquals("testStats", cache.getName());
+        Assert.assertTrue(other.getName(), other.getName().startsWith(
+                "testStats-"));
+
+        Assert.assertEquals("key", cache.get("key"));
+        Assert.assertEquals("key", cache.get("key"));
+        Assert.assertNull(cache.get("k"));
+        final CacheStats stats = cache.getStats();
+        Assert.assertEquals(1, stats.getHits());
+        Assert.assertEquals(2, stats.getMisses());
+        Assert.assertEquals(2, stats.getLoads());
+        Assert.assertEquals(2, stats.getLoadMillisHistogram()[0]
+                + stats.getLoadMillisHistogram()[1]);
+        Assert.assertTrue(stats.getEstimatedMemoryBytes() > 0);
+
+        cache.flushCache();
+        Assert.assertEquals(2, stats.getFlushes());
+        Assert.assertEquals(0, stats.getEstimatedMemoryBytes());
+        Assert.assertEquals("testStats", stats.toJSONObject().getString(
+                "name"));
+    }
+
+    @Test
+    public void testExpireWithoutLoader() throws Exception {
+        final long now = System.currentTimeMillis();
+        final AtomicInteger secs = new AtomicInteger();
+        TimeUtils.setTimeSource(new TimeSource() {
+            @Override
+            public Date getCurrentTime() {
+                return new Date(now + secs.get() * 1000L);
+            }
+        });
+        final CachedMap<String, String> cache = new CachedMap<String, String>(
+                5, 10);
+        cache.put(null, "value");
+        Assert.assertEquals("value", cache.get(null));
+        secs.set(10);
+        Assert.assertNull(cache.get(null));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidateSubscribedCaches() throws Exception {
+        final CachedMap<String, String> policies = new CachedMap<String, String>(
+                "testPolicies", 0, 10);
+        policies.invalidateOn(CacheEvent.Type.QUERY_POLICY_CHANGED);
+        final CachedMap<String, String> results = new CachedMap<String, String>(
+                "testResults", 0, 10);
+        results.invalidateOn(CacheEvent.Type.INDEX_CHANGED,
+                new CacheInvalidator<String>() {
+                    @Override
+                    public boolean isInvalidated(CacheEvent event, String key) {
+                        return key.startsWith(event.getScope() + "/");
+                    }
+                });
+        final CachedMap<String, String> unrelated = new CachedMap<String, String>(
+                "testUnrelated", 0, 10);
+        policies.put("one", "1");
+        policies.put("two", "2");
+        results.put("books/a", "a");
+        results.put("books/b", "b");
+        results.put("music/a", "a");
+        unrelated.put("one", "1");
+        unrelated.put("books/a", "a");
+
+        Assert.assertEquals(1, CacheFlusher.getInstance().invalidate(
+                new CacheEvent(CacheEvent.Type.QUERY_POLICY_CHANGED, "one")));
+        Assert.assertFalse(policies.containsKey("one"));
+        Assert.assertTrue(policies.containsKey("two"));
+
+        Assert.assertEquals(2, CacheFlusher.getInstance().invalidate(
+                new CacheEvent(CacheEvent.Type.INDEX_CHANGED, "books")));
+        Assert.assertEquals(1, results.size());
+        Assert.assertTrue(results.containsKey("music/a"));
+        Assert.assertEquals(2, results.getStats().getInvalidations());
+
+        Assert.assertEquals(2, unrelated.size());
+        Assert.assertEquals(0, unrelated.getStats().getInvalidations());
+    }
+
+    @Test
+    public void testFlushDisposesValues() throws Exception {
+        final List<String> disposed = new ArrayList<String>();
+        final CachedMap<String, String> cache = new CachedMap<String, String>(
+                0, 10, null, new CacheDisposer<String>() {
+                    @Override
+                    public void dispose(String value) {
+                        disposed.add(value);
+                    }
+                });
+        cache.put("key", "value");
+        cache.flushCache();
+        Assert.assertEquals(0, cache.cacheSize());
+        Assert.assertEquals(1, disposed.size());
+        Assert.assertEquals("value", disposed.get(0));
+    }
+
+    @Test
+    public void testEvictionDisposesValues() throws Exception {
+        final List<Integer> disposed = new ArrayList<Integer>();
+        final CachedMap<Integer, Integer> cache = new CachedMap<Integer, Integer>(
+                0, 10, null, new CacheDisposer<Integer>() {
+                    @Override
+                    public void dispose(Integer value) {
+                        disposed.add(value);
+                    }
+                });
+        for (int i = 0; i <= 10; i++) {
+            cache.put(i, i);
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(11 - cache.size(), disposed.size());
+        for (Integer value : disposed) {
+            Assert.assertFalse(cache.containsKey(value));
+        }
+    }
+
+    @Test
+    public void testCloseUnregistersCache() throws Exception {
+        final CachedMap<String, String> cache = new CachedMap<String, String>(
+                "testClose", 0, 10);
+        final ObjectName name = new ObjectName(
+                "com.plexobject.docusearch.cache:type=Caches");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Assert.assertTrue(Arrays.asList(
+                (String[]) server.getAttribute(name, "CacheNames")).contains(
+                cache.getName()));
+        Assert.assertTrue(CacheFlusher.getInstance().getCacheStats().contains(
+                cache.getStats()));
+        cache.put("key", "value");
+
+        cache.close();
+        Assert.assertTrue(server.isRegistered(name));
+        Assert.assertFalse(Arrays.asList(
+                (String[]) server.getAttribute(name, "CacheNames")).contains(
+                cache.getName()));
+        Assert.assertFalse(CacheFlusher.getInstance().getCacheStats()
+                .contains(cache.getStats()));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    private static void waitForLoads(final CachedMap<?, ?> cache,
+            final int loads) throws InterruptedException {
+        for (int i = 0; i < 100 && cache.getStats().getLoads() < loads; i++) {
+            Thread.sleep(10);
+        }
+        // let the reload store its value
+        Thread.sleep(20);
+        Assert.assertEquals(loads, cache.getStats().getLoads());
+    }
+
+    private static String repeat(final char ch, final int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, ch);
+        return new String(chars);
+    }
+}
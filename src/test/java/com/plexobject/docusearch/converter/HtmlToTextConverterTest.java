@@ -0,0 +1,69 @@
+package com.plexobject.docusearch.converter;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Shahzad Bhatti
+ */
+public class HtmlToTextConverterTest {
+    private static final String LF = System.getProperty("line.separator");
+    private HtmlToTextConverter converter;
+
+    @Before
+    public void setUp() throws Exception {
+        converter = new HtmlToTextConverter();
+    }
+
+    @Test
+    public void testConvertNull() {
+        Assert.assertNull(converter.convert(null));
+    }
+
+    @Test
+    public void testConvertBody() {
+        final String html = "<!DOCTYPE html><html><head><title>Title</title>"
+                + "<style>p {color: red}</style></head>"
+                + "<body class=\"a>b\"><!-- comment --><p>Hello  <b>World</b></p>"
+                + "<br/>Tom &amp; Jerry &#169; &#xA9; &bogus; 1 < 2"
+                + "<script>var x = '<p>';</script></body></html>";
+        Assert.assertEquals("Hello World" + LF + LF + LF
+                + "Tom & Jerry \u00a9 \u00a9 &bogus; 1 < 2" + LF + LF + LF,
+                converter.convert(html));
+    }
+
+    @Test
+    public void testConvertAccentedEntities() {
+        Assert.assertEquals("caf\u00e9 \u00fcber ma\u00f1ana \u00c9cole" + LF,
+                converter.convert("<p>caf&eacute; &uuml;ber ma&ntilde;ana "
+                        + "&Eacute;cole</p>"));
+    }
+
+    @Test
+    public void testConvertSymbolEntities() {
+        Assert.assertEquals("it's \u2264 \u03b1\u03b2 \u2192 x y" + LF,
+                converter.convert("<p>it&apos;s &le; &alpha;&beta; &rarr; "
+                        + "x&nbsp;y</p>"));
+    }
+
+    @Test
+    public void testConvertFragment() {
+        Assert.assertEquals("plain text" + LF, converter
+                .convert("<div>plain\n\ttext</div>"));
+    }
+
+    @Test
+    public void testConvertCachedText() {
+        final StringBuilder sb = new StringBuilder("<html><body>");
+        for (int i = 0; i < 1000; i++) {
+            sb.append("<p>paragraph ").append(i).append("</p>");
+        }
+        sb.append("</body></html>");
+        final String text = converter.convert(sb.toString());
+        Assert.assertTrue(text.startsWith("paragraph 0" + LF));
+        Assert.assertSame(text, new HtmlToTextConverter().convert(sb
+                .toString()));
+    }
+}
@@ -0,0 +1,299 @@
+package com.plexobject.docusearch.index.lucene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.document.DateTools;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.spatial.tier.projections.CartesianTierPlotter;
+import org.apache.lucene.spatial.tier.projections.IProjector;
+import org.apache.lucene.spatial.tier.projections.SinusoidalProjector;
+import org.apache.lucene.util.NumericUtils;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.plexobject.docusearch.cache.CacheEvent;
+import com.plexobject.docusearch.cache.CacheFlusher;
+import com.plexobject.docusearch.converter.Constants;
+import com.plexobject.docusearch.converter.Converters;
+import com.plexobject.docusearch.converter.HtmlToTextConverter;
+import com.plexobject.docusearch.domain.Document;
+import com.plexobject.docusearch.domain.DocumentBuilder;
+import com.plexobject.docusearch.index.IndexPolicy;
+import com.plexobject.docusearch.util.TimeUtils;
+
+/**
+ * Compares documents built by DocumentPlan with documents built the way
+ * IndexerImpl built them before the plan.
+ */
+public class DocumentPlanTest {
+    private static final String INDEX_NAME = "DocumentPlanTestIndex";
+
+    @Test
+    public void testFieldsAndSettings() throws Exception {
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("name");
+        policy.add("title", true, null, false, false, 0.0F, false, false,
+                false);
+        policy.add("tags", true, null, true, true, 2.0F, false, false, false);
+        policy.add("rank", false, null, false, false, 0.0F, false, false,
+                false);
+        policy.add("missing");
+        policy.setOwner("shahbhat");
+        policy.setScore(5);
+        policy.setBoost(1.5F);
+
+        final Document doc = new DocumentBuilder("db1").setId("1")
+                .setSecondaryId("s1").put("name", "Green Hat, Big; (Wool)")
+                .put("title", "  Hat:  Green  ").put("tags",
+                        Arrays.asList("hat", "green", "wool")).put("rank", 7)
+                .put("notInPolicy", "skipped").build();
+        assertSameDocument(policy, doc);
+    }
+
+    @Test
+    public void testStoreAsAcrossDatabases() throws Exception {
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("name", true, null, true, false, 0.0F, false, false, false);
+        policy.add("title", true, "display_title", false, false, 3.0F, false,
+                false, false);
+        final DocumentPlan plan = new DocumentPlan(policy, INDEX_NAME);
+
+        // reused fields must take the name of the database of each document
+        assertSameDocument(plan, policy, new DocumentBuilder("db1")
+                .setId("1").put("name", "hat").put("title", "Hat").build());
+        assertSameDocument(plan, policy, new DocumentBuilder("db2")
+                .setId("2").put("name", "shoe").put("title", "Shoe").build());
+        assertSameDocument(plan, policy, new DocumentBuilder("db1")
+                .setId("3").put("name", "coat").build());
+    }
+
+    @Test
+    public void testReusedFieldsOfMissingAttributes() throws Exception {
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("name");
+        policy.add("title");
+        final DocumentPlan plan = new DocumentPlan(policy, INDEX_NAME);
+
+        assertSameDocument(plan, policy, new DocumentBuilder("db1")
+                .setId("1").setSecondaryId("s1").put("name", "hat").put(
+                        "title", "Hat").put(Constants.SCORE_MULTIPLIER, 2.5F)
+                .build());
+        assertSameDocument(plan, policy, new DocumentBuilder("db1")
+                .setId("2").put("name", "shoe").build());
+    }
+
+    @Test
+    public void testSpatialTiers() throws Exception {
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("name");
+        policy.add("latitude", false, null, false, false, 0.0F, false, true,
+                false);
+        policy.add("longitude", false, null, false, false, 0.0F, false,
+                false, true);
+        final DocumentPlan plan = new DocumentPlan(policy, INDEX_NAME);
+
+        assertSameDocument(plan, policy, new DocumentBuilder("db1")
+                .setId("1").put("name", "Seattle").put("latitude",
+                        "47.6062").put("longitude", "-122.3321").build());
+        assertSameDocument(plan, policy, new DocumentBuilder("db1")
+                .setId("2").put("name", "Nowhere").put("latitude", "")
+                .put("longitude", 10.5).build());
+    }
+
+    @Test
+    public void testNestedNames() throws Exception {
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("tags[1]");
+        policy.add("address{city}");
+        policy.add("address");
+
+        final Map<String, Object> address = new TreeMap<String, Object>();
+        address.put("city", "Seattle");
+        address.put("zip", "98101");
+        final Document doc = new DocumentBuilder("db1").setId("1").put(
+                "tags", Arrays.asList("hat", "Green", "wool")).put("tags[1]",
+                "x").put("address", address).put("address{city}", "x")
+                .build();
+        assertSameDocument(policy, doc);
+    }
+
+    @Test
+    public void testHtmlToText() throws Exception {
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("body", true, null, true, false, 0.0F, true, false, false);
+        policy.add("html", true, null, true, false, 0.0F, false, false, false);
+
+        final Document doc = new DocumentBuilder("db1").setId("1").put(
+                "body", "<p>Green <b>Hat</b> &amp; Shoe</p>").put("html",
+                "<p>Green <b>Hat</b></p>").build();
+        assertSameDocument(policy, doc);
+    }
+
+    @Test
+    public void testCachedPlans() throws Exception {
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("name");
+        final DocumentPlan plan = DocumentPlan.getPlan(policy, INDEX_NAME);
+        Assert.assertSame(plan, DocumentPlan.getPlan(policy, INDEX_NAME));
+
+        // equal policy with other settings of the field gets its own plan
+        final IndexPolicy other = new IndexPolicy();
+        other.add("name", true, null, true, false, 0.0F, false, false, false);
+        Assert.assertNotSame(plan, DocumentPlan.getPlan(other, INDEX_NAME));
+
+        CacheFlusher.getInstance().invalidate(
+                new CacheEvent(CacheEvent.Type.INDEX_POLICY_CHANGED,
+                        "otherIndex"));
+        Assert.assertSame(plan, DocumentPlan.getPlan(policy, INDEX_NAME));
+        CacheFlusher.getInstance().invalidate(
+                new CacheEvent(CacheEvent.Type.INDEX_POLICY_CHANGED,
+                        INDEX_NAME));
+        Assert.assertNotSame(plan, DocumentPlan.getPlan(policy, INDEX_NAME));
+    }
+
+    private static void assertSameDocument(final IndexPolicy policy,
+            final Document doc) throws Exception {
+        assertSameDocument(new DocumentPlan(policy, INDEX_NAME), policy, doc);
+    }
+
+    private static void assertSameDocument(final DocumentPlan plan,
+            final IndexPolicy policy, final Document doc) throws Exception {
+        final Term uid = new Term(Constants.UID, doc.getDatabase() + ":"
+                + doc.getId());
+        final org.apache.lucene.document.Document expected = toLuceneDocument(
+                policy, doc, uid);
+        // fields of the plan are reused, so compare before the next build
+        final org.apache.lucene.document.Document actual = plan.build(doc, uid);
+        Assert.assertEquals(expected.getBoost(), actual.getBoost(), 0.0001F);
+        Assert.assertEquals(describe(expected), describe(actual));
+    }
+
+    private static List<String> describe(
+            final org.apache.lucene.document.Document ldoc) {
+        final List<String> fields = new ArrayList<String>();
+        for (Object obj : ldoc.getFields()) {
+            final Fieldable field = (Fieldable) obj;
+            // the indexed day was added after the plan
+            if (Constants.INDEX_DAY.equals(field.name())) {
+                continue;
+            }
+            fields.add(field.name() + "=" + field.stringValue() + ", stored "
+                    + field.isStored() + ", indexed " + field.isIndexed()
+                    + ", tokenized " + field.isTokenized() + ", termVector "
+                    + field.isTermVectorStored() + ", omitNorms "
+                    + field.getOmitNorms() + ", boost " + field.getBoost());
+        }
+        Collections.sort(fields);
+        return fields;
+    }
+
+    /**
+     * This method builds the document the way IndexerImpl did before
+     * DocumentPlan, without training the dictionary.
+     */
+    @SuppressWarnings("deprecation")
+    private static org.apache.lucene.document.Document toLuceneDocument(
+            final IndexPolicy policy, final Document doc, final Term uid)
+            throws JSONException {
+        final Map<String, Object> map = doc.getAttributes();
+        final JSONObject json = Converters.getInstance().getConverter(
+                Object.class, JSONObject.class).convert(map);
+        final org.apache.lucene.document.Document ldoc = new org.apache.lucene.document.Document();
+        ldoc.add(new Field(Constants.ALWAYS_MATCH,
+                String.valueOf(Boolean.TRUE), Field.Store.NO,
+                Field.Index.NOT_ANALYZED));
+        ldoc.add(new Field(Document.DATABASE, doc.getDatabase(),
+                Field.Store.YES, Field.Index.NOT_ANALYZED));
+        ldoc.add(new Field(Document.ID, doc.getId(), Field.Store.YES,
+                Field.Index.NOT_ANALYZED));
+        ldoc.add(new Field(uid.field(), uid.text(), Field.Store.NO,
+                Field.Index.NOT_ANALYZED_NO_NORMS));
+        if (doc.hasSecondaryId()) {
+            ldoc.add(new Field(Document.SECONDARY_ID, doc.getSecondaryId(),
+                    Field.Store.YES, Field.Index.NOT_ANALYZED));
+        }
+        if (policy.hasOwner()) {
+            ldoc.add(new Field(Constants.OWNER, policy.getOwner(),
+                    Field.Store.YES, Field.Index.NOT_ANALYZED));
+        }
+        ldoc.add(new Field("indexDate", DateTools.dateToString(TimeUtils
+                .getCurrentTime(), DateTools.Resolution.DAY), Field.Store.YES,
+                Field.Index.NOT_ANALYZED));
+        if (policy.getBoost() > 0) {
+            ldoc.setBoost(policy.getBoost());
+        }
+        if (policy.getScore() > 0) {
+            ldoc.add(new Field("score", Integer.toString(policy.getScore()),
+                    Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+        }
+        final Float scoreMultiplier = (Float) doc
+                .get(Constants.SCORE_MULTIPLIER);
+        if (scoreMultiplier != null) {
+            ldoc.setBoost(scoreMultiplier);
+        }
+        double spatialLatitude = 0;
+        double spatialLongitude = 0;
+        for (String name : doc.getAttributeNames()) {
+            final IndexPolicy.Field field = policy.getField(name);
+            if (field == null) {
+                continue;
+            }
+            String value = IndexUtils.getValue(json, name);
+            if (value != null) {
+                if (value.length() > 0
+                        && (field.spatialLatitude || field.spatialLongitude)) {
+                    double d = Double.valueOf(value);
+                    if (field.spatialLatitude) {
+                        spatialLatitude = d;
+                    } else if (field.spatialLongitude) {
+                        spatialLongitude = d;
+                    }
+                    value = NumericUtils.doubleToPrefixCoded(d);
+                } else if (value.length() > 0 && field.htmlToText) {
+                    value = new HtmlToTextConverter().convert(value);
+                }
+                value = value.toLowerCase();
+                final String storeAs = field.storeAs != null
+                        && field.storeAs.length() > 0 ? field.storeAs : doc
+                        .getDatabase()
+                        + "." + name;
+                final Field.Store store = field.storeInIndex
+                        || field.spatialLatitude || field.spatialLongitude ? Field.Store.YES
+                        : Field.Store.NO;
+                final Field.Index index = field.tokenize ? Field.Index.TOKENIZED
+                        : field.analyze ? Field.Index.ANALYZED
+                                : Field.Index.NOT_ANALYZED;
+                final Field.TermVector termVector = field.tokenize ? Field.TermVector.YES
+                        : Field.TermVector.NO;
+                final Field locField = field.spatialLatitude
+                        || field.spatialLongitude ? new Field(storeAs, value,
+                        Field.Store.YES, Field.Index.NOT_ANALYZED) : new Field(
+                        storeAs, value, store, index, termVector);
+                locField.setBoost(field.boost);
+                ldoc.add(locField);
+            }
+        }
+        if (spatialLatitude != 0 && spatialLongitude != 0) {
+            final IProjector projector = new SinusoidalProjector();
+            for (int tier = 4; tier <= 25; tier++) {
+                final CartesianTierPlotter ctp = new CartesianTierPlotter(
+                        tier, projector, Constants.TIER_PREFIX);
+                final double boxId = ctp.getTierBoxId(spatialLatitude,
+                        spatialLongitude);
+                ldoc.add(new Field(ctp.getTierFieldName(), NumericUtils
+                        .doubleToPrefixCoded(boxId), Field.Store.YES,
+                        Field.Index.NOT_ANALYZED_NO_NORMS));
+            }
+        }
+        return ldoc;
+    }
+}
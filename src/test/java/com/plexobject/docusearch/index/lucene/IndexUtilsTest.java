@@ -0,0 +1,54 @@
+package com.plexobject.docusearch.index.lucene;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IndexUtilsTest {
+    // pattern that was used before normalize
+    private static final Pattern JSON_PATTERN = Pattern
+            .compile("[,;:\\[\\]{}()\\s]+");
+    private static final String ALPHABET = "ab Z9,;:[]{}()\t\n\u000B\f\r\u00E9\u00A0-_.\"'";
+
+    @Test
+    public void testNormalizeNull() {
+        Assert.assertNull(IndexUtils.normalize(null));
+    }
+
+    @Test
+    public void testNormalizeReturnsSameStringWithoutSeparators() {
+        final String value = "hat-green_1.5";
+        Assert.assertSame(value, IndexUtils.normalize(value));
+        Assert.assertSame("", IndexUtils.normalize(""));
+    }
+
+    @Test
+    public void testNormalizeSameAsPattern() {
+        final String[] values = { " ", ",;:", "[\"one\",\"two\"]",
+                "{\"city\":\"Seattle\",\"zip\":98101}", " leading",
+                "trailing ", "a  (b)  c", "tab\tnew\nline\r\n",
+                "caf\u00E9 non\u00A0breaking", "line\u2028separator" };
+        for (String value : values) {
+            assertNormalized(value);
+        }
+    }
+
+    @Test
+    public void testNormalizeRandomSameAsPattern() {
+        final Random random = new Random(13);
+        for (int i = 0; i < 10000; i++) {
+            final char[] chars = new char[random.nextInt(20)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+            }
+            assertNormalized(new String(chars));
+        }
+    }
+
+    private static void assertNormalized(final String value) {
+        Assert.assertEquals(value, JSON_PATTERN.matcher(value).replaceAll(" "),
+                IndexUtils.normalize(value));
+    }
+}
@@ -4,20 +4,29 @@
 package com.plexobject.docusearch.index.lucene;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.time.DateUtils;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.solr.analysis.SynonymMap;
@@ -371,6 +380,41 @@ public class IndexerImplTest {
         }
     }
 
+    @Test
+    public void testRemoveByPrimaryIdOfSecondaryIndexedDocuments()
+            throws Exception {
+        ram = new RAMDirectory();
+        final IndexerImpl indexer = new IndexerImpl(ram, DB_NAME);
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("contents", true, null, false, false, 0.0F, false, false,
+                false);
+        policy.add("secondary", true, "secondary", false, false, 0.0F, false,
+                false, false);
+        final List<Document> docs = new ArrayList<Document>();
+        for (int i = 0; i < 10; i++) {
+            docs.add(new DocumentBuilder(DB_NAME).setId("id" + i).put(
+                    "secondary", "sec" + i).put("contents", "hat").build());
+        }
+        Assert.assertEquals(10, indexer.index(policy, Collections
+                .singletonList(docs).iterator(), "secondary", false));
+        final Collection<Pair<String, String>> primaryIds = new ArrayList<Pair<String, String>>();
+        for (int i = 0; i < 5; i++) {
+            primaryIds.add(new Pair<String, String>("id" + i, null));
+        }
+        Assert.assertEquals(5, indexer.removeIndexedDocuments(DB_NAME, null,
+                primaryIds, 0));
+        final IndexReader reader = IndexReader.open(ram, true);
+        try {
+            Assert.assertEquals(5, reader.numDocs());
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals(i < 5 ? 0 : 1, count(reader, LuceneUtils
+                        .uidTerm(DB_NAME, "id" + i, "sec" + i)));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
     @Test
     public void testRemoveIndexWithIndexDateAndIds() throws Exception {
 
@@ -810,6 +854,250 @@ public class IndexerImplTest {
         Assert.assertEquals(2, results.size());
     }
 
+    @Test
+    public void testReindexReplacesDocumentById() throws Exception {
+        ram = new RAMDirectory();
+        final IndexerImpl indexer = new IndexerImpl(ram, DB_NAME);
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("contents", true, null, false, false, 0.0F, false, false,
+                false);
+        for (String contents : Arrays.asList("green hat", "blue hat")) {
+            Assert.assertEquals(1, indexer.index(policy,
+                    new SimpleDocumentsIterator(new DocumentBuilder(DB_NAME)
+                            .setId("1").put("contents", contents).build()),
+                    null, false));
+        }
+        Assert.assertEquals(1, indexer.index(policy,
+                new SimpleDocumentsIterator(new DocumentBuilder("otherDB")
+                        .setId("1").put("contents", "red hat").build()), null,
+                false));
+
+        final IndexReader reader = IndexReader.open(ram, true);
+        try {
+            Assert.assertEquals(2, reader.numDocs());
+            final TermQuery uidQuery = new TermQuery(LuceneUtils.uidTerm(
+                    DB_NAME, "1", null));
+            Assert.assertEquals(1, new IndexSearcher(reader).search(uidQuery,
+                    1).totalHits);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testBulkIndex() throws Exception {
+        ram = new RAMDirectory();
+        final IndexerImpl indexer = new IndexerImpl(ram, DB_NAME);
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("contents", true, null, false, false, 0.0F, false, false,
+                false);
+        final List<List<Document>> pages = new ArrayList<List<Document>>();
+        for (int i = 0; i < 5; i++) {
+            final List<Document> page = new ArrayList<Document>();
+            for (int j = 0; j < 5; j++) {
+                page.add(new DocumentBuilder(DB_NAME).setId(
+                        "id" + (i * 5 + j)).put("contents", "hat").build());
+            }
+            pages.add(page);
+        }
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(25, indexer.bulkIndex(policy,
+                    pages.iterator(), null, 3));
+            final IndexReader reader = IndexReader.open(ram, true);
+            try {
+                Assert.assertEquals(25, reader.numDocs());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void testFailedBulkIndexKeepsOldDocuments() throws Exception {
+        ram = new RAMDirectory();
+        final IndexerImpl indexer = new IndexerImpl(ram, DB_NAME);
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("contents", true, null, false, false, 0.0F, false, false,
+                false);
+        final List<Document> page = new ArrayList<Document>();
+        for (int i = 0; i < 5; i++) {
+            page.add(new DocumentBuilder(DB_NAME).setId("id" + i).put(
+                    "contents", "hat").build());
+        }
+        Assert.assertEquals(5, indexer.bulkIndex(policy, Collections
+                .singletonList(page).iterator(), null, 2));
+        final Iterator<List<Document>> failing = new Iterator<List<Document>>() {
+            private boolean first = true;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public List<Document> next() {
+                if (first) {
+                    first = false;
+                    return page;
+                }
+                throw new IllegalStateException("database unavailable");
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        Assert.assertEquals(0, indexer.bulkIndex(policy, failing, null, 2));
+        final IndexReader reader = IndexReader.open(ram, true);
+        try {
+            Assert.assertEquals(5, reader.numDocs());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testBulkIndexKeepsUpdatesDuringRun() throws Exception {
+        ram = new RAMDirectory();
+        final IndexerImpl indexer = new IndexerImpl(ram, DB_NAME);
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("contents", true, null, false, false, 0.0F, false, false,
+                false);
+        final List<List<Document>> pages = new ArrayList<List<Document>>();
+        for (int i = 0; i < 5; i++) {
+            final List<Document> page = new ArrayList<Document>();
+            for (int j = 0; j < 5; j++) {
+                page.add(new DocumentBuilder(DB_NAME).setId(
+                        "id" + (i * 5 + j)).put("contents", "hat").build());
+            }
+            pages.add(page);
+        }
+        Assert.assertEquals(25, indexer.bulkIndex(policy, pages.iterator(),
+                null, 2));
+        final Iterator<List<Document>> updating = new Iterator<List<Document>>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < pages.size();
+            }
+
+            @Override
+            public List<Document> next() {
+                if (next == 3) {
+                    try {
+                        Assert.assertEquals(2, indexer.submit(
+                                policy,
+                                Arrays.asList(new DocumentBuilder(DB_NAME)
+                                        .setId("id0").put("contents", "shoe")
+                                        .build(), new DocumentBuilder(DB_NAME)
+                                        .setId("id25").put("contents", "coat")
+                                        .build()), null).get().intValue());
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                    Assert.assertEquals(1, indexer.removeIndexedDocuments(
+                            DB_NAME, null, Arrays.asList(new Pair<String, String>(
+                                    "id1", null)), 0));
+                }
+                return pages.get(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        Assert.assertEquals(25, indexer.bulkIndex(policy, updating, null, 2));
+        final IndexReader reader = IndexReader.open(ram, true);
+        try {
+            Assert.assertEquals(25, reader.numDocs());
+            Assert.assertEquals(0, count(reader, LuceneUtils.uidTerm(DB_NAME,
+                    "id1", null)));
+            Assert.assertEquals(1, count(reader, LuceneUtils.uidTerm(DB_NAME,
+                    "id25", null)));
+            Assert.assertEquals(1, count(reader, LuceneUtils.uidTerm(DB_NAME,
+                    "id0", null)));
+            Assert.assertEquals(1, count(reader, new Term(DB_NAME
+                    + ".contents", "shoe")));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static int count(final IndexReader reader, final Term term)
+            throws IOException {
+        final TermDocs termDocs = reader.termDocs(term);
+        int count = 0;
+        try {
+            while (termDocs.next()) {
+                count++;
+            }
+        } finally {
+            termDocs.close();
+        }
+        return count;
+    }
+
+    @Test
+    public void testRemoveMoreIdsThanMaxClauses() throws Exception {
+        ram = new RAMDirectory();
+        final IndexerImpl indexer = new IndexerImpl(ram, DB_NAME);
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("contents", true, null, false, false, 0.0F, false, false,
+                false);
+        final int numDocs = BooleanQuery.getMaxClauseCount() + 500;
+        final List<Document> docs = new ArrayList<Document>();
+        final Collection<Pair<String, String>> primaryAndSecondaryIds = new ArrayList<Pair<String, String>>();
+        for (int i = 0; i < numDocs; i++) {
+            docs.add(new DocumentBuilder(DB_NAME).setId("id" + i).put(
+                    "contents", "hat").build());
+            if (i % 10 != 0) {
+                primaryAndSecondaryIds.add(new Pair<String, String>("id" + i,
+                        null));
+            }
+        }
+        Assert.assertEquals(numDocs, indexer.index(policy,
+                new SimpleDocumentsIterator(docs), null, false));
+        Assert.assertEquals(primaryAndSecondaryIds.size(), indexer
+                .removeIndexedDocuments(DB_NAME, null, primaryAndSecondaryIds,
+                        0));
+        final IndexReader reader = IndexReader.open(ram, true);
+        try {
+            Assert.assertEquals(numDocs - primaryAndSecondaryIds.size(),
+                    reader.numDocs());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testSubmitUpdates() throws Exception {
+        ram = new RAMDirectory();
+        final IndexerImpl indexer = new IndexerImpl(ram, DB_NAME);
+        final IndexPolicy policy = new IndexPolicy();
+        policy.add("contents", true, null, false, false, 0.0F, false, false,
+                false);
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(indexer.submit(policy, Arrays.asList(
+                    new DocumentBuilder(DB_NAME).setId("id" + i).put(
+                            "contents", "hat").build(), new DocumentBuilder(
+                            DB_NAME).setId("id" + (i + 1)).put("contents",
+                            "hat").build()), null));
+        }
+        for (Future<Integer> future : futures) {
+            Assert.assertEquals(2, future.get().intValue());
+        }
+        final IndexReader reader = IndexReader.open(ram, true);
+        try {
+            Assert.assertEquals(11, reader.numDocs());
+        } finally {
+            reader.close();
+        }
+    }
+
     private void query(final Analyzer analyzer) throws Exception {
         for (QueryUtils.SearchScheme scheme : QueryUtils.SearchScheme.values()) {
             EasyMock.reset(documentRepository);
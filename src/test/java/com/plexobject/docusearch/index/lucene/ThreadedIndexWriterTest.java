@@ -0,0 +1,146 @@
+package com.plexobject.docusearch.index.lucene;
+
+import java.io.Reader;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.WhitespaceTokenizer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.plexobject.docusearch.lucene.LuceneUtils;
+
+public class ThreadedIndexWriterTest {
+    private RAMDirectory ram;
+
+    @Before
+    public void setUp() throws Exception {
+        ram = new RAMDirectory();
+    }
+
+    @Test
+    public void testFlushPendingWaitsForAddedDocuments() throws Exception {
+        final ThreadedIndexWriter writer = (ThreadedIndexWriter) LuceneUtils
+                .newThreadedWriter(ram);
+        for (int i = 0; i < 500; i++) {
+            writer.addDocument(newDocument("contents", "hat " + i));
+        }
+        Assert.assertEquals(0, writer.flushPending().size());
+        Assert.assertEquals(0, writer.getPendingCount());
+        Assert.assertEquals(500, writer.numDocs());
+        writer.commit();
+        writer.close();
+        assertNumDocs(500);
+    }
+
+    @Test
+    public void testFlushPendingReturnsFailures() throws Exception {
+        final ThreadedIndexWriter writer = newWriter(null);
+        writer.addDocument(newDocument("contents", "hat"));
+        writer.addDocument(newDocument("bad", "hat"));
+        final List<Throwable> failures = writer.flushPending();
+        Assert.assertEquals(1, failures.size());
+        Assert.assertTrue(failures.get(0) instanceof IllegalStateException);
+        Assert.assertEquals(0, writer.flushPending().size());
+        writer.close();
+        assertNumDocs(1);
+    }
+
+    @Test
+    public void testCloseThrowsFailures() throws Exception {
+        final ThreadedIndexWriter writer = newWriter(null);
+        writer.addDocument(newDocument("contents", "hat"));
+        writer.addDocument(newDocument("bad", "hat"));
+        writer.addDocument(newDocument("bad", "shoe"));
+        try {
+            writer.close();
+            Assert.fail("close should fail");
+        } catch (ThreadedIndexWriter.FailedDocumentsException e) {
+            Assert.assertEquals(2, e.getFailures().size());
+        }
+        // the writer is closed regardless of the failures
+        Assert.assertFalse(IndexWriter.isLocked(ram));
+        assertNumDocs(1);
+    }
+
+    @Test
+    public void testProducersBlockWhenTooManyDocumentsArePending()
+            throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final ThreadedIndexWriter writer = newWriter(blocked);
+        final int numDocs = 1000;
+        final Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < numDocs; i++) {
+                        writer.addDocument(newDocument("contents", "hat " + i));
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        producer.start();
+        int pending = -1;
+        while (pending != writer.getPendingCount()) {
+            pending = writer.getPendingCount();
+            Thread.sleep(100);
+        }
+        Assert.assertTrue(producer.isAlive());
+        Assert.assertTrue(String.valueOf(pending), pending > 0
+                && pending < numDocs);
+
+        blocked.countDown();
+        producer.join(10000);
+        Assert.assertFalse(producer.isAlive());
+        Assert.assertEquals(0, writer.flushPending().size());
+        writer.close();
+        assertNumDocs(numDocs);
+    }
+
+    private ThreadedIndexWriter newWriter(final CountDownLatch blocked)
+            throws Exception {
+        final Analyzer analyzer = new Analyzer() {
+            @Override
+            public TokenStream tokenStream(String fieldName, Reader reader) {
+                if ("bad".equals(fieldName)) {
+                    throw new IllegalStateException("failed to analyze");
+                }
+                if (blocked != null) {
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return new WhitespaceTokenizer(reader);
+            }
+        };
+        return new ThreadedIndexWriter(ram, analyzer, true,
+                IndexWriter.MaxFieldLength.UNLIMITED, 1, 1);
+    }
+
+    private void assertNumDocs(final int numDocs) throws Exception {
+        final IndexReader reader = IndexReader.open(ram, true);
+        try {
+            Assert.assertEquals(numDocs, reader.numDocs());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Document newDocument(final String name, final String value) {
+        final Document doc = new Document();
+        doc.add(new Field(name, value, Field.Store.YES, Field.Index.ANALYZED));
+        return doc;
+    }
+}
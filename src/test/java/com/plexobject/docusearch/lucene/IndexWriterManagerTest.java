@@ -0,0 +1,99 @@
+package com.plexobject.docusearch.lucene;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IndexWriterManagerTest {
+    private RAMDirectory ram;
+    private File backupDir;
+
+    @Before
+    public void setUp() throws Exception {
+        ram = new RAMDirectory();
+        backupDir = new File(System.getProperty("java.io.tmpdir"),
+                "IndexWriterManagerTest-" + System.currentTimeMillis());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        IndexWriterManager.close(ram);
+        FileUtils.deleteDirectory(backupDir);
+    }
+
+    @Test
+    public void testIncrementalBackup() throws Exception {
+        final IndexWriterManager manager = IndexWriterManager.getInstance(ram);
+        add(manager, "1");
+        final IndexWriterManager.Backup first = manager.backup(backupDir);
+        Assert.assertEquals(first.getNumFiles(), first.getNumCopied());
+        Assert.assertEquals(1, numDocs());
+
+        add(manager, "2");
+        final IndexWriterManager.Backup second = manager.backup(backupDir);
+        Assert.assertTrue(second.getGeneration() > first.getGeneration());
+        Assert.assertTrue(second.toString(),
+                second.getNumCopied() < second.getNumFiles());
+        Assert.assertEquals(2, numDocs());
+        Assert.assertEquals(second.getNumFiles(), backupDir.list().length);
+    }
+
+    @Test
+    public void testOptimizeToMaxSegments() throws Exception {
+        final IndexWriterManager manager = IndexWriterManager.getInstance(ram);
+        for (int i = 0; i < 25; i++) {
+            add(manager, String.valueOf(i));
+        }
+        manager.optimize(2);
+        Assert.assertTrue(manager.getSegmentCount() <= 2);
+        Assert.assertTrue(manager.getMergeScheduler().toString(), manager
+                .getMergeScheduler().getNumMerges() > 0);
+        Assert.assertEquals(0, manager.getMergeScheduler().getRunning());
+    }
+
+    @Test
+    public void testBackupWithoutOpenWriter() throws Exception {
+        final IndexWriter writer = new IndexWriter(ram, LuceneUtils
+                .getDefaultAnalyzer(), true,
+                IndexWriter.MaxFieldLength.UNLIMITED);
+        final Document doc = new Document();
+        doc.add(new Field("id", "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
+        writer.addDocument(doc);
+        writer.close();
+
+        final IndexWriterManager.Backup backup = IndexWriterManager.backup(
+                ram, backupDir);
+        Assert.assertEquals(backup.getNumFiles(), backup.getNumCopied());
+        Assert.assertEquals(1, numDocs());
+        Assert.assertEquals(1, IndexWriterManager.getSegmentCount(ram));
+        Assert.assertNull(IndexWriterManager.getOpenInstance(ram));
+    }
+
+    private int numDocs() throws Exception {
+        final IndexReader reader = IndexReader.open(FSDirectory
+                .open(backupDir), true);
+        try {
+            return reader.numDocs();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void add(final IndexWriterManager manager, final String id)
+            throws Exception {
+        final Document doc = new Document();
+        doc.add(new Field("id", id, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        manager.getWriter().addDocument(doc);
+        manager.commit();
+    }
+}
@@ -0,0 +1,69 @@
+package com.plexobject.docusearch.lucene;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentCachingFilterTest {
+    private RAMDirectory ram;
+
+    @Before
+    public void setUp() throws Exception {
+        ram = new RAMDirectory();
+    }
+
+    @Test
+    public void testReuseUnchangedSegmentsAfterReopen() throws Exception {
+        add("1", "alice");
+        final SegmentCachingFilter filter = new SegmentCachingFilter(
+                new QueryWrapperFilter(new TermQuery(new Term("owner",
+                        "alice"))));
+        IndexReader reader = IndexReader.open(ram, true);
+        Assert.assertEquals(1, count(reader, filter));
+        Assert.assertEquals(1, filter.size());
+
+        add("2", "alice");
+        add("3", "bob");
+        final IndexReader newReader = reader.reopen();
+        reader.close();
+        reader = newReader;
+
+        Assert.assertEquals(2, count(reader, filter));
+        Assert.assertEquals(3, reader.getSequentialSubReaders().length);
+        Assert.assertEquals(2, count(reader, filter));
+        reader.close();
+    }
+
+    private int count(final IndexReader reader,
+            final SegmentCachingFilter filter) throws Exception {
+        return new IndexSearcher(reader).search(new MatchAllDocsQuery(),
+                filter, 10).totalHits;
+    }
+
+    private void add(final String id, final String owner) throws Exception {
+        final IndexWriter writer = new IndexWriter(ram,
+                new WhitespaceAnalyzer(), MaxFieldLength.UNLIMITED);
+        try {
+            final Document doc = new Document();
+            doc.add(new Field("id", id, Field.Store.YES,
+                    Field.Index.NOT_ANALYZED));
+            doc.add(new Field("owner", owner, Field.Store.YES,
+                    Field.Index.NOT_ANALYZED));
+            writer.addDocument(doc);
+        } finally {
+            writer.close();
+        }
+    }
+}
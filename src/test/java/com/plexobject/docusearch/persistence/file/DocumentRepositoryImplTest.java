@@ -17,6 +17,7 @@ import org.junit.Test;
 import com.plexobject.docusearch.domain.Document;
 import com.plexobject.docusearch.domain.DocumentBuilder;
 import com.plexobject.docusearch.persistence.DocumentRepository;
+import com.plexobject.docusearch.persistence.PersistenceException;
 
 /**
  * @author Shahzad Bhatti
@@ -105,6 +106,34 @@ public class DocumentRepositoryImplTest {
         Assert.assertEquals(original, saved);
     }
 
+    @Test
+    public void testSaveGetUpdatedDocument() throws Exception {
+        Document original = repository.saveDocument(newDocument(false), false);
+        repository.getDocument(DB_NAME, original.getId());
+        final Document updated = repository.saveDocument(new DocumentBuilder(
+                original).put("A", "updated").build(), true);
+        Assert.assertEquals(updated, repository.getDocument(DB_NAME, original
+                .getId()));
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void testGetDeletedDocument() throws Exception {
+        Document original = repository.saveDocument(newDocument(false), false);
+        repository.getDocument(DB_NAME, original.getId());
+        Assert.assertTrue(repository.deleteDocument(DB_NAME, original.getId(),
+                "1"));
+        repository.getDocument(DB_NAME, original.getId());
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void testGetDocumentOfDeletedDatabase() throws Exception {
+        Document original = repository.saveDocument(newDocument(false), false);
+        repository.getDocument(DB_NAME, original.getId());
+        Assert.assertTrue(repository.deleteDatabase(DB_NAME));
+        Assert.assertTrue(repository.createDatabase(DB_NAME));
+        repository.getDocument(DB_NAME, original.getId());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testGetDocumentsNullDatabase() throws Exception {
         repository.getDocuments(null, new String[0]);
@@ -0,0 +1,153 @@
+package com.plexobject.docusearch.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.plexobject.docusearch.SearchException;
+import com.plexobject.docusearch.domain.Document;
+
+public class MultiIndexQueryTest {
+    private Query first;
+    private Query second;
+    private QueryCriteria criteria;
+
+    @Before
+    public void setUp() throws Exception {
+        first = EasyMock.createMock(Query.class);
+        second = EasyMock.createMock(Query.class);
+        criteria = new CriteriaBuilder().setKeywords("hat").build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        EasyMock.reset(first);
+        EasyMock.reset(second);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSearchWithoutTargets() {
+        new MultiIndexQuery(new ArrayList<MultiIndexQuery.Target>());
+    }
+
+    @Test
+    public void testMergeByScore() {
+        EasyMock.expect(first.search(criteria, null, null, true, 0, 3))
+                .andReturn(
+                        newResults(10, Arrays.asList("a"), newDoc("1", 0.9),
+                                newDoc("2", 0.5)));
+        EasyMock.expect(second.search(criteria, null, null, true, 0, 3))
+                .andReturn(
+                        newResults(5, Arrays.asList("b"), newDoc("3", 0.7),
+                                newDoc("4", 0.1)));
+        EasyMock.replay(first);
+        EasyMock.replay(second);
+
+        SearchDocList results = newQuery().search(criteria, true, 1, 2);
+        EasyMock.verify(first);
+        EasyMock.verify(second);
+
+        Assert.assertEquals(15, results.getTotalHits());
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals("3", results.get(0).getId());
+        Assert.assertEquals("2", results.get(1).getId());
+        Assert.assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(
+                results.getSimilarWords()));
+    }
+
+    @Test
+    public void testMergeBySortValues() {
+        final QueryCriteria sortedCriteria = new CriteriaBuilder().setKeywords(
+                "hat").setSortBy("price", false).build();
+        final QueryPolicy queryPolicy = new QueryPolicy();
+        queryPolicy.add("price", 0, true, 0.0F, QueryPolicy.FieldType.INTEGER);
+        EasyMock.expect(
+                first.search(sortedCriteria, null, queryPolicy, false, 0, 4))
+                .andReturn(
+                        newResults(2, null, newDoc("1", 0.1, 30), newDoc("2",
+                                0.9, 10)));
+        EasyMock.expect(
+                second.search(sortedCriteria, null, queryPolicy, false, 0, 4))
+                .andReturn(
+                        newResults(2, null, newDoc("3", 0.5, 20), newDoc("4",
+                                0.7, 5)));
+        EasyMock.replay(first);
+        EasyMock.replay(second);
+
+        final List<MultiIndexQuery.Target> targets = new ArrayList<MultiIndexQuery.Target>();
+        targets.add(new MultiIndexQuery.Target("first", first, null,
+                queryPolicy));
+        targets.add(new MultiIndexQuery.Target("second", second, null,
+                queryPolicy));
+        SearchDocList results = new MultiIndexQuery(targets).search(
+                sortedCriteria, false, 0, 4);
+        EasyMock.verify(first);
+        EasyMock.verify(second);
+
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals("1", results.get(0).getId());
+        Assert.assertEquals("3", results.get(1).getId());
+        Assert.assertEquals("2", results.get(2).getId());
+        Assert.assertEquals("4", results.get(3).getId());
+    }
+
+    @Test
+    public void testSearchFailureOfIndexIsSkipped() {
+        EasyMock.expect(first.search(criteria, null, null, false, 0, 10))
+                .andReturn(newResults(1, null, newDoc("1", 0.9)));
+        EasyMock.expect(second.search(criteria, null, null, false, 0, 10))
+                .andThrow(new SearchException("failed"));
+        EasyMock.replay(first);
+        EasyMock.replay(second);
+
+        SearchDocList results = newQuery().search(criteria, false, 0, 10);
+        Assert.assertTrue(results.isPartial());
+        Assert.assertEquals(1, results.getTotalHits());
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals("1", results.get(0).getId());
+    }
+
+    @Test(expected = SearchException.class)
+    public void testSearchFailureOfAllIndexes() {
+        EasyMock.expect(first.search(criteria, null, null, false, 0, 10))
+                .andThrow(new SearchException("failed"));
+        EasyMock.expect(second.search(criteria, null, null, false, 0, 10))
+                .andThrow(new SearchException("failed"));
+        EasyMock.replay(first);
+        EasyMock.replay(second);
+
+        newQuery().search(criteria, false, 0, 10);
+    }
+
+    private MultiIndexQuery newQuery() {
+        final List<MultiIndexQuery.Target> targets = new ArrayList<MultiIndexQuery.Target>();
+        targets.add(new MultiIndexQuery.Target("first", first, null, null));
+        targets.add(new MultiIndexQuery.Target("second", second, null, null));
+        return new MultiIndexQuery(targets);
+    }
+
+    private static SearchDocList newResults(final int totalHits,
+            final List<String> similarWords, final SearchDoc... docs) {
+        return new SearchDocList(0, docs.length, totalHits,
+                new ArrayList<SearchDoc>(Arrays.asList(docs)), similarWords);
+    }
+
+    private static SearchDoc newDoc(final String id, final double score) {
+        return new SearchDocBuilder("db").put(Document.ID, id).setScore(score)
+                .build();
+    }
+
+    private static SearchDoc newDoc(final String id, final double score,
+            final int price) {
+        return new SearchDocBuilder("db").put(Document.ID, id).setScore(score)
+                .put(SearchDoc.SORT,
+                        new ArrayList<Object>(Arrays.<Object> asList(price)))
+                .build();
+    }
+}
@@ -0,0 +1,138 @@
+package com.plexobject.docusearch.query.lucene;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.plexobject.docusearch.cache.CacheFlusher;
+import com.plexobject.docusearch.domain.Document;
+import com.plexobject.docusearch.lucene.SearcherManager;
+import com.plexobject.docusearch.query.CriteriaBuilder;
+import com.plexobject.docusearch.query.QueryCriteria;
+import com.plexobject.docusearch.query.QueryPolicy;
+import com.plexobject.docusearch.query.SearchDocList;
+
+public class CachingQueryTest {
+    private static final String DB_NAME = "CachingQueryTestDB";
+    private static final String CONTENT = DB_NAME + ".content";
+    private RAMDirectory ram;
+    private QueryPolicy queryPolicy;
+
+    @Before
+    public void setUp() throws Exception {
+        BasicConfigurator.configure();
+        CacheFlusher.getInstance().flushCaches();
+        ram = new RAMDirectory();
+        queryPolicy = new QueryPolicy();
+        queryPolicy.add(CONTENT);
+        add("1", "this hat is green");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SearcherManager.close(ram);
+        CacheFlusher.getInstance().flushCaches();
+    }
+
+    @Test
+    public void testCachedSearch() throws Exception {
+        final CachingQuery query = new CachingQuery(new QueryImpl(ram,
+                DB_NAME));
+        final QueryCriteria criteria = new CriteriaBuilder().setKeywords("hat")
+                .build();
+        final long hits = CachingQuery.getHits();
+        final long misses = CachingQuery.getMisses();
+
+        SearchDocList results = query.search(criteria, null, queryPolicy,
+                false, 0, 10);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(misses + 1, CachingQuery.getMisses());
+
+        Assert.assertEquals(results, query.search(criteria, null,
+                queryPolicy, false, 0, 10));
+        Assert.assertEquals(hits + 1, CachingQuery.getHits());
+
+        query.search(criteria, null, queryPolicy, false, 0, 5);
+        Assert.assertEquals(misses + 2, CachingQuery.getMisses());
+    }
+
+    @Test
+    public void testNotCachedForDifferentPolicySettings() throws Exception {
+        final CachingQuery query = new CachingQuery(new QueryImpl(ram,
+                DB_NAME));
+        final QueryCriteria criteria = new CriteriaBuilder().setKeywords("hat")
+                .build();
+        final long misses = CachingQuery.getMisses();
+        query.search(criteria, null, queryPolicy, false, 0, 10);
+
+        final QueryPolicy boostedPolicy = new QueryPolicy();
+        boostedPolicy.add(CONTENT, 0, true, 2.0F,
+                QueryPolicy.FieldType.STRING);
+        Assert.assertEquals(queryPolicy, boostedPolicy);
+        query.search(criteria, null, boostedPolicy, false, 0, 10);
+        Assert.assertEquals(misses + 2, CachingQuery.getMisses());
+
+        final QueryPolicy analyzedPolicy = new QueryPolicy();
+        analyzedPolicy.add(CONTENT);
+        analyzedPolicy.setAnalyzer("StandardAnalyzer");
+        query.search(criteria, null, analyzedPolicy, false, 0, 10);
+        Assert.assertEquals(misses + 3, CachingQuery.getMisses());
+    }
+
+    @Test
+    public void testCachedResultsCantBeChanged() throws Exception {
+        final CachingQuery query = new CachingQuery(new QueryImpl(ram,
+                DB_NAME));
+        final QueryCriteria criteria = new CriteriaBuilder().setKeywords("hat")
+                .build();
+        final SearchDocList results = query.search(criteria, null,
+                queryPolicy, false, 0, 10);
+        results.remove(0);
+
+        final SearchDocList cached = query.search(criteria, null, queryPolicy,
+                false, 0, 10);
+        Assert.assertNotSame(results, cached);
+        Assert.assertEquals(1, cached.size());
+    }
+
+    @Test
+    public void testInvalidatedAfterCommit() throws Exception {
+        final CachingQuery query = new CachingQuery(new QueryImpl(ram,
+                DB_NAME));
+        final QueryCriteria criteria = new CriteriaBuilder().setKeywords("hat")
+                .build();
+        Assert.assertEquals(1, query.search(criteria, null, queryPolicy,
+                false, 0, 10).size());
+
+        add("2", "this hat is blue");
+        SearcherManager.refresh(ram);
+
+        Assert.assertEquals(2, query.search(criteria, null, queryPolicy,
+                false, 0, 10).size());
+    }
+
+    private void add(final String id, final String content) throws Exception {
+        final IndexWriter writer = new IndexWriter(ram, new StandardAnalyzer(
+                Version.LUCENE_CURRENT), MaxFieldLength.UNLIMITED);
+        try {
+            final org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
+            doc.add(new Field(Document.DATABASE, DB_NAME, Field.Store.YES,
+                    Field.Index.NOT_ANALYZED));
+            doc.add(new Field(Document.ID, id, Field.Store.YES,
+                    Field.Index.NOT_ANALYZED));
+            doc.add(new Field(CONTENT, content, Field.Store.YES,
+                    Field.Index.ANALYZED));
+            writer.addDocument(doc);
+        } finally {
+            writer.close();
+        }
+    }
+}
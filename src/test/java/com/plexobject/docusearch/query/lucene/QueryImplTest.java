@@ -1,11 +1,34 @@
 package com.plexobject.docusearch.query.lucene;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Assert;
 import org.junit.Test;
 
+import com.plexobject.docusearch.converter.Constants;
+import com.plexobject.docusearch.domain.Document;
 import com.plexobject.docusearch.index.lucene.IndexerImplTest;
 import com.plexobject.docusearch.lucene.LuceneUtils;
+import com.plexobject.docusearch.lucene.SearcherManager;
+import com.plexobject.docusearch.query.CriteriaBuilder;
+import com.plexobject.docusearch.query.QueryCriteria;
+import com.plexobject.docusearch.query.QueryPolicy;
+import com.plexobject.docusearch.query.SearchDoc;
+import com.plexobject.docusearch.query.SearchDocList;
+import com.plexobject.docusearch.util.TimeUtils;
+import com.plexobject.docusearch.util.TimeUtils.TimeSource;
 
 public class QueryImplTest extends IndexerImplTest {
 
@@ -18,4 +41,259 @@ public class QueryImplTest extends IndexerImplTest {
     public void testNullIndexConstructor() throws Exception {
         new QueryImpl(LuceneUtils.toFSDirectory(new File(DB_NAME)), null);
     }
+
+    @Test
+    public void testMergeDuplicatesWithStoredFields() throws Exception {
+        final RAMDirectory ram = new RAMDirectory();
+        final IndexWriter writer = new IndexWriter(ram, new StandardAnalyzer(
+                Version.LUCENE_CURRENT), MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < 2; i++) {
+            final org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
+            doc.add(new Field(Document.DATABASE, DB_NAME, Field.Store.YES,
+                    Field.Index.NOT_ANALYZED));
+            doc.add(new Field(Document.ID, "dup", Field.Store.YES,
+                    Field.Index.NOT_ANALYZED));
+            doc.add(new Field(DB_NAME + ".contents", "hat", Field.Store.YES,
+                    Field.Index.ANALYZED));
+            doc.add(new Field(DB_NAME + ".title", "Hat " + i,
+                    Field.Store.YES, Field.Index.NO));
+            writer.addDocument(doc);
+        }
+        writer.close();
+
+        final QueryImpl query = new QueryImpl(ram, DB_NAME);
+        final QueryPolicy queryPolicy = new QueryPolicy();
+        queryPolicy.add(DB_NAME + ".contents");
+        try {
+            final QueryCriteria criteria = new CriteriaBuilder().setKeywords(
+                    "hat").setDetailedResults(true).build();
+            final SearchDocList results = query.search(criteria, null,
+                    queryPolicy, false, 0, 10);
+            Assert.assertEquals(1, results.size());
+            Assert.assertEquals(1, results.getTotalHits());
+            final SearchDoc doc = results.get(0);
+            Assert.assertEquals("dup", doc.getId());
+            Assert.assertEquals(DB_NAME, doc.getDatabase());
+            Assert.assertEquals("Hat 0", doc.get(DB_NAME + ".title"));
+            Assert.assertTrue(doc.getScore() > 0);
+
+            // only fields of the query policy are loaded by default
+            final SearchDoc brief = query.search(
+                    new CriteriaBuilder().setKeywords("hat").build(), null,
+                    queryPolicy, false, 0, 10).get(0);
+            Assert.assertEquals("dup", brief.getId());
+            Assert.assertEquals("hat", brief.get(DB_NAME + ".contents"));
+            Assert.assertNull(brief.get(DB_NAME + ".title"));
+        } finally {
+            SearcherManager.close(ram);
+        }
+    }
+
+    @Test
+    public void testCursorPaging() throws Exception {
+        final RAMDirectory ram = new RAMDirectory();
+        final IndexWriter writer = new IndexWriter(ram, new StandardAnalyzer(
+                Version.LUCENE_CURRENT), MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < 25; i++) {
+            final org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
+            doc.add(new Field(Document.DATABASE, DB_NAME, Field.Store.YES,
+                    Field.Index.NOT_ANALYZED));
+            doc.add(new Field(Document.ID, "id" + i, Field.Store.YES,
+                    Field.Index.NOT_ANALYZED));
+            doc.add(new Field(DB_NAME + ".contents", i % 2 == 0 ? "hat"
+                    : "hat hat green", Field.Store.YES, Field.Index.ANALYZED));
+            writer.addDocument(doc);
+        }
+        writer.close();
+
+        final QueryImpl query = new QueryImpl(ram, DB_NAME);
+        final QueryPolicy queryPolicy = new QueryPolicy();
+        queryPolicy.add(DB_NAME + ".contents");
+        try {
+            final Set<String> ids = new HashSet<String>();
+            String cursor = QueryCriteria.FIRST_CURSOR;
+            int pages = 0;
+            while (cursor != null) {
+                final QueryCriteria criteria = new CriteriaBuilder()
+                        .setKeywords("hat").setCursor(cursor).build();
+                final SearchDocList results = query.search(criteria, null,
+                        queryPolicy, false, 0, 10);
+                Assert.assertEquals(25, results.getTotalHits());
+                for (SearchDoc doc : results) {
+                    Assert.assertTrue("duplicate " + doc, ids.add(doc.getId()));
+                }
+                cursor = results.getCursor();
+                pages++;
+            }
+            Assert.assertEquals(25, ids.size());
+            Assert.assertEquals(3, pages);
+        } finally {
+            SearcherManager.close(ram);
+        }
+    }
+
+    @Test
+    public void testSortedCursorPagingAcrossCommits() throws Exception {
+        final RAMDirectory ram = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(ram, new StandardAnalyzer(
+                Version.LUCENE_CURRENT), MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < 25; i++) {
+            writer.addDocument(newCursorDocument(i, "u" + (100 - i)));
+        }
+        writer.close();
+
+        final QueryImpl query = new QueryImpl(ram, DB_NAME);
+        final QueryPolicy queryPolicy = new QueryPolicy();
+        queryPolicy.add(DB_NAME + ".contents");
+        queryPolicy.add(DB_NAME + ".rank", 0, true, 0.0F,
+                QueryPolicy.FieldType.STRING);
+        try {
+            // all hits in one page give the order of the sort
+            final List<String> expected = new ArrayList<String>();
+            String rank = null;
+            for (SearchDoc doc : query.search(newSortedCriteria(
+                    QueryCriteria.FIRST_CURSOR), null, queryPolicy, false, 0,
+                    25)) {
+                expected.add(doc.getId());
+                final String docRank = (String) doc.get(DB_NAME + ".rank");
+                Assert.assertTrue(rank + " before " + docRank, rank == null
+                        || rank.compareTo(docRank) >= 0);
+                rank = docRank;
+            }
+            Assert.assertEquals(25, expected.size());
+
+            final List<String> ids = new ArrayList<String>();
+            String cursor = QueryCriteria.FIRST_CURSOR;
+            while (cursor != null) {
+                final SearchDocList results = query.search(
+                        newSortedCriteria(cursor), null, queryPolicy, false,
+                        0, 10);
+                for (SearchDoc doc : results) {
+                    ids.add(doc.getId());
+                }
+                cursor = results.getCursor();
+                if (ids.size() == 10) {
+                    // commits between pages don't invalidate the cursor
+                    writer = new IndexWriter(ram, new StandardAnalyzer(
+                            Version.LUCENE_CURRENT), MaxFieldLength.UNLIMITED);
+                    writer.addDocument(newCursorDocument(25, "u0"));
+                    writer.close();
+                    SearcherManager.refresh(ram);
+                }
+            }
+            ids.remove("id25");
+            Assert.assertEquals(expected, ids);
+        } finally {
+            SearcherManager.close(ram);
+        }
+    }
+
+    private static QueryCriteria newSortedCriteria(final String cursor) {
+        return new CriteriaBuilder().setKeywords("hat").setSortBy("rank",
+                true).setCursor(cursor).build();
+    }
+
+    private static org.apache.lucene.document.Document newCursorDocument(
+            final int i, final String uid) {
+        final org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
+        doc.add(new Field(Document.DATABASE, DB_NAME, Field.Store.YES,
+                Field.Index.NOT_ANALYZED));
+        doc.add(new Field(Document.ID, "id" + i, Field.Store.YES,
+                Field.Index.NOT_ANALYZED));
+        doc.add(new Field(Constants.UID, uid, Field.Store.NO,
+                Field.Index.NOT_ANALYZED_NO_NORMS));
+        doc.add(new Field(DB_NAME + ".rank", "r" + (i % 5), Field.Store.YES,
+                Field.Index.NOT_ANALYZED));
+        doc.add(new Field(DB_NAME + ".contents", i % 2 == 0 ? "hat"
+                : "hat hat green", Field.Store.YES, Field.Index.ANALYZED));
+        return doc;
+    }
+
+    @Test
+    public void testTimeoutReturnsPartialResults() throws Exception {
+        final RAMDirectory ram = newIndex();
+        final QueryImpl query = new QueryImpl(ram, DB_NAME);
+        final QueryPolicy queryPolicy = new QueryPolicy();
+        queryPolicy.add(DB_NAME + ".contents");
+        try {
+            final QueryCriteria criteria = new CriteriaBuilder().setKeywords(
+                    "hat").setTimeoutMillis(1000).build();
+            Assert.assertFalse(query.search(criteria, null, queryPolicy, false,
+                    0, 10).isPartial());
+
+            // the deadline passes before hits are collected
+            setTimes(0, 2000);
+            final SearchDocList results = query.search(criteria, null,
+                    queryPolicy, false, 0, 10);
+            Assert.assertTrue(results.isPartial());
+            Assert.assertEquals(0, results.size());
+        } finally {
+            resetTime();
+            SearcherManager.close(ram);
+        }
+    }
+
+    @Test
+    public void testFuzzyRetryUsesRemainingTime() throws Exception {
+        final RAMDirectory ram = newIndex();
+        final QueryImpl query = new QueryImpl(ram, DB_NAME);
+        final QueryPolicy queryPolicy = new QueryPolicy();
+        queryPolicy.add(DB_NAME + ".contents");
+        try {
+            final QueryCriteria criteria = new CriteriaBuilder().setKeywords(
+                    "xyzzy").setFuzzySearchForNoResults(true)
+                    .setTimeoutMillis(1000).build();
+            // the first attempt has time left but the deadline passes
+            // before the fuzzy retry
+            setTimes(0, 500, 2000);
+            final SearchDocList results = query.search(criteria, null,
+                    queryPolicy, false, 0, 10);
+            Assert.assertTrue(results.isPartial());
+        } finally {
+            resetTime();
+            SearcherManager.close(ram);
+        }
+    }
+
+    private static RAMDirectory newIndex() throws Exception {
+        final RAMDirectory ram = new RAMDirectory();
+        final IndexWriter writer = new IndexWriter(ram, new StandardAnalyzer(
+                Version.LUCENE_CURRENT), MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < 5; i++) {
+            final org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
+            doc.add(new Field(Document.DATABASE, DB_NAME, Field.Store.YES,
+                    Field.Index.NOT_ANALYZED));
+            doc.add(new Field(Document.ID, "id" + i, Field.Store.YES,
+                    Field.Index.NOT_ANALYZED));
+            doc.add(new Field(DB_NAME + ".contents", "hat", Field.Store.YES,
+                    Field.Index.ANALYZED));
+            writer.addDocument(doc);
+        }
+        writer.close();
+        return ram;
+    }
+
+    // returns given offsets from now on successive calls and the last one
+    // afterwards
+    private static void setTimes(final long... offsets) {
+        final long now = System.currentTimeMillis();
+        final AtomicInteger calls = new AtomicInteger();
+        TimeUtils.setTimeSource(new TimeSource() {
+            @Override
+            public Date getCurrentTime() {
+                final int i = Math.min(calls.getAndIncrement(),
+                        offsets.length - 1);
+                return new Date(now + offsets[i]);
+            }
+        });
+    }
+
+    private static void resetTime() {
+        TimeUtils.setTimeSource(new TimeSource() {
+            @Override
+            public Date getCurrentTime() {
+                return new Date();
+            }
+        });
+    }
 }
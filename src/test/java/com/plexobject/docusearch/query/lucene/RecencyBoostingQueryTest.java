@@ -0,0 +1,31 @@
+package com.plexobject.docusearch.query.lucene;
+
+import java.util.Date;
+
+import org.apache.lucene.document.DateTools;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RecencyBoostingQueryTest {
+    private static final long MSEC_PER_DAY = 24 * 3600 * 1000L;
+
+    @Test
+    public void testIndexDayParser() throws Exception {
+        final Date date = new Date(100 * MSEC_PER_DAY);
+        Assert.assertEquals(100, RecencyBoostingQuery.INDEX_DAY_PARSER
+                .parseInt(DateTools.dateToString(date,
+                        DateTools.Resolution.DAY)));
+        Assert.assertEquals(0, RecencyBoostingQuery.INDEX_DAY_PARSER
+                .parseInt("bad date"));
+    }
+
+    @Test
+    public void testBoost() throws Exception {
+        final RecencyBoostingQuery.RecencyValueSource source = new RecencyBoostingQuery.RecencyValueSource(
+                2.0, 10, 1000);
+        Assert.assertEquals(3.0F, source.boost(1000), 0.0001F);
+        Assert.assertEquals(2.0F, source.boost(995), 0.0001F);
+        Assert.assertEquals(1.0F, source.boost(990), 0.0001F);
+        Assert.assertEquals(1.0F, source.boost(0), 0.0001F);
+    }
+}
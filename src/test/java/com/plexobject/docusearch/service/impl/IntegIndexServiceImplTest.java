@@ -92,7 +92,7 @@ public class IntegIndexServiceImplTest {
             response = searchService.query(index, owner, keywords, zipCode,
                     city, state, country, region, radius, sortBy,
                     sortAscending, includeSuggestions, start, limit,
-                    detailedResults);
+                    detailedResults, 0, null);
             Assert.assertEquals(tag, 200, response.getStatus());
 
             Assert.assertEquals(tag, "", response.getEntity());
@@ -5,8 +5,13 @@ import java.util.Arrays;
 
 import javax.ws.rs.core.Response;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
 import org.easymock.EasyMock;
 import org.junit.After;
 import org.junit.Assert;
@@ -16,6 +21,8 @@ import org.junit.Test;
 import com.plexobject.docusearch.Configuration;
 import com.plexobject.docusearch.cache.CacheFlusher;
 import com.plexobject.docusearch.http.RestClient;
+import com.plexobject.docusearch.lucene.IndexWriterManager;
+import com.plexobject.docusearch.lucene.LuceneUtils;
 import com.plexobject.docusearch.persistence.ConfigurationRepository;
 import com.plexobject.docusearch.persistence.DocumentRepository;
 import com.plexobject.docusearch.query.CriteriaBuilder;
@@ -131,6 +138,55 @@ public class SearchAdminServiceImplTest {
 
     }
 
+    @Test
+    public final void testBackupWithBadIndex() throws JSONException {
+        Response response = service.backupIndex("../" + TEST_DB);
+        Assert.assertEquals(RestClient.CLIENT_ERROR_BAD_REQUEST, response
+                .getStatus());
+    }
+
+    @Test
+    public final void testBackupWithMissingIndex() throws JSONException {
+        Response response = service.backupIndex("missing_" + TEST_DB
+                + System.currentTimeMillis());
+        Assert.assertEquals(RestClient.CLIENT_ERROR_NOT_FOUND, response
+                .getStatus());
+    }
+
+    @Test
+    public final void testBackupAndMergeStatsDontOpenWriter()
+            throws Exception {
+        final String index = "admin_" + TEST_DB + System.currentTimeMillis();
+        final File dir = new File(LuceneUtils.INDEX_DIR, index);
+        try {
+            final IndexWriter writer = new IndexWriter(LuceneUtils
+                    .toFSDirectory(dir), LuceneUtils.getDefaultAnalyzer(),
+                    true, IndexWriter.MaxFieldLength.UNLIMITED);
+            final Document doc = new Document();
+            doc.add(new Field("id", "1", Field.Store.YES,
+                    Field.Index.NOT_ANALYZED));
+            writer.addDocument(doc);
+            writer.close();
+
+            Response response = service.getMergeStats(index);
+            Assert.assertEquals(200, response.getStatus());
+            final JSONObject stats = new JSONObject(response.getEntity()
+                    .toString());
+            Assert.assertEquals(1, stats.getInt("segments"));
+            Assert.assertFalse(stats.getBoolean("open"));
+
+            response = service.backupIndex(index);
+            Assert.assertEquals(200, response.getStatus());
+            Assert.assertNull(IndexWriterManager.getOpenInstance(LuceneUtils
+                    .toFSDirectory(dir)));
+            Assert.assertFalse(IndexWriter.isLocked(LuceneUtils
+                    .toFSDirectory(dir)));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+            FileUtils.deleteDirectory(new File(LuceneUtils.BACKUP_DIR, index));
+        }
+    }
+
     @Test
     public final void testTopTerms() throws JSONException {
         final QueryPolicy policy = newQueryPolicy();
@@ -85,19 +85,19 @@ public class SearchServiceImplTest {
     @Test
     public void testQueryWithNullIndex() {
         service.query(null, "owner", "keywords", null, null, null, null, null,
-                0, null, true, false, 0, MAX_LIMIT, true);
+                0, null, true, false, 0, MAX_LIMIT, true, 0, null);
     }
 
     @Test
     public void testQueryWithBadIndex() {
         service.query("name\"", "owner", "keywords", null, null, null, null,
-                null, 0, null, true, false, 0, MAX_LIMIT, true);
+                null, 0, null, true, false, 0, MAX_LIMIT, true, 0, null);
     }
 
     @Test
     public void testQueryWithNoKeywordsIndex() {
         service.query(TEST_DB, "owner", "", null, null, null, null, null, 0,
-                null, true, false, 0, MAX_LIMIT, true);
+                null, true, false, 0, MAX_LIMIT, true, 0, null);
     }
 
     @Test
@@ -121,7 +121,7 @@ public class SearchServiceImplTest {
 
         Response response = service.query(TEST_DB, "shahbhat", "keywords",
                 null, null, null, null, null, 0, null, true, false, 0,
-                MAX_LIMIT, true);
+                MAX_LIMIT, true, 0, null);
         EasyMock.verify(repository);
         EasyMock.verify(configRepository);
         EasyMock.verify(query);
@@ -135,6 +135,7 @@ public class SearchServiceImplTest {
         Assert.assertEquals(String.valueOf(MAX_LIMIT), jsonResponse
                 .getString("limit"));
         Assert.assertEquals("1", jsonResponse.getString("totalHits"));
+        Assert.assertFalse(jsonResponse.getBoolean("partial"));
         JSONArray jsonDocs = jsonResponse.getJSONArray("docs");
         JSONObject jsonDoc = jsonDocs.getJSONObject(0);
         Assert.assertEquals("1", jsonDoc.getString("A"));
@@ -166,7 +167,7 @@ public class SearchServiceImplTest {
 
         Response response = service.query(TEST_DB, "shahbhat", "keywords",
                 null, null, null, null, null, 0, null, false, false, 0,
-                MAX_LIMIT, true);
+                MAX_LIMIT, true, 0, null);
         EasyMock.verify(repository);
         EasyMock.verify(configRepository);
         EasyMock.verify(query);
@@ -207,7 +208,7 @@ public class SearchServiceImplTest {
 
         Response response = service.query(TEST_DB, "owner", "keywords", null,
                 null, null, null, null, 0, null, false, false, 0, MAX_LIMIT,
-                true);
+                true, 0, null);
         EasyMock.verify(repository);
         EasyMock.verify(configRepository);
         EasyMock.verify(query);